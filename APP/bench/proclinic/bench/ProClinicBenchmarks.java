@@ -0,0 +1,319 @@
+/*
+ * =================================================================================
+ * Pro Clinic Manager - JMH benchmarks for the data and rendering hot paths
+ * Runs against an embedded H2 database (MySQL mode) seeded from the schema in README.md.
+ * JMH does not allow benchmarks in the default package, so the application's nested
+ * classes are reached through the small reflective bridge at the bottom of this file.
+ * =================================================================================
+ */
+package proclinic.bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JButton;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dclinic.db.url=jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1", "-Dclinic.db.password="})
+public class ProClinicBenchmarks {
+
+    private static final String APPOINTMENT_JOIN = "SELECT a.id, p.name as patient_name, d.name as doctor_name, a.appointment_datetime, a.status, p.id as patient_id, a.notes FROM appointments a JOIN patients p ON a.patient_id = p.id JOIN doctors d ON a.doctor_id = d.id";
+
+    // ====================== SHARED DATABASE ======================
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"100000"}) public int appointments;
+        @Param({"1000"}) public int patients;
+        int chartPatientId, chartAppointmentId;
+
+        @Setup(Level.Trial)
+        public void seed() throws Exception {
+            Path readme = Paths.get(System.getProperty("clinic.bench.schema", "README.md"));
+            String script = new String(Files.readAllBytes(readme), "UTF-8");
+            int end = script.indexOf("END OF SCRIPT");
+            Path schema = Files.createTempFile("clinic-schema", ".sql");
+            Files.write(schema, (end < 0 ? script : script.substring(0, end)).getBytes("UTF-8"));
+            try (Connection conn = App.connection()) {
+                App.invoke(App.RUN_SCRIPT, conn, schema);
+                conn.setAutoCommit(false);
+                try (PreparedStatement users = conn.prepareStatement("INSERT INTO users (username, password, role) VALUES (?, 'x', 'patient')", Statement.RETURN_GENERATED_KEYS);
+                     PreparedStatement profiles = conn.prepareStatement("INSERT INTO patients (user_id, name, dob, phone) VALUES (?, ?, '1990-01-01', '9800000000')")) {
+                    for (int i = 0; i < patients; i++) {
+                        users.setString(1, "bench_patient_" + i); users.executeUpdate();
+                        try (ResultSet keys = users.getGeneratedKeys()) {
+                            keys.next();
+                            profiles.setInt(1, keys.getInt(1)); profiles.setString(2, "Patient " + i); profiles.executeUpdate();
+                        }
+                    }
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, status, notes) VALUES (?, ?, ?, 'Completed', ?)")) {
+                    LocalDateTime start = LocalDateTime.of(2015, 1, 1, 9, 0);
+                    for (int i = 0; i < appointments; i++) {
+                        pstmt.setInt(1, 1 + i % patients); pstmt.setInt(2, 1 + i % 5);
+                        pstmt.setTimestamp(3, Timestamp.valueOf(start.plusMinutes(15L * i)));
+                        pstmt.setString(4, "Diagnosis and prescription notes for visit " + i);
+                        pstmt.addBatch();
+                        if (i % 1000 == 999) pstmt.executeBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+                conn.commit();
+                conn.setAutoCommit(true);
+                try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT patient_id, MAX(id) FROM appointments WHERE patient_id = (SELECT MIN(id) FROM patients) GROUP BY patient_id")) {
+                    rs.next(); chartPatientId = rs.getInt(1); chartAppointmentId = rs.getInt(2);
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO medical_reports (appointment_id, report_name, file_path) VALUES (?, ?, ?)")) {
+                    for (int i = 0; i < 20; i++) {
+                        pstmt.setInt(1, chartAppointmentId); pstmt.setString(2, "Scan " + i); pstmt.setString(3, "sha256:bench" + i); pstmt.executeUpdate();
+                    }
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Connection conn;
+        Object adminModel;
+        LocalDateTime nextBooking = LocalDateTime.of(2030, 1, 1, 0, 0);
+        int bookingDoctor;
+
+        @Setup(Level.Trial)
+        public void open(Database db) throws Exception {
+            conn = App.connection();
+            adminModel = App.newInstance(App.PAGED_MODEL, App.ALL_APPOINTMENTS);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException { conn.close(); }
+    }
+
+    // ====================== ROW MAPPING ======================
+    // The original AppointmentsViewPanel.refreshData mapping: one Vector per row and a new formatter per row.
+    @Benchmark
+    public void legacyVectorRowMapping(Session s, Blackhole bh) throws SQLException {
+        try (Statement stmt = s.conn.createStatement(); ResultSet rs = stmt.executeQuery(APPOINTMENT_JOIN + " ORDER BY a.appointment_datetime DESC LIMIT 200")) {
+            while (rs.next()) {
+                Vector<Object> row = new Vector<>();
+                row.add(rs.getInt("id"));
+                row.add(rs.getString("patient_name"));
+                row.add(rs.getString("doctor_name"));
+                row.add(rs.getTimestamp("appointment_datetime").toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+                row.add(rs.getString("status"));
+                row.add(rs.getInt("patient_id"));
+                row.add(rs.getString("notes"));
+                bh.consume(row);
+            }
+        }
+    }
+
+    // The same 200 rows through the keyset-paged model that backs the grid today.
+    @Benchmark
+    public Object pagedModelFirstPage(Session s) throws Exception {
+        return App.invokeOn(App.FETCH_PAGE, s.adminModel, (Object) null);
+    }
+
+    // ====================== BOOKING ======================
+    @Benchmark
+    public Object bookingInsert(Session s, Database db) throws Exception {
+        s.nextBooking = s.nextBooking.plusMinutes(15);
+        s.bookingDoctor = s.bookingDoctor % 5 + 1;
+        return App.invoke(App.INSERT_APPOINTMENT, db.chartPatientId, s.bookingDoctor, s.nextBooking);
+    }
+
+    // ====================== PATIENT CHART ======================
+    @Benchmark
+    public void patientChartLoad(Session s, Database db, Blackhole bh) throws Exception {
+        Object chart = App.invoke(App.LOAD_CHART, db.chartPatientId);
+        bh.consume(App.invoke(App.CHART_DATA, chart, db.chartAppointmentId));
+    }
+
+    // ====================== RENDERING ======================
+    // cached=false paints the gradient on every call, as before the background cache; JMH forks a JVM per
+    // parameter value, so the property is read fresh by ModernButton's static initializer.
+    @State(Scope.Thread)
+    public static class ButtonCanvas {
+        @Param({"true", "false"}) public boolean cached;
+        JButton button;
+        BufferedImage canvas;
+
+        @Setup(Level.Trial)
+        public void create() throws Exception {
+            System.setProperty("clinic.ui.buttonCache", String.valueOf(cached));
+            button = (JButton) App.newInstance(App.MODERN_BUTTON, "Book New Appointment");
+            button.setSize(220, 44);
+            canvas = new BufferedImage(220, 44, BufferedImage.TYPE_INT_ARGB);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage modernButtonPaint(ButtonCanvas c) {
+        Graphics2D g = c.canvas.createGraphics();
+        c.button.paint(g);
+        g.dispose();
+        return c.canvas;
+    }
+
+    // ====================== REMINDERS ======================
+    // 100k reminders spread over a week of 1-second ticks. The wheel is called through MethodHandles (JIT-inlined)
+    // so that its numbers compare with the direct PriorityQueue calls of the baseline.
+    @State(Scope.Thread)
+    public static class ReminderLoad {
+        static final long START = 1_767_225_600_000L, WEEK = 7 * 24 * 3_600_000L;
+        @Param({"100000"}) public int reminders;
+        long[] deadlines;
+        Object[] payloads;
+
+        @Setup(Level.Trial)
+        public void spread() {
+            Random random = new Random(42);
+            deadlines = new long[reminders]; payloads = new Object[reminders];
+            for (int i = 0; i < reminders; i++) { deadlines[i] = START + (long) (random.nextDouble() * WEEK); payloads[i] = i; }
+        }
+    }
+
+    private static final class Due {
+        final long deadline; final Object payload;
+        Due(long deadline, Object payload) { this.deadline = deadline; this.payload = payload; }
+    }
+
+    // Schedule everything, then one advance past the last deadline.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int timingWheelScheduleAndFire(ReminderLoad load) throws Throwable {
+        Object wheel = (Object) App.WHEEL_NEW.invokeExact(1_000L, ReminderLoad.START);
+        for (int i = 0; i < load.reminders; i++) { Object timer = (Object) App.WHEEL_ADD.invokeExact(wheel, load.deadlines[i], load.payloads[i]); }
+        List<?> due = (List<?>) App.WHEEL_ADVANCE.invokeExact(wheel, ReminderLoad.START + ReminderLoad.WEEK + 1_000L);
+        return due.size();
+    }
+
+    // As the reminder thread runs it: one advance per tick, due reminders collected in batches.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int timingWheelTickByTick(ReminderLoad load, Blackhole bh) throws Throwable {
+        Object wheel = (Object) App.WHEEL_NEW.invokeExact(1_000L, ReminderLoad.START);
+        for (int i = 0; i < load.reminders; i++) { Object timer = (Object) App.WHEEL_ADD.invokeExact(wheel, load.deadlines[i], load.payloads[i]); }
+        int fired = 0;
+        for (long now = ReminderLoad.START; now <= ReminderLoad.START + ReminderLoad.WEEK + 1_000L; now += 1_000L) {
+            List<?> due = (List<?>) App.WHEEL_ADVANCE.invokeExact(wheel, now);
+            fired += due.size();
+            bh.consume(due);
+        }
+        return fired;
+    }
+
+    // Every booking cancelled again before its reminder is due.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int timingWheelScheduleAndCancel(ReminderLoad load) throws Throwable {
+        Object wheel = (Object) App.WHEEL_NEW.invokeExact(1_000L, ReminderLoad.START);
+        Object[] timers = new Object[load.reminders];
+        for (int i = 0; i < load.reminders; i++) timers[i] = (Object) App.WHEEL_ADD.invokeExact(wheel, load.deadlines[i], load.payloads[i]);
+        int cancelled = 0;
+        for (Object timer : timers) if ((boolean) App.WHEEL_CANCEL.invokeExact(wheel, timer)) cancelled++;
+        return cancelled;
+    }
+
+    // Baseline: the binary heap behind java.util.Timer and ScheduledThreadPoolExecutor.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int priorityQueueScheduleAndFire(ReminderLoad load) {
+        PriorityQueue<Due> queue = new PriorityQueue<>((x, y) -> Long.compare(x.deadline, y.deadline));
+        for (int i = 0; i < load.reminders; i++) queue.add(new Due(load.deadlines[i], load.payloads[i]));
+        List<Object> due = new ArrayList<>();
+        long end = ReminderLoad.START + ReminderLoad.WEEK + 1_000L;
+        while (!queue.isEmpty() && queue.peek().deadline <= end) due.add(queue.poll().payload);
+        return due.size();
+    }
+
+    // ====================== APPLICATION BRIDGE ======================
+    // The application is a single default-package class with private nested types; lookups happen once.
+    static final class App {
+        static final Method GET_CONNECTION, RUN_SCRIPT, FETCH_PAGE, INSERT_APPOINTMENT, LOAD_CHART, CHART_DATA;
+        static final Constructor<?> PAGED_MODEL, MODERN_BUTTON;
+        static final MethodHandle WHEEL_NEW, WHEEL_ADD, WHEEL_CANCEL, WHEEL_ADVANCE;
+        static final Object ALL_APPOINTMENTS;
+        static {
+            try {
+                Class<?> database = nested("DatabaseManager"), importer = nested("BulkImporter"), paged = nested("PagedAppointmentTableModel");
+                Class<?> booking = nested("AppointmentBookingDialog"), history = nested("PatientHistoryDialog");
+                GET_CONNECTION = method(database, "getConnection");
+                RUN_SCRIPT = method(importer, "runScript", Connection.class, Path.class);
+                FETCH_PAGE = method(paged, "fetchPage", Class.forName("ProClinicManager$PagedAppointmentTableModel$Key"));
+                INSERT_APPOINTMENT = method(booking, "insertAppointment", int.class, int.class, LocalDateTime.class);
+                LOAD_CHART = method(nested("PatientCharts"), "load", int.class);
+                CHART_DATA = method(history, "chartData", nested("PatientChart"), int.class);
+                Class<?> scope = nested("AppointmentScope");
+                PAGED_MODEL = paged.getDeclaredConstructor(scope);
+                Field all = scope.getDeclaredField("ALL");
+                all.setAccessible(true);
+                ALL_APPOINTMENTS = all.get(null);
+                MODERN_BUTTON = nested("ModernButton").getDeclaredConstructor(String.class);
+                PAGED_MODEL.setAccessible(true); MODERN_BUTTON.setAccessible(true);
+                Class<?> wheel = nested("TimingWheel"), timer = nested("TimingWheel$Timer");
+                Constructor<?> newWheel = wheel.getDeclaredConstructor(long.class, long.class);
+                newWheel.setAccessible(true);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                WHEEL_NEW = lookup.unreflectConstructor(newWheel).asType(MethodType.methodType(Object.class, long.class, long.class));
+                WHEEL_ADD = lookup.unreflect(method(wheel, "add", long.class, Object.class)).asType(MethodType.methodType(Object.class, Object.class, long.class, Object.class));
+                WHEEL_CANCEL = lookup.unreflect(method(wheel, "cancel", timer)).asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                WHEEL_ADVANCE = lookup.unreflect(method(wheel, "advanceTo", long.class)).asType(MethodType.methodType(List.class, Object.class, long.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static Class<?> nested(String name) throws ClassNotFoundException { return Class.forName("ProClinicManager$" + name); }
+
+        private static Method method(Class<?> owner, String name, Class<?>... params) throws NoSuchMethodException {
+            Method m = owner.getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return m;
+        }
+
+        static Connection connection() throws Exception { return (Connection) invoke(GET_CONNECTION); }
+
+        static Object invoke(Method m, Object... args) throws Exception { return invokeOn(m, null, args); }
+
+        static Object invokeOn(Method m, Object target, Object... args) throws Exception {
+            try {
+                return m.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        static Object newInstance(Constructor<?> c, Object... args) throws Exception {
+            try {
+                return c.newInstance(args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+}
@@ -5,22 +5,116 @@
  * =================================================================================
  */
 
+import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.sql.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 import com.formdev.flatlaf.FlatDarculaLaf;
 import com.formdev.flatlaf.FlatLightLaf;
@@ -29,7 +123,47 @@ import com.github.lgooddatepicker.components.TimePicker;
 
 public class ProClinicManager {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "import".equals(args[0])) {
+            BulkImporter.run(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(0);
+        }
+        if (args.length > 0 && "loadtest".equals(args[0])) {
+            LoadGenerator.run(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(0);
+        }
+        if (args.length > 0 && "bookingcheck".equals(args[0])) {
+            BookingCheck.run(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && "export".equals(args[0])) {
+            ClinicExport.run(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(0);
+        }
+        if (args.length > 0 && "reminders".equals(args[0])) {
+            AppointmentReminders.start();
+            Thread.currentThread().join();
+        }
+        if (args.length > 0 && "rebuild-stats".equals(args[0])) {
+            Repositories.analytics().rebuildDailyStats();
+            System.exit(0);
+        }
+        if (args.length > 0 && "migrate".equals(args[0])) {
+            SchemaMigrations.migrate();
+            System.exit(SchemaMigrations.checkPlans(true).isEmpty() ? 0 : 2);
+        }
+        if (Repositories.appointments() instanceof JdbcStore && !"false".equals(System.getProperty("clinic.schema.migrate"))) {
+            try {
+                SchemaMigrations.migrate();
+                DataExecutor.submit(() -> SchemaMigrations.checkPlans(false), warnings -> { }, Throwable::printStackTrace);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (Boolean.getBoolean("clinic.reminders.enabled")) AppointmentReminders.start();
+        if (args.length > 0 && "serve".equals(args[0])) {
+            ClinicServer.run(Arrays.copyOfRange(args, 1, args.length));
+            Thread.currentThread().join();
+        }
         Path uploadPath = Paths.get("clinic_uploads");
         if (!Files.exists(uploadPath)) {
             try {
@@ -54,10 +188,26 @@ public class ProClinicManager {
         });
     }
 
+    // Swaps a table model's rows with a single change event instead of one event per addRow().
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void replaceRows(DefaultTableModel model, Vector<Vector<Object>> rows) {
+        Vector data = model.getDataVector();
+        data.clear(); data.addAll(rows);
+        model.fireTableDataChanged();
+    }
+
     // ====================== MODERN BUTTON ======================
+    // The rounded gradient background is rendered once per size, screen scale and rollover state into an image
+    // shared by all buttons; paints just copy it. Its colours are the same in both themes, so it survives a toggle.
     public static class ModernButton extends JButton {
-        private final Color startColor = new Color(0x4CAF50);
-        private final Color endColor = new Color(0x2E7D32);
+        private static final Color START_COLOR = new Color(0x4CAF50);
+        private static final Color END_COLOR = new Color(0x2E7D32);
+        private static final Color ROLLOVER = new Color(255, 255, 255, 50);
+        private static final boolean CACHE_ENABLED = !"false".equals(System.getProperty("clinic.ui.buttonCache"));
+        private static final Map<Long, BufferedImage> BACKGROUNDS = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) { return size() > 64; }
+        };
+
         public ModernButton(String text) {
             super(text);
             setContentAreaFilled(false);
@@ -68,646 +218,5934 @@ public class ProClinicManager {
         }
         @Override
         protected void paintComponent(Graphics g) {
-            Graphics2D g2 = (Graphics2D) g.create();
+            int w = getWidth(), h = getHeight();
+            if (w > 0 && h > 0) {
+                Graphics2D g2 = (Graphics2D) g;
+                if (CACHE_ENABLED) g2.drawImage(background(w, h, g2.getTransform(), getModel().isRollover()), 0, 0, w, h, null);
+                else paintBackground((Graphics2D) g2.create(), w, h, getModel().isRollover());
+            }
+            super.paintComponent(g);
+        }
+
+        // Rendered in device pixels so HiDPI screens stay sharp.
+        private static BufferedImage background(int w, int h, AffineTransform transform, boolean rollover) {
+            int scaleX = (int) Math.round(Math.abs(transform.getScaleX()) * 100), scaleY = (int) Math.round(Math.abs(transform.getScaleY()) * 100);
+            long key = (long) w << 48 | (long) (h & 0xffff) << 32 | (long) (scaleX & 0x3fff) << 18 | (long) (scaleY & 0x3fff) << 4 | (rollover ? 1 : 0);
+            BufferedImage image = BACKGROUNDS.get(key);
+            if (image == null) {
+                image = new BufferedImage(Math.max(1, (int) Math.ceil(w * scaleX / 100.0)), Math.max(1, (int) Math.ceil(h * scaleY / 100.0)), BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D g2 = image.createGraphics();
+                g2.scale(scaleX / 100.0, scaleY / 100.0);
+                paintBackground(g2, w, h, rollover);
+                BACKGROUNDS.put(key, image);
+            }
+            return image;
+        }
+
+        private static void paintBackground(Graphics2D g2, int w, int h, boolean rollover) {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setPaint(new GradientPaint(0, 0, startColor, 0, getHeight(), endColor));
-            g2.fillRoundRect(0, 0, getWidth(), getHeight(), 20, 20);
-            if (getModel().isRollover()) {
-                g2.setColor(new Color(255, 255, 255, 50));
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 20, 20);
+            g2.setPaint(new GradientPaint(0, 0, START_COLOR, 0, h, END_COLOR));
+            g2.fillRoundRect(0, 0, w, h, 20, 20);
+            if (rollover) {
+                g2.setColor(ROLLOVER);
+                g2.fillRoundRect(0, 0, w, h, 20, 20);
             }
-            super.paintComponent(g2);
             g2.dispose();
         }
     }
 
     // ====================== THEME TOGGLE ======================
+    // A look-and-feel swap replaces every component's UI delegate, so each window on screen has its whole tree
+    // updated. Hidden and disposed ones (closed dialogs stay in Window.getWindows() until collected) are restyled
+    // when they are shown again, if ever; the generation stamp keeps a tree from being updated twice per toggle.
     public static class ThemeManager {
+        private static final String STYLED_GENERATION = "clinic.themeGeneration";
         private static boolean isDarkMode = true;
+        private static int generation;
         public static void toggleTheme() {
             try {
                 if (isDarkMode) UIManager.setLookAndFeel(new FlatLightLaf());
                 else UIManager.setLookAndFeel(new FlatDarculaLaf());
                 isDarkMode = !isDarkMode;
-                for (Window window : Window.getWindows()) SwingUtilities.updateComponentTreeUI(window);
+                generation++;
+                for (Window window : Window.getWindows()) {
+                    if (window.isShowing()) restyle(window);
+                    else restyleWhenShown(window);
+                }
             } catch (Exception ex) { ex.printStackTrace(); }
         }
+
+        private static void restyleWhenShown(Window window) {
+            if (window instanceof RootPaneContainer && isStyled(((RootPaneContainer) window).getRootPane())) return;
+            for (ComponentListener l : window.getComponentListeners()) if (l instanceof Restyler) return;
+            window.addComponentListener(new Restyler());
+        }
+
+        private static class Restyler extends ComponentAdapter {
+            @Override public void componentShown(ComponentEvent e) {
+                e.getComponent().removeComponentListener(this);
+                restyle(e.getComponent());
+            }
+        }
+
+        private static boolean isStyled(JComponent c) { return c != null && Integer.valueOf(generation).equals(c.getClientProperty(STYLED_GENERATION)); }
+
+        // Like SwingUtilities.updateComponentTreeUI, but skips subtrees already styled for this theme.
+        static void restyle(Component root) {
+            if (root instanceof RootPaneContainer && isStyled(((RootPaneContainer) root).getRootPane())) return;
+            restyleTree(root);
+            root.invalidate(); root.validate(); root.repaint();
+        }
+
+        private static void restyleTree(Component c) {
+            if (c instanceof JComponent) {
+                JComponent jc = (JComponent) c;
+                if (isStyled(jc)) return;
+                jc.updateUI();
+                jc.putClientProperty(STYLED_GENERATION, generation);
+                JPopupMenu popup = jc.getComponentPopupMenu();
+                if (popup != null) restyleTree(popup);
+            }
+            Component[] children = c instanceof JMenu ? ((JMenu) c).getMenuComponents() : c instanceof Container ? ((Container) c).getComponents() : new Component[0];
+            for (Component child : children) restyleTree(child);
+        }
         public static boolean isDarkMode() { return isDarkMode; }
     }
 
     // ====================== DATABASE ======================
     private static class DatabaseManager {
-        private static final String DB_URL = "jdbc:mysql://localhost:3306/clinic_management";
-        private static final String DB_USER = "root";
-        private static final String DB_PASSWORD = "@Ak070707";
+        private static final String DB_URL = System.getProperty("clinic.db.url", "jdbc:mysql://localhost:3306/clinic_management");
+        private static final String DB_USER = System.getProperty("clinic.db.user", "root");
+        private static final String DB_PASSWORD = System.getProperty("clinic.db.password", "@Ak070707");
+        private static final ConnectionPool POOL = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD,
+                Integer.getInteger("clinic.pool.min", 2), Integer.getInteger("clinic.pool.max", 10),
+                Long.getLong("clinic.pool.leakMillis", 30_000L), Integer.getInteger("clinic.pool.statementCache", 32));
         public static Connection getConnection() throws SQLException {
-            return DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            return QueryMetrics.get().acquire(POOL);
         }
+        public static ConnectionPool getPool() { return POOL; }
     }
 
-    // ====================== MODELS ======================
-    private static class User {
-        int id; String username; String role;
-        public User(int id, String username, String role) { this.id = id; this.username = username; this.role = role; }
-    }
-    private static class Doctor {
-        int id; int userId; String name; String specialty;
-        @Override public String toString() { return name + " - " + specialty; }
-    }
-    private static class Patient { int id; int userId; String name; }
+    // ====================== CONNECTION POOL ======================
+    // Physical connections are handed out behind a Connection proxy: close() returns them to the pool and
+    // prepareStatement(sql) is served from a small per-connection LRU cache of statements. Leak reports give the
+    // borrow time only; -Dclinic.pool.leakTrace=true also records where each connection was borrowed, at the cost of
+    // a stack trace per borrow.
+    private static class ConnectionPool {
+        private static final boolean TRACE_BORROWS = Boolean.getBoolean("clinic.pool.leakTrace");
+        private final String url, user, password;
+        private final int minSize, maxSize, statementCacheSize;
+        private final long leakThresholdMillis;
+        private final long validateAfterIdleMillis = 5_000L;
+        private final long acquireTimeoutMillis = 10_000L;
+        private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+        private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+        private int totalCount;
+        private final AtomicLong borrowCount = new AtomicLong(), waitNanosTotal = new AtomicLong(), waitNanosMax = new AtomicLong();
+        private final AtomicLong leakCount = new AtomicLong(), validationFailures = new AtomicLong();
+        private final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "clinic-pool-housekeeper"); t.setDaemon(true); return t;
+        });
 
-    // ====================== SESSION ======================
-    private static class SessionManager {
-        private static User currentUser;
-        public static void login(User user) { currentUser = user; }
-        public static void logout() { currentUser = null; }
-        public static User getCurrentUser() { return currentUser; }
-        public static boolean hasRole(String... roles) {
-            if (currentUser == null) return false;
-            for (String r : roles) if (currentUser.role.equalsIgnoreCase(r)) return true;
+        ConnectionPool(String url, String user, String password, int minSize, int maxSize, long leakThresholdMillis, int statementCacheSize) {
+            this.url = url; this.user = user; this.password = password;
+            this.maxSize = Math.max(1, maxSize); this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+            this.leakThresholdMillis = leakThresholdMillis; this.statementCacheSize = Math.max(0, statementCacheSize);
+            housekeeper.scheduleWithFixedDelay(this::housekeep, 5, 5, TimeUnit.SECONDS);
+        }
+
+        Connection borrow() throws SQLException {
+            long start = System.nanoTime(), deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+            while (true) {
+                PooledConnection pc = null; boolean create = false;
+                synchronized (this) {
+                    while (idle.isEmpty() && totalCount >= maxSize) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) throw new SQLException("Timed out waiting for a database connection (" + getStats() + ")");
+                        try { TimeUnit.NANOSECONDS.timedWait(this, remaining); }
+                        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new SQLException("Interrupted while waiting for a database connection", e); }
+                    }
+                    if (!idle.isEmpty()) pc = idle.pollFirst();
+                    else { totalCount++; create = true; }
+                }
+                if (create) {
+                    try { pc = new PooledConnection(DriverManager.getConnection(url, user, password)); }
+                    catch (SQLException e) { synchronized (this) { totalCount--; notifyAll(); } throw e; }
+                } else if (!validate(pc)) {
+                    discard(pc); continue;
+                }
+                recordWait(System.nanoTime() - start);
+                pc.borrowedAt = System.currentTimeMillis();
+                pc.borrowSite = TRACE_BORROWS && leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+                pc.leakReported = false;
+                borrowed.add(pc);
+                return pc.newHandle();
+            }
+        }
+
+        private boolean validate(PooledConnection pc) {
+            if (System.currentTimeMillis() - pc.lastReturnedAt < validateAfterIdleMillis) return true;
+            try {
+                if (pc.physical.isValid(2)) return true;
+            } catch (SQLException ignored) { }
+            validationFailures.incrementAndGet();
             return false;
         }
-    }
 
-    // ====================== LOGIN SCREENS ======================
-    public static class LoginChoiceFrame extends JFrame {
-        public LoginChoiceFrame() {
-            setTitle("SMART HEALTHCARE APPOINTMENT SYSTEM");
-            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); setSize(700, 450);
-            setLocationRelativeTo(null); setLayout(new BorderLayout(10, 10));
-            JLabel titleLabel = new JLabel("Welcome! Select Your Role to Login", SwingConstants.CENTER);
-            titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 28));
-            titleLabel.setBorder(new EmptyBorder(40, 0, 20, 0)); add(titleLabel, BorderLayout.NORTH);
-            JPanel buttonPanel = new JPanel(new GridLayout(1, 3, 30, 20));
-            buttonPanel.setBorder(new EmptyBorder(20, 50, 80, 50));
-            buttonPanel.add(createRoleButton("Patient", e -> { new RoleLoginFrame("Patient").setVisible(true); dispose(); }));
-            buttonPanel.add(createRoleButton("Doctor", e -> { new RoleLoginFrame("Doctor").setVisible(true); dispose(); }));
-            buttonPanel.add(createRoleButton("Admin", e -> { new AdminLoginFrame().setVisible(true); dispose(); }));
-            add(buttonPanel, BorderLayout.CENTER);
-            ModernButton themeToggle = new ModernButton(ThemeManager.isDarkMode() ? "Light Mode" : "Dark Mode");
-            themeToggle.setFont(new Font("Segoe UI", Font.BOLD, 14));
-            themeToggle.addActionListener(e -> { ThemeManager.toggleTheme(); themeToggle.setText(ThemeManager.isDarkMode() ? "Light Mode" : "Dark Mode"); });
-            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-            bottomPanel.setBorder(new EmptyBorder(0, 0, 10, 10)); bottomPanel.add(themeToggle);
-            add(bottomPanel, BorderLayout.SOUTH);
+        private void release(PooledConnection pc) {
+            borrowed.remove(pc);
+            boolean healthy;
+            try {
+                if (!pc.physical.getAutoCommit()) { pc.physical.rollback(); pc.physical.setAutoCommit(true); }
+                pc.physical.clearWarnings();
+                healthy = !pc.physical.isClosed();
+            } catch (SQLException e) { healthy = false; }
+            if (!healthy) { discard(pc); return; }
+            pc.lastReturnedAt = System.currentTimeMillis();
+            synchronized (this) { idle.addFirst(pc); notifyAll(); }
         }
-        private ModernButton createRoleButton(String text, ActionListener action) {
-            ModernButton button = new ModernButton(text); button.addActionListener(action); button.setFont(new Font("Segoe UI", Font.BOLD, 20)); return button;
+
+        private void discard(PooledConnection pc) {
+            pc.closePhysical();
+            synchronized (this) { totalCount--; notifyAll(); }
         }
-    }
-    public static class AdminLoginFrame extends JFrame {
-        public AdminLoginFrame() {
-            setTitle("Admin Login"); setSize(400, 250); setLocationRelativeTo(null);
-            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); setLayout(new BorderLayout(10, 10));
-            add(new JLabel("Admin Login", SwingConstants.CENTER), BorderLayout.NORTH);
-            final JPasswordField passwordField = new JPasswordField();
-            passwordField.setHorizontalAlignment(SwingConstants.CENTER);
-            final JTextField usernameField = new JTextField("Admin");
-            usernameField.setHorizontalAlignment(SwingConstants.CENTER);
 
-            JPanel centerPanel = new JPanel(new GridLayout(2,1, 5, 5));
-            centerPanel.add(new JLabel("Username:", SwingConstants.CENTER));
-            centerPanel.add(usernameField);
-            centerPanel.add(new JLabel("Password:", SwingConstants.CENTER));
-            centerPanel.add(passwordField);
-            add(centerPanel, BorderLayout.CENTER);
+        private void recordWait(long nanos) {
+            borrowCount.incrementAndGet(); waitNanosTotal.addAndGet(nanos);
+            waitNanosMax.accumulateAndGet(nanos, Math::max);
+        }
 
-            ModernButton loginButton = new ModernButton("Login");
-            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER)); buttonPanel.add(loginButton);
-            add(buttonPanel, BorderLayout.SOUTH);
-            loginButton.addActionListener(e -> {
-                try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM users WHERE username = ? AND password = ? AND role = 'admin'")) {
-                    pstmt.setString(1, usernameField.getText());
-                    pstmt.setString(2, new String(passwordField.getPassword()));
-                    ResultSet rs = pstmt.executeQuery();
-                    if (rs.next()) {
-                        SessionManager.login(new User(rs.getInt("id"), rs.getString("username"), "admin"));
-                        new MainApplicationFrame().setVisible(true);
-                        dispose();
-                    } else {
-                        JOptionPane.showMessageDialog(this, "Incorrect Credentials.", "Login Failed", JOptionPane.ERROR_MESSAGE);
+        private void housekeep() {
+            long now = System.currentTimeMillis();
+            if (leakThresholdMillis > 0) {
+                for (PooledConnection pc : borrowed) {
+                    if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                        pc.leakReported = true; leakCount.incrementAndGet();
+                        System.err.println("Possible connection leak: held for " + (now - pc.borrowedAt) + " ms"
+                                + (pc.borrowSite == null ? " (run with -Dclinic.pool.leakTrace=true to see where it was borrowed)" : ""));
+                        if (pc.borrowSite != null) pc.borrowSite.printStackTrace();
                     }
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(this, "Database Error: " + ex.getMessage(), "Login Error", JOptionPane.ERROR_MESSAGE);
                 }
-            });
+            }
+            while (true) {
+                synchronized (this) { if (totalCount >= minSize) return; totalCount++; }
+                try {
+                    PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+                    pc.lastReturnedAt = System.currentTimeMillis();
+                    synchronized (this) { idle.addLast(pc); notifyAll(); }
+                } catch (SQLException e) {
+                    synchronized (this) { totalCount--; }
+                    return;
+                }
+            }
         }
-    }
-    public static class RoleLoginFrame extends JFrame {
-        public RoleLoginFrame(final String role) {
-            setTitle(role + " Portal"); setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            setSize(450, "Patient".equals(role) ? 550 : 350); setLocationRelativeTo(null);
-            JTabbedPane tabbedPane = new JTabbedPane();
-            tabbedPane.addTab("Login", createLoginPanel(role));
-            if ("Patient".equals(role)) { tabbedPane.addTab("Register", createPatientRegisterPanel()); }
-            add(tabbedPane);
+
+        synchronized int getIdleCount() { return idle.size(); }
+        int getActiveCount() { return borrowed.size(); }
+        synchronized int getTotalCount() { return totalCount; }
+        long getBorrowCount() { return borrowCount.get(); }
+        double getAverageWaitMillis() { long n = borrowCount.get(); return n == 0 ? 0 : waitNanosTotal.get() / 1e6 / n; }
+        double getMaxWaitMillis() { return waitNanosMax.get() / 1e6; }
+        long getLeakCount() { return leakCount.get(); }
+
+        String getStats() {
+            return String.format("active=%d idle=%d total=%d/%d borrows=%d avgWait=%.2fms maxWait=%.2fms leaks=%d invalid=%d",
+                    getActiveCount(), getIdleCount(), getTotalCount(), maxSize, getBorrowCount(),
+                    getAverageWaitMillis(), getMaxWaitMillis(), getLeakCount(), validationFailures.get());
         }
-        private JPanel createLoginPanel(final String role) {
-            JPanel panel = new JPanel(new GridBagLayout()); GridBagConstraints gbc = new GridBagConstraints();
-            gbc.insets = new Insets(5, 5, 5, 5); gbc.fill = GridBagConstraints.HORIZONTAL;
-            final JComboBox<Doctor> doctorCombo = new JComboBox<>();
-            final JTextField usernameField = new JTextField(20);
-            final JPasswordField passwordField = new JPasswordField(20);
-            if ("Doctor".equals(role)) {
-                gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Doctor:"), gbc);
-                gbc.gridx = 1; panel.add(doctorCombo, gbc); loadDoctorsIntoComboBox(doctorCombo);
-            } else {
-                gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Username:"), gbc);
-                gbc.gridx = 1; panel.add(usernameField, gbc);
+
+        private class PooledConnection {
+            final Connection physical;
+            volatile long borrowedAt, lastReturnedAt;
+            volatile Throwable borrowSite;
+            volatile boolean leakReported;
+            private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    try { eldest.getValue().close(); } catch (SQLException ignored) { }
+                    return true;
+                }
+            };
+            private final Set<PreparedStatement> statementsInUse = new HashSet<>();
+
+            PooledConnection(Connection physical) { this.physical = physical; }
+
+            Connection newHandle() {
+                final boolean[] closed = {false};
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ("close".equals(name)) {
+                        if (!closed[0]) { closed[0] = true; release(this); }
+                        return null;
+                    }
+                    if ("isClosed".equals(name)) return closed[0] || physical.isClosed();
+                    if (closed[0]) throw new SQLException("Connection has been returned to the pool");
+                    if ("prepareStatement".equals(name) && args != null && args.length == 1 && statementCacheSize > 0)
+                        return cachedStatement((String) args[0]);
+                    try { return method.invoke(physical, args); }
+                    catch (InvocationTargetException e) { throw e.getCause(); }
+                });
             }
-            gbc.gridx = 0; gbc.gridy = 1; panel.add(new JLabel("Password:"), gbc);
-            gbc.gridx = 1; panel.add(passwordField, gbc);
-            ModernButton loginButton = new ModernButton("Login");
-            gbc.gridx = 1; gbc.gridy = 2; panel.add(loginButton, gbc);
-            loginButton.addActionListener(e -> {
-                String username = usernameField.getText();
-                if ("Doctor".equals(role) && doctorCombo.getSelectedItem() != null) {
-                    Doctor selectedDoctor = (Doctor) doctorCombo.getSelectedItem();
-                    username = "dr_" + selectedDoctor.name.toLowerCase().replace(" ", "");
+
+            private PreparedStatement cachedStatement(String sql) throws SQLException {
+                PreparedStatement ps = statementCache.get(sql);
+                if (ps == null || ps.isClosed()) {
+                    ps = physical.prepareStatement(sql);
+                    statementCache.put(sql, ps);
+                } else if (statementsInUse.contains(ps)) {
+                    return physical.prepareStatement(sql); // same SQL already open on this connection
                 }
-                performLogin(username, new String(passwordField.getPassword()));
-            });
-            return panel;
-        }
-        private JPanel createPatientRegisterPanel() {
-            JPanel panel = new JPanel(new GridBagLayout()); GridBagConstraints gbc = new GridBagConstraints();
-            gbc.insets = new Insets(5, 5, 5, 5); gbc.fill = GridBagConstraints.HORIZONTAL;
-            final JTextField regUser = new JTextField(), regName = new JTextField(), regPhone = new JTextField(), regAbhaId = new JTextField();
-            final JPasswordField regPass = new JPasswordField(); final DatePicker regDob = new DatePicker();
-            gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Username:"), gbc); gbc.gridx = 1; panel.add(regUser, gbc);
-            gbc.gridx = 0; gbc.gridy = 1; panel.add(new JLabel("Password:"), gbc); gbc.gridx = 1; panel.add(regPass, gbc);
-            gbc.gridx = 0; gbc.gridy = 2; panel.add(new JLabel("Full Name:"), gbc); gbc.gridx = 1; panel.add(regName, gbc);
-            gbc.gridx = 0; gbc.gridy = 3; panel.add(new JLabel("Date of Birth:"), gbc); gbc.gridx = 1; panel.add(regDob, gbc);
-            gbc.gridx = 0; gbc.gridy = 4; panel.add(new JLabel("Phone:"), gbc); gbc.gridx = 1; panel.add(regPhone, gbc);
-            gbc.gridx = 0; gbc.gridy = 5; panel.add(new JLabel("ABHA ID (Optional):"), gbc); gbc.gridx = 1; panel.add(regAbhaId, gbc);
-            ModernButton registerButton = new ModernButton("Register");
-            gbc.gridx = 1; gbc.gridy = 6; panel.add(registerButton, gbc);
-            registerButton.addActionListener(e -> {
-                String abhaId = regAbhaId.getText();
-                if (abhaId != null && !abhaId.trim().isEmpty()) {
-                    int choice = JOptionPane.showConfirmDialog(this,
-                            "Do you want to link this ABHA ID to your account?\nThis is a one-time process.",
-                            "Confirm ABHA Linking", JOptionPane.YES_NO_OPTION);
-                    if (choice == JOptionPane.YES_OPTION) {
-                        performRegistration(regUser.getText(), new String(regPass.getPassword()), regName.getText(), regDob.getDate(), regPhone.getText(), abhaId);
+                statementsInUse.add(ps);
+                final PreparedStatement target = ps;
+                return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        if (statementsInUse.remove(target)) {
+                            try { ResultSet open = target.getResultSet(); if (open != null) open.close(); target.clearParameters(); }
+                            catch (SQLException e) { statementCache.remove(sql); target.close(); }
+                        }
+                        return null;
                     }
-                } else {
-                     performRegistration(regUser.getText(), new String(regPass.getPassword()), regName.getText(), regDob.getDate(), regPhone.getText(), null);
+                    try { return method.invoke(target, args); }
+                    catch (InvocationTargetException e) { throw e.getCause(); }
+                });
+            }
+
+            void closePhysical() {
+                for (PreparedStatement ps : statementCache.values()) { try { ps.close(); } catch (SQLException ignored) { } }
+                statementCache.clear(); statementsInUse.clear();
+                try { physical.close(); } catch (SQLException ignored) { }
+            }
+        }
+    }
+
+    // ====================== QUERY METRICS ======================
+    // Every connection from DatabaseManager is wrapped so each execute is timed against its query shape: the SQL
+    // with literals replaced by '?' and whitespace collapsed. Per shape we keep a latency histogram, executions,
+    // errors and rows (fetched for queries, affected for updates). Connection waits get their own histogram.
+    // Published as the JMX bean clinic:type=QueryMetrics and rewritten to clinic.metrics.file every
+    // clinic.metrics.intervalMillis; executes slower than clinic.metrics.slowQueryMillis are logged to stderr.
+    public interface QueryMetricsMXBean {
+        long getExecutions();
+        long getErrors();
+        long getSlowQueries();
+        String getPoolStats();
+        String[] getTopQueries();
+        void reset();
+    }
+
+    private static class QueryMetrics implements QueryMetricsMXBean {
+        private static final boolean ENABLED = !"false".equals(System.getProperty("clinic.metrics.enabled"));
+        private static final long SLOW_QUERY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("clinic.metrics.slowQueryMillis", 200L));
+        private static final long SLOW_ACQUIRE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("clinic.metrics.slowAcquireMillis", 100L));
+        private static final String FILE = System.getProperty("clinic.metrics.file", "clinic_metrics.txt");
+        private static final int MAX_SHAPES = 500;
+        private static final QueryMetrics INSTANCE = new QueryMetrics();
+
+        // Log-linear buckets in microseconds: exact below 8, then 8 buckets per power of two (at most 12.5% off).
+        static class Histogram {
+            private static final int BUCKETS = 8 + 8 * 40;
+            private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+            private final AtomicLong count = new AtomicLong(), totalNanos = new AtomicLong(), maxNanos = new AtomicLong();
+
+            void record(long nanos) {
+                long micros = Math.max(0, nanos / 1_000);
+                int bucket;
+                if (micros < 8) bucket = (int) micros;
+                else {
+                    int exp = 63 - Long.numberOfLeadingZeros(micros);
+                    bucket = Math.min(BUCKETS - 1, 8 + (exp - 3) * 8 + (int) ((micros >> (exp - 3)) & 7));
                 }
-            });
-            return panel;
+                counts.incrementAndGet(bucket);
+                count.incrementAndGet(); totalNanos.addAndGet(nanos); maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+
+            long count() { return count.get(); }
+            double totalMillis() { return totalNanos.get() / 1e6; }
+            double maxMillis() { return maxNanos.get() / 1e6; }
+
+            // Upper edge of the bucket holding the p-th sample.
+            double percentileMillis(double p) {
+                long n = count.get(), rank = Math.max(1, (long) Math.ceil(p * n)), seen = 0;
+                if (n == 0) return 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    seen += counts.get(i);
+                    if (seen >= rank) return Math.min(maxMillis(), (i < 8 ? i + 1 : (long) (8 + (i - 8) % 8 + 1) << ((i - 8) / 8)) / 1e3);
+                }
+                return maxMillis();
+            }
         }
-        private void performLogin(String username, String password) {
-            String sql = "SELECT id, username, role FROM users WHERE username = ? AND password = ?";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, username); pstmt.setString(2, password); ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    SessionManager.login(new User(rs.getInt("id"), rs.getString("username"), rs.getString("role")));
-                    new MainApplicationFrame().setVisible(true); dispose();
-                } else { JOptionPane.showMessageDialog(this, "Invalid Credentials.", "Login Failed", JOptionPane.ERROR_MESSAGE); }
-            } catch (SQLException ex) { JOptionPane.showMessageDialog(this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); }
+
+        private static class Shape {
+            final String sql;
+            final Histogram latency = new Histogram();
+            final AtomicLong errors = new AtomicLong(), rows = new AtomicLong();
+            Shape(String sql) { this.sql = sql; }
         }
-        private void performRegistration(String username, String password, String name, LocalDate dob, String phone, String abhaId) {
-            if (username.isEmpty() || password.isEmpty() || name.isEmpty() || dob == null) {
-                JOptionPane.showMessageDialog(this, "Username, Password, Name, and DoB fields must be filled out.", "Validation Error", JOptionPane.ERROR_MESSAGE); return;
+
+        // One execute: rows fetched are added to its shape when the result set is exhausted or closed.
+        private static class Execution {
+            final Shape shape; long rows; boolean done;
+            Execution(Shape shape) { this.shape = shape; }
+            void finish() { if (!done) { done = true; shape.rows.addAndGet(rows); } }
+        }
+
+        private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+        private final Map<String, String> normalized = new ConcurrentHashMap<>();
+        private final Histogram acquire = new Histogram();
+        private final AtomicLong acquireErrors = new AtomicLong(), slowQueries = new AtomicLong();
+        private volatile boolean dirty;
+
+        private QueryMetrics() {
+            if (!ENABLED) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("clinic:type=QueryMetrics"));
+            } catch (JMException e) {
+                e.printStackTrace();
             }
-            try (Connection conn = DatabaseManager.getConnection()) {
-                conn.setAutoCommit(false); int userId;
-                String userSql = "INSERT INTO users (username, password, role) VALUES (?, ?, 'patient')";
-                try (PreparedStatement userPstmt = conn.prepareStatement(userSql, Statement.RETURN_GENERATED_KEYS)) {
-                    userPstmt.setString(1, username); userPstmt.setString(2, password); userPstmt.executeUpdate();
-                    ResultSet rs = userPstmt.getGeneratedKeys(); rs.next(); userId = rs.getInt(1);
-                }
-                // NOTE: Assumes an 'abha_id' VARCHAR column exists in the 'patients' table.
-                // ALTER TABLE patients ADD COLUMN abha_id VARCHAR(255) NULL;
-                String patientSql = "INSERT INTO patients (user_id, name, dob, phone, abha_id) VALUES (?, ?, ?, ?, ?)";
-                try (PreparedStatement patientPstmt = conn.prepareStatement(patientSql)) {
-                    patientPstmt.setInt(1, userId); patientPstmt.setString(2, name);
-                    patientPstmt.setDate(3, Date.valueOf(dob)); patientPstmt.setString(4, phone);
-                    if (abhaId != null && !abhaId.trim().isEmpty()) {
-                       patientPstmt.setString(5, abhaId);
-                    } else {
-                       patientPstmt.setNull(5, Types.VARCHAR);
+            if (!FILE.isEmpty()) {
+                long interval = Long.getLong("clinic.metrics.intervalMillis", 60_000L);
+                Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "clinic-query-metrics"); t.setDaemon(true); return t; })
+                        .scheduleWithFixedDelay(this::writeIfDirty, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        static QueryMetrics get() { return INSTANCE; }
+
+        Connection acquire(ConnectionPool pool) throws SQLException {
+            if (!ENABLED) return pool.borrow();
+            long start = System.nanoTime();
+            Connection conn;
+            try { conn = pool.borrow(); }
+            catch (SQLException e) { acquireErrors.incrementAndGet(); throw e; }
+            long nanos = System.nanoTime() - start;
+            acquire.record(nanos);
+            if (nanos > SLOW_ACQUIRE_NANOS) System.err.printf("Slow connection acquire: %.1f ms (%s)%n", nanos / 1e6, pool.getStats());
+            return wrapConnection(conn);
+        }
+
+        private Connection wrapConnection(Connection conn) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                Object result;
+                try { result = method.invoke(conn, args); }
+                catch (InvocationTargetException e) { throw e.getCause(); }
+                String name = method.getName();
+                if (result instanceof Statement && ("prepareStatement".equals(name) || "prepareCall".equals(name) || "createStatement".equals(name)))
+                    return wrapStatement((Statement) result, method.getReturnType(), args != null && args[0] instanceof String ? (String) args[0] : null);
+                return result;
+            });
+        }
+
+        private Statement wrapStatement(Statement stmt, Class<?> type, String preparedSql) {
+            final Execution[] current = {null};
+            final String[] batchSql = {null};
+            return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                String name = method.getName();
+                if (name.startsWith("execute")) {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql != null ? preparedSql : batchSql[0];
+                    if (current[0] != null) current[0].finish();
+                    Execution execution = current[0] = new Execution(shape(sql));
+                    long start = System.nanoTime();
+                    Object result;
+                    try { result = method.invoke(stmt, args); }
+                    catch (InvocationTargetException e) { execution.shape.errors.incrementAndGet(); dirty = true; throw e.getCause(); }
+                    long nanos = System.nanoTime() - start;
+                    execution.shape.latency.record(nanos);
+                    dirty = true;
+                    if (nanos > SLOW_QUERY_NANOS) {
+                        slowQueries.incrementAndGet();
+                        System.err.printf("Slow query: %.1f ms %s%n", nanos / 1e6, execution.shape.sql);
                     }
-                    patientPstmt.executeUpdate();
+                    if (result instanceof ResultSet) return wrapResultSet((ResultSet) result, execution);
+                    if (result instanceof Integer || result instanceof Long) { execution.rows += ((Number) result).longValue(); execution.finish(); }
+                    else if (result instanceof int[]) { for (int n : (int[]) result) execution.rows += Math.max(0, n); execution.finish(); }
+                    return result;
                 }
-                conn.commit();
-                JOptionPane.showMessageDialog(this, "Registration successful! Please login.", "Success", JOptionPane.INFORMATION_MESSAGE);
-            } catch (SQLException ex) {
-                JOptionPane.showMessageDialog(this, "Registration failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                if ("getResultSet".equals(name) && current[0] != null) {
+                    ResultSet rs = stmt.getResultSet();
+                    return rs == null ? null : wrapResultSet(rs, current[0]);
+                }
+                if ("close".equals(name) && current[0] != null) current[0].finish();
+                if ("addBatch".equals(name) && args != null && args.length == 1) batchSql[0] = (String) args[0];
+                try { return method.invoke(stmt, args); }
+                catch (InvocationTargetException e) { throw e.getCause(); }
+            });
+        }
+
+        private ResultSet wrapResultSet(ResultSet rs, Execution execution) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name)) execution.finish();
+                Object result;
+                try { result = method.invoke(rs, args); }
+                catch (InvocationTargetException e) { throw e.getCause(); }
+                if ("next".equals(name)) { if ((Boolean) result) execution.rows++; else execution.finish(); }
+                return result;
+            });
+        }
+
+        private Shape shape(String sql) {
+            if (sql == null) sql = "(unknown)";
+            String key = normalized.get(sql);
+            if (key == null) {
+                key = normalize(sql);
+                if (normalized.size() < 10 * MAX_SHAPES) normalized.put(sql, key);
             }
+            Shape shape = shapes.get(key);
+            if (shape != null) return shape;
+            if (shapes.size() >= MAX_SHAPES) return shapes.computeIfAbsent("(other)", Shape::new);
+            return shapes.computeIfAbsent(key, Shape::new);
         }
-        private void loadDoctorsIntoComboBox(JComboBox<Doctor> doctorCombo) {
-            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM doctors ORDER BY name")) {
-                while (rs.next()) {
-                    Doctor d = new Doctor(); d.id = rs.getInt("id"); d.userId = rs.getInt("user_id"); d.name = rs.getString("name"); d.specialty = rs.getString("specialty");
-                    doctorCombo.addItem(d);
-                }
-            } catch (SQLException e) { e.printStackTrace(); }
+
+        // Literals become '?', IN lists collapse to one '?', so statements built with inline values still group together.
+        static String normalize(String sql) {
+            return sql.replaceAll("'(?:[^']|'')*'", "?")
+                    .replaceAll("(?<![\\w.])\\d+(?:\\.\\d+)?", "?")
+                    .replaceAll("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)", "IN (?)")
+                    .replaceAll("\\s+", " ").trim();
         }
-    }
 
-    // ====================== MAIN DASHBOARD ======================
-    public static class MainApplicationFrame extends JFrame {
+        @Override public long getExecutions() { long n = 0; for (Shape s : shapes.values()) n += s.latency.count(); return n; }
+        @Override public long getErrors() { long n = acquireErrors.get(); for (Shape s : shapes.values()) n += s.errors.get(); return n; }
+        @Override public long getSlowQueries() { return slowQueries.get(); }
+        @Override public String getPoolStats() { return DatabaseManager.getPool().getStats(); }
+        @Override public String[] getTopQueries() { return report(20).split("\n"); }
+        @Override public void reset() { shapes.clear(); normalized.clear(); }
+
+        // Shapes ordered by total time spent, the most expensive first.
+        String report(int limit) {
+            List<Shape> sorted = new ArrayList<>(shapes.values());
+            sorted.sort(Comparator.comparingDouble((Shape s) -> s.latency.totalMillis()).reversed());
+            StringBuilder sb = new StringBuilder(String.format("%9s %7s %10s %9s %9s %9s %9s %10s  %s%n", "count", "errors", "rows", "p50 ms", "p95 ms", "p99 ms", "max ms", "total ms", "query"));
+            sb.append(String.format("%9d %7d %10s %9.2f %9.2f %9.2f %9.2f %10.1f  (connection acquire)%n", acquire.count(), acquireErrors.get(), "",
+                    acquire.percentileMillis(0.50), acquire.percentileMillis(0.95), acquire.percentileMillis(0.99), acquire.maxMillis(), acquire.totalMillis()));
+            for (Shape s : sorted.subList(0, Math.min(limit, sorted.size()))) {
+                Histogram h = s.latency;
+                sb.append(String.format("%9d %7d %10d %9.2f %9.2f %9.2f %9.2f %10.1f  %s%n", h.count(), s.errors.get(), s.rows.get(),
+                        h.percentileMillis(0.50), h.percentileMillis(0.95), h.percentileMillis(0.99), h.maxMillis(), h.totalMillis(), s.sql));
+            }
+            return sb.toString();
+        }
+
+        private void writeIfDirty() {
+            if (!dirty) return;
+            dirty = false;
+            try {
+                Path file = Paths.get(FILE), temp = Files.createTempFile(file.toAbsolutePath().getParent(), "metrics", ".part");
+                Files.write(temp, ("Query metrics at " + LocalDateTime.now() + "; pool " + getPoolStats() + "\n" + report(Integer.MAX_VALUE)).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // ====================== BACKGROUND DATA ACCESS ======================
+    // All JDBC work runs here instead of on the Event Dispatch Thread; callbacks are published back on the EDT.
+    private static class DataExecutor {
+        interface Work<T> { T call() throws Exception; }
+        private static final ExecutorService EXECUTOR = createExecutor();
+
+        private static ExecutorService createExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) { // Virtual threads need Java 21+; fall back to daemon platform threads
+                AtomicInteger counter = new AtomicInteger();
+                return Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "clinic-data-" + counter.incrementAndGet()); t.setDaemon(true); return t;
+                });
+            }
+        }
+
+        static <T> CompletableFuture<T> supply(Work<T> work) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            EXECUTOR.execute(() -> {
+                if (future.isDone()) return;
+                try { future.complete(work.call()); } catch (Throwable t) { future.completeExceptionally(t); }
+            });
+            return future;
+        }
+
+        static <T> CompletableFuture<T> submit(Work<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+            return whenDone(supply(work), onSuccess, onError);
+        }
+
+        // Delivers the outcome of work that is already running to the EDT.
+        static <T> CompletableFuture<T> whenDone(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+            future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                if (future.isCancelled()) return;
+                if (error == null) onSuccess.accept(result);
+                else onError.accept(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }));
+            return future;
+        }
+    }
+
+    // Keeps only the most recent load for a view: starting a new one cancels the previous and drops its result.
+    private static class LatestLoad {
+        private final Consumer<Boolean> loadingIndicator;
+        private CompletableFuture<?> current;
+        private int generation;
+
+        LatestLoad(Consumer<Boolean> loadingIndicator) { this.loadingIndicator = loadingIndicator; }
+
+        <T> void start(DataExecutor.Work<T> work, Consumer<T> onResult) { start(DataExecutor.supply(work), onResult); }
+
+        <T> void start(CompletableFuture<T> load, Consumer<T> onResult) {
+            if (current != null) current.cancel(false);
+            final int myGeneration = ++generation;
+            loadingIndicator.accept(true);
+            current = DataExecutor.whenDone(load, result -> {
+                if (myGeneration != generation) return;
+                loadingIndicator.accept(false); onResult.accept(result);
+            }, error -> {
+                if (myGeneration != generation) return;
+                loadingIndicator.accept(false); error.printStackTrace();
+            });
+        }
+    }
+
+    // ====================== MODELS ======================
+    private static class User {
+        int id; String username; String role;
+        public User(int id, String username, String role) { this.id = id; this.username = username; this.role = role; }
+    }
+    private static class Doctor {
+        int id; int userId; String name; String specialty;
+        @Override public String toString() { return name + " - " + specialty; }
+    }
+    private static class Patient { int id; int userId; String name; String abhaId; }
+    private static class Appointment {
+        int id, patientId, doctorId; String patientName, doctorName;
+        LocalDateTime dateTime; String status, notes; Timestamp updatedAt;
+        Appointment copy() {
+            Appointment a = new Appointment(); a.id = id; a.patientId = patientId; a.doctorId = doctorId; a.patientName = patientName; a.doctorName = doctorName;
+            a.dateTime = dateTime; a.status = status; a.notes = notes; a.updatedAt = updatedAt;
+            return a;
+        }
+    }
+    private static class MedicalReport {
+        static final Comparator<MedicalReport> NEWEST_FIRST = (x, y) -> {
+            int c = y.uploadedAt.compareTo(x.uploadedAt);
+            return c != 0 ? c : Integer.compare(y.id, x.id);
+        };
+        int id, appointmentId; String reportName, filePath; LocalDateTime uploadedAt;
+    }
+    // Everything the doctor's history dialog shows: all appointments with notes and all reports, each newest first.
+    private static class PatientChart { int patientId; List<Appointment> history; List<MedicalReport> reports; }
+    private static class ChangeEvent {
+        enum Kind { APPOINTMENT_BOOKED, APPOINTMENT_UPDATED, REPORT_ADDED }
+        long id; Kind kind; int appointmentId, patientId, doctorId; Timestamp createdAt;
+    }
+    // One doctor's counters for one appointment day; 'returning' counts bookings by patients who had booked before.
+    private static class DailyStats {
+        LocalDate day; int doctorId, booked, completed, returning;
+        DailyStats copy() {
+            DailyStats s = new DailyStats(); s.day = day; s.doctorId = doctorId; s.booked = booked; s.completed = completed; s.returning = returning;
+            return s;
+        }
+    }
+
+    // ====================== PERSISTENCE ======================
+    // Panels talk to these repositories instead of issuing SQL. The engine is chosen once per process with
+    // -Dclinic.store=jdbc (default: MySQL through DatabaseManager), -Dclinic.store=memory (no database at all) or
+    // -Dclinic.store=http (a thin client of a ClinicServer).
+    interface UserRepository {
+        // Null when no account matches; a null role accepts any role.
+        User authenticate(String username, String password, String role) throws SQLException;
+    }
+    interface DoctorRepository {
+        List<Doctor> findAll() throws SQLException; // ordered by name
+    }
+    interface PatientRepository {
+        Patient findByUserId(int userId) throws SQLException;
+        // Creates the 'patient' user account and its profile together; returns the new user id.
+        int register(String username, String password, String name, LocalDate dob, String phone, String abhaId) throws SQLException;
+        // Every patient's id and name; feeds PatientNameIndex.
+        List<Patient> listAll() throws SQLException;
+    }
+    interface AppointmentRepository {
+        Timestamp currentTime() throws SQLException;
+        // The id is a high-water mark for changedSince(): at least the largest id in scope.
+        int[] countAndMaxId(AppointmentScope scope) throws SQLException;
+        // Grid order is newest first (appointment time, then id). Rows strictly after (afterTime, afterId); a null afterTime starts at the top.
+        List<Appointment> page(AppointmentScope scope, LocalDateTime afterTime, int afterId, int limit) throws SQLException;
+        Appointment at(AppointmentScope scope, int position) throws SQLException;
+        // Appointments with an id above sinceId or modified at/after 'since', ordered by id.
+        // page, at and changedSince feed the grid and may leave notes null; findById and forPatient always carry them.
+        List<Appointment> changedSince(AppointmentScope scope, int sinceId, Timestamp since) throws SQLException;
+        List<Appointment> forPatient(int patientId) throws SQLException; // newest first
+        Appointment findById(int appointmentId) throws SQLException;
+        // A null 'since' returns every appointment with notes; otherwise every appointment updated at/after it,
+        // including ones whose notes were cleared. Rows carry notes, like findById.
+        List<Appointment> notesChangedSince(Timestamp since) throws SQLException;
+        Set<Integer> patientIdsForDoctor(int doctorId) throws SQLException;
+        List<LocalDateTime> bookedStarts(int doctorId, LocalDate day) throws SQLException; // excluding cancelled
+        // Inserts a Scheduled appointment unless another one of the doctor's starts less than 'minutes' away;
+        // check and insert are serialized per doctor.
+        boolean insertIfFree(int patientId, int doctorId, LocalDateTime start, int minutes) throws SQLException;
+        int complete(int appointmentId, String notes) throws SQLException;
+        // Scheduled appointments starting in [from, to), by time then id; feeds AppointmentReminders.
+        List<Appointment> scheduledBetween(LocalDateTime from, LocalDateTime to) throws SQLException;
+    }
+    interface ReportRepository {
+        List<MedicalReport> reportsForAppointment(int appointmentId) throws SQLException; // newest first
+        List<MedicalReport> reportsForPatient(int patientId) throws SQLException; // newest first
+        void addReport(int appointmentId, String reportName, String filePath) throws SQLException;
+    }
+    interface ChartRepository {
+        PatientChart chartForPatient(int patientId) throws SQLException; // one round trip
+    }
+    // Outbox of appointment and report changes; every write above adds its event in the same transaction.
+    interface ChangeRepository {
+        long lastChangeId() throws SQLException;
+        List<ChangeEvent> changesAfter(long afterId, int limit) throws SQLException; // oldest first
+        void purgeChangesBefore(Timestamp cutoff) throws SQLException;
+    }
+    // Forward-only reads for extracts, oldest appointment first: rows go straight to the sink and are never collected.
+    interface ExportRepository {
+        interface Sink { void row(Appointment a, MedicalReport report) throws IOException; }
+        // With reports, notes are filled in and an appointment repeats once per report (oldest first) in adjacent
+        // rows; report is null for appointments without any, and always without reports.
+        void exportAppointments(AppointmentScope scope, boolean withReports, Sink sink) throws SQLException, IOException;
+    }
+    // Per-doctor, per-day counters updated in the same transaction as every booking and completion, so the analytics
+    // tab reads one row per doctor and day whatever the size of the appointment history.
+    interface AnalyticsRepository {
+        List<DailyStats> dailyStats(LocalDate from, LocalDate to) throws SQLException; // inclusive, by day then doctor
+        void rebuildDailyStats() throws SQLException; // recounts everything from the appointments
+    }
+
+    // Which appointments a view covers: all of them, or those of the patient or doctor behind a user account.
+    private static class AppointmentScope {
+        enum Kind { ALL, PATIENT, DOCTOR }
+        static final AppointmentScope ALL = new AppointmentScope(Kind.ALL, 0);
+        final Kind kind; final int userId;
+        final AppointmentFilter filter; // null when the whole scope is shown
+        AppointmentScope(Kind kind, int userId) { this(kind, userId, null); }
+        private AppointmentScope(Kind kind, int userId, AppointmentFilter filter) { this.kind = kind; this.userId = userId; this.filter = filter; }
+
+        AppointmentScope filtered(AppointmentFilter filter) { return new AppointmentScope(kind, userId, filter == null || filter.isEmpty() ? null : filter); }
+
+        static AppointmentScope forCurrentUser() { return forUser(SessionManager.getCurrentUser()); }
+
+        static AppointmentScope forUser(User user) {
+            if (user == null) return ALL;
+            if ("patient".equalsIgnoreCase(user.role)) return new AppointmentScope(Kind.PATIENT, user.id);
+            if ("doctor".equalsIgnoreCase(user.role)) return new AppointmentScope(Kind.DOCTOR, user.id);
+            return ALL;
+        }
+    }
+
+    // Narrows a scope; unset fields (0 or null) match everything. The date range is inclusive on both days.
+    // patientIds (sorted) is resolved by the caller through PatientNameIndex; patientNamePrefix is the fallback
+    // for prefixes that match too many patients to list and, like the index, matches the start of any word in the name.
+    private static class AppointmentFilter {
+        int doctorId; String status; LocalDate from, to; int[] patientIds; String patientNamePrefix;
+
+        boolean isEmpty() { return doctorId <= 0 && status == null && from == null && to == null && patientIds == null && patientNamePrefix == null; }
+
+        boolean matches(Appointment a) {
+            if (doctorId > 0 && a.doctorId != doctorId) return false;
+            if (status != null && !status.equals(a.status)) return false;
+            if (from != null && a.dateTime.isBefore(from.atStartOfDay())) return false;
+            if (to != null && !a.dateTime.isBefore(to.plusDays(1).atStartOfDay())) return false;
+            if (patientIds != null && Arrays.binarySearch(patientIds, a.patientId) < 0) return false;
+            if (patientNamePrefix == null) return true;
+            String name = PatientNameIndex.normalize(a.patientName), prefix = PatientNameIndex.normalize(patientNamePrefix);
+            return name.startsWith(prefix) || name.contains(" " + prefix);
+        }
+    }
+
+    private static class Repositories {
+        private static final Object STORE = create(System.getProperty("clinic.store", "jdbc"));
+
+        private static Object create(String kind) {
+            if ("memory".equalsIgnoreCase(kind)) {
+                MemoryStore store = new MemoryStore();
+                store.seedSampleData(Integer.getInteger("clinic.store.seedPatients", 0), Integer.getInteger("clinic.store.seedAppointments", 0));
+                return store;
+            }
+            if ("http".equalsIgnoreCase(kind)) return new RemoteStore(System.getProperty("clinic.server.url", "http://localhost:8080"));
+            if (!"jdbc".equalsIgnoreCase(kind)) throw new IllegalArgumentException("Unknown clinic.store: " + kind);
+            return new JdbcStore();
+        }
+
+        static UserRepository users() { return (UserRepository) STORE; }
+        static DoctorRepository doctors() { return (DoctorRepository) STORE; }
+        static PatientRepository patients() { return (PatientRepository) STORE; }
+        static AppointmentRepository appointments() { return (AppointmentRepository) STORE; }
+        static ReportRepository reports() { return (ReportRepository) STORE; }
+        static ChartRepository charts() { return (ChartRepository) STORE; }
+        static ChangeRepository changes() { return (ChangeRepository) STORE; }
+        static AnalyticsRepository analytics() { return (AnalyticsRepository) STORE; }
+        static ExportRepository exports() { return (ExportRepository) STORE; }
+    }
+
+    // ====================== JDBC REPOSITORIES ======================
+    private static class JdbcStore implements UserRepository, DoctorRepository, PatientRepository, AppointmentRepository, ReportRepository, ChartRepository, ChangeRepository, AnalyticsRepository, ExportRepository {
+        private static final String GRID_COLUMNS_SQL = "SELECT a.id, a.patient_id, a.doctor_id, p.name as patient_name, d.name as doctor_name, a.appointment_datetime, a.status";
+        private static final String COLUMNS_SQL = GRID_COLUMNS_SQL + ", a.notes";
+        private static final String FROM = " FROM appointments a JOIN patients p ON a.patient_id = p.id JOIN doctors d ON a.doctor_id = d.id";
+        private static final String ORDER = " ORDER BY a.appointment_datetime DESC, a.id DESC";
+        private static final String AFTER_KEY = "(a.appointment_datetime < ? OR (a.appointment_datetime = ? AND a.id < ?))";
+        // Statements also checked with EXPLAIN by SchemaMigrations.
+        private static final String PATIENTS_FOR_DOCTOR_SQL = "SELECT DISTINCT patient_id FROM appointments WHERE doctor_id = ?";
+        private static final String BOOKED_STARTS_SQL = "SELECT appointment_datetime FROM appointments WHERE doctor_id = ? AND appointment_datetime >= ? AND appointment_datetime < ? AND status <> 'Cancelled'";
+        private static final String REPORTS_FOR_APPOINTMENT_SQL = "SELECT id, appointment_id, uploaded_at, report_name, file_path FROM medical_reports WHERE appointment_id = ? ORDER BY uploaded_at DESC";
+        private static final String REPORTS_FOR_PATIENT_SQL = "SELECT mr.id, mr.appointment_id, mr.uploaded_at, mr.report_name, mr.file_path FROM medical_reports mr JOIN appointments a ON mr.appointment_id = a.id WHERE a.patient_id = ? ORDER BY mr.uploaded_at DESC";
+        private static final String WITH_REPORTS_SQL = COLUMNS_SQL + ", mr.id AS report_id, mr.appointment_id, mr.uploaded_at, mr.report_name, mr.file_path" + FROM
+                + " LEFT JOIN medical_reports mr ON mr.appointment_id = a.id";
+        private static final String CHART_SQL = WITH_REPORTS_SQL + " WHERE a.patient_id = ?" + ORDER;
+        private static final String CHANGES_AFTER_SQL = "SELECT id, kind, appointment_id, patient_id, doctor_id, created_at FROM change_events WHERE id > ? ORDER BY id LIMIT ?";
+        private static final String SCHEDULED_BETWEEN_SQL = GRID_COLUMNS_SQL + FROM + " WHERE a.status = 'Scheduled' AND a.appointment_datetime >= ? AND a.appointment_datetime < ? ORDER BY a.appointment_datetime, a.id";
+        private static final String DAILY_STATS_SQL = "SELECT stat_date, doctor_id, booked, completed, returning_patients FROM appointment_daily_stats WHERE stat_date >= ? AND stat_date <= ? ORDER BY stat_date, doctor_id";
+        private static final String EARLIER_BOOKING_SQL = "SELECT COUNT(*) FROM appointments WHERE patient_id = ? AND id < ?";
+        private static final String COUNT_DAILY_SQL = "INSERT INTO appointment_daily_stats (stat_date, doctor_id, booked, completed, returning_patients) VALUES (?, ?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE booked = booked + VALUES(booked), completed = completed + VALUES(completed), returning_patients = returning_patients + VALUES(returning_patients)";
+        static final String RECOUNT_DAILY_SQL = "INSERT INTO appointment_daily_stats (stat_date, doctor_id, booked, completed, returning_patients) "
+                + "SELECT CAST(a.appointment_datetime AS DATE), a.doctor_id, COUNT(*), SUM(CASE WHEN a.status = 'Completed' THEN 1 ELSE 0 END), "
+                + "SUM(CASE WHEN EXISTS (SELECT 1 FROM appointments e WHERE e.patient_id = a.patient_id AND e.id < a.id) THEN 1 ELSE 0 END) "
+                + "FROM appointments a GROUP BY CAST(a.appointment_datetime AS DATE), a.doctor_id";
+        private static final int EXPORT_FETCH_SIZE = Integer.getInteger("clinic.export.fetchSize", 1_000);
+        private static volatile boolean updatedAtSupported = true;
+        private static volatile boolean changeEventsSupported = true;
+        private static volatile boolean dailyStatsSupported = true;
+
+        @Override
+        public User authenticate(String username, String password, String role) throws SQLException {
+            String sql = "SELECT id, username, role FROM users WHERE username = ? AND password = ?" + (role != null ? " AND role = ?" : "");
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, username); pstmt.setString(2, password);
+                if (role != null) pstmt.setString(3, role);
+                ResultSet rs = pstmt.executeQuery();
+                return rs.next() ? new User(rs.getInt("id"), rs.getString("username"), rs.getString("role")) : null;
+            }
+        }
+
+        @Override
+        public List<Doctor> findAll() throws SQLException {
+            List<Doctor> doctors = new ArrayList<>();
+            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM doctors ORDER BY name")) {
+                while (rs.next()) {
+                    Doctor d = new Doctor(); d.id = rs.getInt("id"); d.userId = rs.getInt("user_id"); d.name = rs.getString("name"); d.specialty = rs.getString("specialty");
+                    doctors.add(d);
+                }
+            }
+            return doctors;
+        }
+
+        @Override
+        public Patient findByUserId(int userId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT id, user_id, name, abha_id FROM patients WHERE user_id = ?")) {
+                pstmt.setInt(1, userId);
+                ResultSet rs = pstmt.executeQuery();
+                if (!rs.next()) return null;
+                Patient p = new Patient(); p.id = rs.getInt("id"); p.userId = rs.getInt("user_id"); p.name = rs.getString("name"); p.abhaId = rs.getString("abha_id");
+                return p;
+            }
+        }
+
+        @Override
+        public int register(String username, String password, String name, LocalDate dob, String phone, String abhaId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection()) {
+                conn.setAutoCommit(false); int userId;
+                String userSql = "INSERT INTO users (username, password, role) VALUES (?, ?, 'patient')";
+                try (PreparedStatement userPstmt = conn.prepareStatement(userSql, Statement.RETURN_GENERATED_KEYS)) {
+                    userPstmt.setString(1, username); userPstmt.setString(2, password); userPstmt.executeUpdate();
+                    ResultSet rs = userPstmt.getGeneratedKeys(); rs.next(); userId = rs.getInt(1);
+                }
+                // NOTE: Needs the 'abha_id' column in 'patients' (schema version 1, see SchemaMigrations).
+                String patientSql = "INSERT INTO patients (user_id, name, dob, phone, abha_id) VALUES (?, ?, ?, ?, ?)";
+                try (PreparedStatement patientPstmt = conn.prepareStatement(patientSql)) {
+                    patientPstmt.setInt(1, userId); patientPstmt.setString(2, name);
+                    patientPstmt.setDate(3, Date.valueOf(dob)); patientPstmt.setString(4, phone);
+                    if (abhaId != null && !abhaId.trim().isEmpty()) {
+                       patientPstmt.setString(5, abhaId);
+                    } else {
+                       patientPstmt.setNull(5, Types.VARCHAR);
+                    }
+                    patientPstmt.executeUpdate();
+                }
+                conn.commit();
+                return userId;
+            }
+        }
+
+        @Override
+        public List<Patient> listAll() throws SQLException {
+            List<Patient> patients = new ArrayList<>();
+            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT id, name FROM patients")) {
+                while (rs.next()) {
+                    Patient p = new Patient(); p.id = rs.getInt("id"); p.name = rs.getString("name");
+                    patients.add(p);
+                }
+            }
+            return patients;
+        }
+
+        // Filter predicates only touch appointment columns covered by the composite indexes in README.md, except the
+        // patient name fallback, which needs the join to patients.
+        private static String where(AppointmentScope scope, String extraPredicate) {
+            StringJoiner predicates = new StringJoiner(" AND ", " WHERE ", "").setEmptyValue("");
+            if (scope.kind != AppointmentScope.Kind.ALL) predicates.add((scope.kind == AppointmentScope.Kind.PATIENT ? "p.user_id" : "d.user_id") + " = ?");
+            AppointmentFilter f = scope.filter;
+            if (f != null) {
+                if (f.doctorId > 0) predicates.add("a.doctor_id = ?");
+                if (f.status != null) predicates.add("a.status = ?");
+                if (f.from != null) predicates.add("a.appointment_datetime >= ?");
+                if (f.to != null) predicates.add("a.appointment_datetime < ?");
+                if (f.patientIds != null) predicates.add(f.patientIds.length == 0 ? "1 = 0" : "a.patient_id IN (" + String.join(", ", Collections.nCopies(f.patientIds.length, "?")) + ")");
+                if (f.patientNamePrefix != null) predicates.add("(p.name LIKE ? OR p.name LIKE ?)");
+            }
+            if (extraPredicate != null) predicates.add(extraPredicate);
+            return predicates.toString();
+        }
+
+        private static int bindScope(PreparedStatement pstmt, AppointmentScope scope) throws SQLException {
+            int i = 1;
+            if (scope.kind != AppointmentScope.Kind.ALL) pstmt.setInt(i++, scope.userId);
+            AppointmentFilter f = scope.filter;
+            if (f != null) {
+                if (f.doctorId > 0) pstmt.setInt(i++, f.doctorId);
+                if (f.status != null) pstmt.setString(i++, f.status);
+                if (f.from != null) pstmt.setTimestamp(i++, Timestamp.valueOf(f.from.atStartOfDay()));
+                if (f.to != null) pstmt.setTimestamp(i++, Timestamp.valueOf(f.to.plusDays(1).atStartOfDay()));
+                if (f.patientIds != null) for (int id : f.patientIds) pstmt.setInt(i++, id);
+                if (f.patientNamePrefix != null) {
+                    String escaped = f.patientNamePrefix.trim().replaceAll("\\s+", " ").replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+                    pstmt.setString(i++, escaped + "%");
+                    pstmt.setString(i++, "% " + escaped + "%");
+                }
+            }
+            return i;
+        }
+
+        @Override
+        public Timestamp currentTime() throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT CURRENT_TIMESTAMP")) {
+                rs.next();
+                return rs.getTimestamp(1);
+            }
+        }
+
+        @Override
+        public int[] countAndMaxId(AppointmentScope scope) throws SQLException {
+            boolean join = scope.kind != AppointmentScope.Kind.ALL || (scope.filter != null && scope.filter.patientNamePrefix != null);
+            String sql = "SELECT COUNT(*), MAX(a.id)" + (join ? FROM : " FROM appointments a") + where(scope, null);
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                bindScope(pstmt, scope);
+                ResultSet rs = pstmt.executeQuery();
+                return rs.next() ? new int[]{rs.getInt(1), rs.getInt(2)} : new int[2];
+            }
+        }
+
+        @Override
+        public List<Appointment> page(AppointmentScope scope, LocalDateTime afterTime, int afterId, int limit) throws SQLException {
+            String sql = GRID_COLUMNS_SQL + FROM + where(scope, afterTime != null ? AFTER_KEY : null) + ORDER + " LIMIT ?";
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int i = bindScope(pstmt, scope);
+                if (afterTime != null) {
+                    Timestamp after = Timestamp.valueOf(afterTime);
+                    pstmt.setTimestamp(i++, after); pstmt.setTimestamp(i++, after); pstmt.setInt(i++, afterId);
+                }
+                pstmt.setInt(i, limit);
+                return mapAppointments(pstmt.executeQuery(), limit, false);
+            }
+        }
+
+        // Only used when jumping to a page whose start key is unknown.
+        @Override
+        public Appointment at(AppointmentScope scope, int position) throws SQLException {
+            String sql = GRID_COLUMNS_SQL + FROM + where(scope, null) + ORDER + " LIMIT 1 OFFSET ?";
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(bindScope(pstmt, scope), position);
+                List<Appointment> rows = mapAppointments(pstmt.executeQuery(), 1, false);
+                return rows.isEmpty() ? null : rows.get(0);
+            }
+        }
+
+        // NOTE: Change detection for existing rows relies on the 'updated_at' column in 'appointments' (schema version 2,
+        // see SchemaMigrations). Without it only newly inserted appointments (id above the high-water mark) are picked up.
+        @Override
+        public List<Appointment> changedSince(AppointmentScope scope, int sinceId, Timestamp since) throws SQLException {
+            boolean withUpdatedAt = updatedAtSupported;
+            String sql = GRID_COLUMNS_SQL + FROM + where(scope, withUpdatedAt ? "(a.id > ? OR a.updated_at >= ?)" : "a.id > ?") + " ORDER BY a.id";
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int i = bindScope(pstmt, scope);
+                pstmt.setInt(i++, sinceId);
+                if (withUpdatedAt) pstmt.setTimestamp(i, since);
+                return mapAppointments(pstmt.executeQuery(), 16, false);
+            } catch (SQLSyntaxErrorException e) {
+                if (!withUpdatedAt) throw e;
+                updatedAtSupported = false; // schema without updated_at
+                return changedSince(scope, sinceId, since);
+            }
+        }
+
+        @Override
+        public List<Appointment> forPatient(int patientId) throws SQLException {
+            String sql = COLUMNS_SQL + FROM + " WHERE a.patient_id = ?" + ORDER;
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, patientId);
+                return mapAppointments(pstmt.executeQuery(), 16, true);
+            }
+        }
+
+        @Override
+        public Appointment findById(int appointmentId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(COLUMNS_SQL + FROM + " WHERE a.id = ?")) {
+                pstmt.setInt(1, appointmentId);
+                List<Appointment> rows = mapAppointments(pstmt.executeQuery(), 1, true);
+                return rows.isEmpty() ? null : rows.get(0);
+            }
+        }
+
+        // Without updated_at every call reads all notes again.
+        @Override
+        public List<Appointment> notesChangedSince(Timestamp since) throws SQLException {
+            boolean incremental = since != null && updatedAtSupported;
+            String sql = COLUMNS_SQL + FROM + " WHERE " + (incremental ? "a.updated_at >= ?" : "a.notes IS NOT NULL");
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                if (incremental) pstmt.setTimestamp(1, since);
+                return mapAppointments(pstmt.executeQuery(), 64, true);
+            } catch (SQLSyntaxErrorException e) {
+                if (!incremental) throw e;
+                updatedAtSupported = false;
+                return notesChangedSince(since);
+            }
+        }
+
+        @Override
+        public Set<Integer> patientIdsForDoctor(int doctorId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(PATIENTS_FOR_DOCTOR_SQL)) {
+                pstmt.setInt(1, doctorId);
+                ResultSet rs = pstmt.executeQuery();
+                Set<Integer> ids = new HashSet<>();
+                while (rs.next()) ids.add(rs.getInt(1));
+                return ids;
+            }
+        }
+
+        @Override
+        public List<LocalDateTime> bookedStarts(int doctorId, LocalDate day) throws SQLException {
+            List<LocalDateTime> starts = new ArrayList<>();
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(BOOKED_STARTS_SQL)) {
+                pstmt.setInt(1, doctorId);
+                pstmt.setTimestamp(2, Timestamp.valueOf(day.atStartOfDay()));
+                pstmt.setTimestamp(3, Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) starts.add(rs.getTimestamp(1).toLocalDateTime());
+            }
+            return starts;
+        }
+
+        // Locks the doctor row so that other terminals booking the same doctor are serialized as well.
+        @Override
+        public boolean insertIfFree(int patientId, int doctorId, LocalDateTime start, int minutes) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection()) {
+                try {
+                    conn.setAutoCommit(false);
+                    try (PreparedStatement lock = conn.prepareStatement("SELECT id FROM doctors WHERE id = ? FOR UPDATE")) {
+                        lock.setInt(1, doctorId); lock.executeQuery();
+                    }
+                    String overlapSql = "SELECT COUNT(*) FROM appointments WHERE doctor_id = ? AND status <> 'Cancelled' AND appointment_datetime > ? AND appointment_datetime < ?";
+                    try (PreparedStatement pstmt = conn.prepareStatement(overlapSql)) {
+                        pstmt.setInt(1, doctorId);
+                        pstmt.setTimestamp(2, Timestamp.valueOf(start.minusMinutes(minutes)));
+                        pstmt.setTimestamp(3, Timestamp.valueOf(start.plusMinutes(minutes)));
+                        ResultSet rs = pstmt.executeQuery();
+                        if (rs.next() && rs.getInt(1) > 0) return false;
+                    }
+                    String sql = "INSERT INTO appointments (patient_id, doctor_id, appointment_datetime) VALUES (?, ?, ?)";
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                        pstmt.setInt(1, patientId); pstmt.setInt(2, doctorId);
+                        pstmt.setTimestamp(3, Timestamp.valueOf(start)); pstmt.executeUpdate();
+                        ResultSet keys = pstmt.getGeneratedKeys(); keys.next();
+                        int appointmentId = keys.getInt(1);
+                        recordChange(conn, ChangeEvent.Kind.APPOINTMENT_BOOKED, appointmentId);
+                        if (dailyStatsSupported) countDaily(conn, doctorId, start, 1, 0, hasEarlierBooking(conn, patientId, appointmentId) ? 1 : 0);
+                    }
+                    conn.commit();
+                    return true;
+                } finally {
+                    if (!conn.getAutoCommit()) { conn.rollback(); conn.setAutoCommit(true); }
+                }
+            }
+        }
+
+        @Override
+        public int complete(int appointmentId, String notes) throws SQLException {
+            String sql = "UPDATE appointments SET notes = ?, status = 'Completed' WHERE id = ?";
+            try (Connection conn = DatabaseManager.getConnection()) {
+                try {
+                    conn.setAutoCommit(false);
+                    Appointment before = null; // doctor, day and status, for the daily counters
+                    if (dailyStatsSupported) {
+                        try (PreparedStatement pstmt = conn.prepareStatement("SELECT doctor_id, appointment_datetime, status FROM appointments WHERE id = ? FOR UPDATE")) {
+                            pstmt.setInt(1, appointmentId);
+                            ResultSet rs = pstmt.executeQuery();
+                            if (rs.next()) {
+                                before = new Appointment();
+                                before.doctorId = rs.getInt(1); before.dateTime = rs.getTimestamp(2).toLocalDateTime(); before.status = rs.getString(3);
+                            }
+                        }
+                    }
+                    int updated;
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setString(1, notes);
+                        pstmt.setInt(2, appointmentId);
+                        updated = pstmt.executeUpdate();
+                    }
+                    if (updated > 0) recordChange(conn, ChangeEvent.Kind.APPOINTMENT_UPDATED, appointmentId);
+                    if (updated > 0 && before != null && !"Completed".equals(before.status)) countDaily(conn, before.doctorId, before.dateTime, 0, 1, 0);
+                    conn.commit();
+                    return updated;
+                } finally {
+                    if (!conn.getAutoCommit()) { conn.rollback(); conn.setAutoCommit(true); }
+                }
+            }
+        }
+
+        @Override
+        public List<Appointment> scheduledBetween(LocalDateTime from, LocalDateTime to) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(SCHEDULED_BETWEEN_SQL)) {
+                pstmt.setTimestamp(1, Timestamp.valueOf(from)); pstmt.setTimestamp(2, Timestamp.valueOf(to));
+                return mapAppointments(pstmt.executeQuery(), 256, false);
+            }
+        }
+
+        @Override
+        public List<MedicalReport> reportsForAppointment(int appointmentId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(REPORTS_FOR_APPOINTMENT_SQL)) {
+                pstmt.setInt(1, appointmentId);
+                return mapReports(pstmt.executeQuery());
+            }
+        }
+
+        @Override
+        public List<MedicalReport> reportsForPatient(int patientId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(REPORTS_FOR_PATIENT_SQL)) {
+                pstmt.setInt(1, patientId);
+                return mapReports(pstmt.executeQuery());
+            }
+        }
+
+        // Appointments left-joined to their reports: an appointment repeats once per report, in adjacent rows.
+        @Override
+        public PatientChart chartForPatient(int patientId) throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(CHART_SQL)) {
+                pstmt.setInt(1, patientId);
+                ResultSet rs = pstmt.executeQuery();
+                PatientChart chart = new PatientChart();
+                chart.patientId = patientId; chart.history = new ArrayList<>(); chart.reports = new ArrayList<>();
+                while (rs.next()) {
+                    if (chart.history.isEmpty() || chart.history.get(chart.history.size() - 1).id != rs.getInt("id")) chart.history.add(mapAppointment(rs, true));
+                    rs.getInt("report_id");
+                    if (!rs.wasNull()) chart.reports.add(mapReport(rs, "report_id"));
+                }
+                chart.reports.sort(MedicalReport.NEWEST_FIRST);
+                return chart;
+            }
+        }
+
+        @Override
+        public void addReport(int appointmentId, String reportName, String filePath) throws SQLException {
+            String sql = "INSERT INTO medical_reports (appointment_id, report_name, file_path) VALUES (?, ?, ?)";
+            try (Connection conn = DatabaseManager.getConnection()) {
+                try {
+                    conn.setAutoCommit(false);
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setInt(1, appointmentId);
+                        pstmt.setString(2, reportName);
+                        pstmt.setString(3, filePath);
+                        pstmt.executeUpdate();
+                    }
+                    recordChange(conn, ChangeEvent.Kind.REPORT_ADDED, appointmentId);
+                    conn.commit();
+                } finally {
+                    if (!conn.getAutoCommit()) { conn.rollback(); conn.setAutoCommit(true); }
+                }
+            }
+        }
+
+        // NOTE: Needs the 'change_events' table (schema version 4, see SchemaMigrations); without it writes skip the
+        // outbox and open views only update on their own actions.
+        private static void recordChange(Connection conn, ChangeEvent.Kind kind, int appointmentId) throws SQLException {
+            if (!changeEventsSupported) return;
+            String sql = "INSERT INTO change_events (kind, appointment_id, patient_id, doctor_id) SELECT ?, id, patient_id, doctor_id FROM appointments WHERE id = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, kind.name()); pstmt.setInt(2, appointmentId);
+                pstmt.executeUpdate();
+            } catch (SQLSyntaxErrorException e) {
+                changeEventsSupported = false;
+            }
+        }
+
+        // One event per appointment in a single statement, for bulk writes that bypass insertIfFree and complete.
+        static void recordChanges(Connection conn, ChangeEvent.Kind kind, List<Integer> appointmentIds) throws SQLException {
+            if (!changeEventsSupported || appointmentIds.isEmpty()) return;
+            String sql = "INSERT INTO change_events (kind, appointment_id, patient_id, doctor_id) SELECT ?, id, patient_id, doctor_id FROM appointments WHERE id IN ("
+                    + String.join(", ", Collections.nCopies(appointmentIds.size(), "?")) + ") ORDER BY id";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int p = 1;
+                pstmt.setString(p++, kind.name());
+                for (int id : appointmentIds) pstmt.setInt(p++, id);
+                pstmt.executeUpdate();
+            } catch (SQLSyntaxErrorException e) {
+                changeEventsSupported = false;
+            }
+        }
+
+        @Override
+        public long lastChangeId() throws SQLException {
+            if (!changeEventsSupported) return 0;
+            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM change_events")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            } catch (SQLSyntaxErrorException e) {
+                changeEventsSupported = false;
+                return 0;
+            }
+        }
+
+        @Override
+        public List<ChangeEvent> changesAfter(long afterId, int limit) throws SQLException {
+            List<ChangeEvent> events = new ArrayList<>();
+            if (!changeEventsSupported) return events;
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(CHANGES_AFTER_SQL)) {
+                pstmt.setLong(1, afterId); pstmt.setInt(2, limit);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    ChangeEvent e = new ChangeEvent();
+                    e.id = rs.getLong("id"); e.kind = ChangeEvent.Kind.valueOf(rs.getString("kind")); e.appointmentId = rs.getInt("appointment_id");
+                    e.patientId = rs.getInt("patient_id"); e.doctorId = rs.getInt("doctor_id"); e.createdAt = rs.getTimestamp("created_at");
+                    events.add(e);
+                }
+            }
+            return events;
+        }
+
+        @Override
+        public void purgeChangesBefore(Timestamp cutoff) throws SQLException {
+            if (!changeEventsSupported) return;
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement("DELETE FROM change_events WHERE created_at < ?")) {
+                pstmt.setTimestamp(1, cutoff);
+                pstmt.executeUpdate();
+            }
+        }
+
+        @Override
+        public void exportAppointments(AppointmentScope scope, boolean withReports, ExportRepository.Sink sink) throws SQLException, IOException {
+            String sql = (withReports ? WITH_REPORTS_SQL : GRID_COLUMNS_SQL + FROM) + where(scope, null) + " ORDER BY a.appointment_datetime, a.id" + (withReports ? ", mr.uploaded_at, mr.id" : "");
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(exportFetchSize(conn));
+                bindScope(pstmt, scope);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        MedicalReport report = null;
+                        if (withReports) {
+                            rs.getInt("report_id");
+                            if (!rs.wasNull()) report = mapReport(rs, "report_id");
+                        }
+                        sink.row(mapAppointment(rs, withReports), report);
+                    }
+                }
+            }
+        }
+
+        // Connector/J reads a whole result into memory unless the fetch size is Integer.MIN_VALUE (one row at a time)
+        // or the URL asks for server-side cursors with useCursorFetch=true.
+        private static int exportFetchSize(Connection conn) throws SQLException {
+            DatabaseMetaData meta = conn.getMetaData();
+            boolean mysql = meta.getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+            return mysql && !meta.getURL().contains("useCursorFetch=true") ? Integer.MIN_VALUE : EXPORT_FETCH_SIZE;
+        }
+
+        @Override
+        public List<DailyStats> dailyStats(LocalDate from, LocalDate to) throws SQLException {
+            List<DailyStats> rows = new ArrayList<>();
+            if (!dailyStatsSupported) return rows;
+            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(DAILY_STATS_SQL)) {
+                pstmt.setDate(1, Date.valueOf(from)); pstmt.setDate(2, Date.valueOf(to));
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    DailyStats s = new DailyStats();
+                    s.day = rs.getDate("stat_date").toLocalDate(); s.doctorId = rs.getInt("doctor_id");
+                    s.booked = rs.getInt("booked"); s.completed = rs.getInt("completed"); s.returning = rs.getInt("returning_patients");
+                    rows.add(s);
+                }
+            } catch (SQLSyntaxErrorException e) {
+                dailyStatsSupported = false;
+            }
+            return rows;
+        }
+
+        @Override
+        public void rebuildDailyStats() throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection()) { rebuildDailyStats(conn); }
+        }
+
+        // Also run by BulkImporter, whose batched inserts bypass the per-booking counters.
+        static void rebuildDailyStats(Connection conn) throws SQLException {
+            boolean autoCommit = conn.getAutoCommit();
+            try (Statement stmt = conn.createStatement()) {
+                conn.setAutoCommit(false);
+                stmt.executeUpdate("DELETE FROM appointment_daily_stats");
+                stmt.executeUpdate(RECOUNT_DAILY_SQL);
+                conn.commit();
+            } finally {
+                if (!conn.getAutoCommit()) { conn.rollback(); conn.setAutoCommit(autoCommit); }
+            }
+        }
+
+        private static boolean hasEarlierBooking(Connection conn, int patientId, int appointmentId) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(EARLIER_BOOKING_SQL)) {
+                pstmt.setInt(1, patientId); pstmt.setInt(2, appointmentId);
+                ResultSet rs = pstmt.executeQuery();
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+
+        // NOTE: Needs the 'appointment_daily_stats' table (schema version 6); without it the counters are skipped and
+        // the analytics tab stays empty.
+        private static void countDaily(Connection conn, int doctorId, LocalDateTime start, int booked, int completed, int returning) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(COUNT_DAILY_SQL)) {
+                pstmt.setDate(1, Date.valueOf(start.toLocalDate())); pstmt.setInt(2, doctorId);
+                pstmt.setInt(3, booked); pstmt.setInt(4, completed); pstmt.setInt(5, returning);
+                pstmt.executeUpdate();
+            } catch (SQLSyntaxErrorException e) {
+                dailyStatsSupported = false;
+            }
+        }
+
+        private static List<Appointment> mapAppointments(ResultSet rs, int expected, boolean withNotes) throws SQLException {
+            List<Appointment> rows = new ArrayList<>(expected);
+            while (rs.next()) rows.add(mapAppointment(rs, withNotes));
+            return rows;
+        }
+
+        private static Appointment mapAppointment(ResultSet rs, boolean withNotes) throws SQLException {
+            Appointment a = new Appointment();
+            a.id = rs.getInt("id"); a.patientId = rs.getInt("patient_id"); a.doctorId = rs.getInt("doctor_id");
+            a.patientName = rs.getString("patient_name"); a.doctorName = rs.getString("doctor_name");
+            a.dateTime = rs.getTimestamp("appointment_datetime").toLocalDateTime(); a.status = rs.getString("status");
+            if (withNotes) a.notes = rs.getString("notes");
+            return a;
+        }
+
+        private static List<MedicalReport> mapReports(ResultSet rs) throws SQLException {
+            List<MedicalReport> rows = new ArrayList<>();
+            while (rs.next()) rows.add(mapReport(rs, "id"));
+            return rows;
+        }
+
+        private static MedicalReport mapReport(ResultSet rs, String idColumn) throws SQLException {
+            MedicalReport r = new MedicalReport();
+            r.id = rs.getInt(idColumn); r.appointmentId = rs.getInt("appointment_id"); r.uploadedAt = rs.getTimestamp("uploaded_at").toLocalDateTime();
+            r.reportName = rs.getString("report_name"); r.filePath = rs.getString("file_path");
+            return r;
+        }
+    }
+
+    // ====================== SCHEMA MIGRATIONS ======================
+    // Brings databases created from older versions of the README script up to date. Applied versions are recorded in
+    // schema_version; every step checks the catalog first, so a database already created from the current script only
+    // gets its versions recorded. On later starts the steps of applied versions are checked again and anything missing
+    // (say, a dropped index) is recreated. checkPlans() then runs EXPLAIN on the app's hot statements and warns about
+    // full scans of tables with more than clinic.schema.scanWarnRows rows.
+    private static class SchemaMigrations {
+        private static final long SCAN_WARN_ROWS = Long.getLong("clinic.schema.scanWarnRows", 1_000L);
+        private static final Pattern H2_TABLE_SCAN = Pattern.compile("(\\w+)\\.tableScan");
+        private static final Map<String, String> TABLE_ALIASES = new HashMap<>();
+        static {
+            TABLE_ALIASES.put("a", "appointments"); TABLE_ALIASES.put("p", "patients"); TABLE_ALIASES.put("d", "doctors"); TABLE_ALIASES.put("mr", "medical_reports");
+        }
+
+        private static class Step {
+            enum Kind { TABLE, COLUMN, INDEX }
+            final Kind kind; final String table, name, ddl; final List<String> columns;
+            String backfill; // run once after this instance created the table
+            Step(Kind kind, String table, String name, List<String> columns, String ddl) { this.kind = kind; this.table = table; this.name = name; this.columns = columns; this.ddl = ddl; }
+            @Override public String toString() { return kind.name().toLowerCase(Locale.ROOT) + " " + (kind == Kind.TABLE ? table : table + "." + name); }
+        }
+        private static class Migration {
+            final int version; final String description; final Step[] steps;
+            Migration(int version, String description, Step... steps) { this.version = version; this.description = description; this.steps = steps; }
+        }
+        private static Step table(String table, String ddl) { return new Step(Step.Kind.TABLE, table, table, null, ddl); }
+        private static Step table(String table, String ddl, String backfill) { Step step = table(table, ddl); step.backfill = backfill; return step; }
+        private static Step column(String table, String column, String definition) { return new Step(Step.Kind.COLUMN, table, column, null, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition); }
+        // Satisfied by any index whose leading columns are these, whatever its name.
+        private static Step index(String table, String name, String... columns) {
+            return new Step(Step.Kind.INDEX, table, name, Arrays.asList(columns), "CREATE INDEX " + name + " ON " + table + " (" + String.join(", ", columns) + ")");
+        }
+
+        private static final Migration[] MIGRATIONS = {
+            new Migration(1, "ABHA id on patients", column("patients", "abha_id", "VARCHAR(255) NULL")),
+            new Migration(2, "Appointment change tracking",
+                    column("appointments", "updated_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP"),
+                    index("appointments", "idx_appointments_updated_at", "updated_at"),
+                    index("appointments", "idx_appointment_datetime", "appointment_datetime")),
+            new Migration(3, "Appointment grid filters and patient search",
+                    index("appointments", "idx_appointments_doctor_datetime", "doctor_id", "appointment_datetime"),
+                    index("appointments", "idx_appointments_patient_datetime", "patient_id", "appointment_datetime"),
+                    index("appointments", "idx_appointments_status_datetime", "status", "appointment_datetime"),
+                    index("patients", "idx_patients_name", "name")),
+            new Migration(4, "Change outbox", table("change_events", "CREATE TABLE change_events (id BIGINT AUTO_INCREMENT PRIMARY KEY, kind VARCHAR(32) NOT NULL, "
+                    + "appointment_id INT NOT NULL, patient_id INT NOT NULL, doctor_id INT NOT NULL, created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)"),
+                    index("change_events", "idx_change_events_created_at", "created_at")),
+            new Migration(5, "Reports per appointment, newest first", index("medical_reports", "idx_medical_reports_appointment_uploaded", "appointment_id", "uploaded_at")),
+            new Migration(6, "Daily appointment counters for analytics", table("appointment_daily_stats", "CREATE TABLE appointment_daily_stats (stat_date DATE NOT NULL, doctor_id INT NOT NULL, "
+                    + "booked INT NOT NULL DEFAULT 0, completed INT NOT NULL DEFAULT 0, returning_patients INT NOT NULL DEFAULT 0, PRIMARY KEY (stat_date, doctor_id), "
+                    + "FOREIGN KEY (doctor_id) REFERENCES doctors(id) ON DELETE CASCADE)", JdbcStore.RECOUNT_DAILY_SQL)),
+        };
+
+        static void migrate() throws SQLException {
+            try (Connection conn = DatabaseManager.getConnection()) {
+                DatabaseMetaData meta = conn.getMetaData();
+                if (!tableExists(meta, conn, "schema_version")) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.executeUpdate("CREATE TABLE schema_version (version INT PRIMARY KEY, description VARCHAR(200) NOT NULL, applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+                    }
+                }
+                int current;
+                try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                    rs.next(); current = rs.getInt(1);
+                }
+                for (Migration m : MIGRATIONS) {
+                    for (Step step : m.steps) {
+                        if (present(meta, conn, step)) continue;
+                        if (m.version <= current) System.err.println("Schema check: " + step + " from version " + m.version + " is missing, recreating it");
+                        try (Statement stmt = conn.createStatement()) {
+                            stmt.executeUpdate(step.ddl);
+                        } catch (SQLException e) {
+                            if (!present(meta, conn, step)) throw e; // otherwise another instance got there first
+                            continue;
+                        }
+                        if (step.backfill != null) {
+                            try (Statement stmt = conn.createStatement()) { System.out.println("Filled " + step + ": " + stmt.executeUpdate(step.backfill) + " rows"); }
+                        }
+                    }
+                    if (m.version <= current) continue;
+                    try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                        pstmt.setInt(1, m.version); pstmt.setString(2, m.description);
+                        pstmt.executeUpdate();
+                        System.out.println("Applied schema version " + m.version + ": " + m.description);
+                    } catch (SQLIntegrityConstraintViolationException ignored) { }
+                }
+            }
+        }
+
+        private static boolean present(DatabaseMetaData meta, Connection conn, Step step) throws SQLException {
+            switch (step.kind) {
+                case TABLE: return tableExists(meta, conn, step.table);
+                case COLUMN:
+                    try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, identifier(meta, step.table), identifier(meta, step.name))) { return rs.next(); }
+                default:
+                    Map<String, List<String>> indexes = new HashMap<>();
+                    try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, identifier(meta, step.table), false, true)) {
+                        while (rs.next()) {
+                            String name = rs.getString("INDEX_NAME"), column = rs.getString("COLUMN_NAME");
+                            if (name == null || column == null) continue;
+                            List<String> columns = indexes.computeIfAbsent(name, k -> new ArrayList<>());
+                            int position = rs.getInt("ORDINAL_POSITION");
+                            while (columns.size() < position) columns.add(null);
+                            columns.set(position - 1, column.toLowerCase(Locale.ROOT));
+                        }
+                    }
+                    for (List<String> columns : indexes.values())
+                        if (columns.size() >= step.columns.size() && columns.subList(0, step.columns.size()).equals(step.columns)) return true;
+                    return false;
+            }
+        }
+
+        private static boolean tableExists(DatabaseMetaData meta, Connection conn, String table) throws SQLException {
+            try (ResultSet rs = meta.getTables(conn.getCatalog(), null, identifier(meta, table), new String[]{"TABLE"})) { return rs.next(); }
+        }
+
+        private static String identifier(DatabaseMetaData meta, String name) throws SQLException {
+            return meta.storesUpperCaseIdentifiers() ? name.toUpperCase(Locale.ROOT) : meta.storesLowerCaseIdentifiers() ? name.toLowerCase(Locale.ROOT) : name;
+        }
+
+        // ---- Query plan checks ----
+        interface Binder { void bind(PreparedStatement pstmt) throws SQLException; }
+        private static class Probe {
+            final String name, sql; final Binder binder;
+            Probe(String name, String sql, Binder binder) { this.name = name; this.sql = sql; this.binder = binder; }
+        }
+
+        // The statements behind the dashboards, the patient chart, booking and live updates, with sample arguments.
+        private static List<Probe> probes() {
+            AppointmentScope patient = new AppointmentScope(AppointmentScope.Kind.PATIENT, 1), doctor = new AppointmentScope(AppointmentScope.Kind.DOCTOR, 2);
+            AppointmentFilter byDoctor = new AppointmentFilter(), byStatus = new AppointmentFilter(), byDates = new AppointmentFilter();
+            byDoctor.doctorId = 1; byStatus.status = "Scheduled"; byDates.from = LocalDate.now(); byDates.to = LocalDate.now();
+            Timestamp now = new Timestamp(System.currentTimeMillis()), dayStart = Timestamp.valueOf(LocalDate.now().atStartOfDay());
+            List<Probe> probes = new ArrayList<>();
+            for (Object[] grid : new Object[][]{{"patient appointments", patient}, {"doctor appointments", doctor}, {"all appointments", AppointmentScope.ALL},
+                    {"appointments by doctor", AppointmentScope.ALL.filtered(byDoctor)}, {"appointments by status", AppointmentScope.ALL.filtered(byStatus)},
+                    {"appointments by date", AppointmentScope.ALL.filtered(byDates)}}) {
+                AppointmentScope scope = (AppointmentScope) grid[1];
+                probes.add(new Probe(grid[0] + " page", JdbcStore.GRID_COLUMNS_SQL + JdbcStore.FROM + JdbcStore.where(scope, null) + JdbcStore.ORDER + " LIMIT 200", pstmt -> JdbcStore.bindScope(pstmt, scope)));
+                if (scope.kind != AppointmentScope.Kind.ALL)
+                    probes.add(new Probe(grid[0] + " count", "SELECT COUNT(*), MAX(a.id)" + JdbcStore.FROM + JdbcStore.where(scope, null), pstmt -> JdbcStore.bindScope(pstmt, scope)));
+            }
+            probes.add(new Probe("doctor appointments sync", JdbcStore.GRID_COLUMNS_SQL + JdbcStore.FROM + JdbcStore.where(doctor, "(a.id > ? OR a.updated_at >= ?)") + " ORDER BY a.id", pstmt -> {
+                int i = JdbcStore.bindScope(pstmt, doctor); pstmt.setInt(i++, Integer.MAX_VALUE - 1); pstmt.setTimestamp(i, now);
+            }));
+            probes.add(new Probe("patient chart", JdbcStore.CHART_SQL, pstmt -> pstmt.setInt(1, 1)));
+            probes.add(new Probe("reports for appointment", JdbcStore.REPORTS_FOR_APPOINTMENT_SQL, pstmt -> pstmt.setInt(1, 1)));
+            probes.add(new Probe("reports for patient", JdbcStore.REPORTS_FOR_PATIENT_SQL, pstmt -> pstmt.setInt(1, 1)));
+            probes.add(new Probe("booked slots", JdbcStore.BOOKED_STARTS_SQL, pstmt -> {
+                pstmt.setInt(1, 1); pstmt.setTimestamp(2, dayStart); pstmt.setTimestamp(3, Timestamp.valueOf(LocalDate.now().plusDays(1).atStartOfDay()));
+            }));
+            probes.add(new Probe("patients of doctor", JdbcStore.PATIENTS_FOR_DOCTOR_SQL, pstmt -> pstmt.setInt(1, 1)));
+            probes.add(new Probe("change events", JdbcStore.CHANGES_AFTER_SQL, pstmt -> { pstmt.setLong(1, Long.MAX_VALUE - 1); pstmt.setInt(2, 500); }));
+            probes.add(new Probe("upcoming reminders", JdbcStore.SCHEDULED_BETWEEN_SQL, pstmt -> { pstmt.setTimestamp(1, now); pstmt.setTimestamp(2, new Timestamp(now.getTime() + 3_600_000L)); }));
+            probes.add(new Probe("returning patient check", JdbcStore.EARLIER_BOOKING_SQL, pstmt -> { pstmt.setInt(1, 1); pstmt.setInt(2, Integer.MAX_VALUE); }));
+            probes.add(new Probe("daily stats", JdbcStore.DAILY_STATS_SQL, pstmt -> { pstmt.setDate(1, Date.valueOf(LocalDate.now().minusDays(30))); pstmt.setDate(2, Date.valueOf(LocalDate.now())); }));
+            return probes;
+        }
+
+        // Warnings for statements that read a whole table; verbose also prints the statements that do not.
+        static List<String> checkPlans(boolean verbose) throws SQLException {
+            List<String> warnings = new ArrayList<>();
+            Map<String, Long> rowCounts = new HashMap<>();
+            try (Connection conn = DatabaseManager.getConnection()) {
+                for (Probe probe : probes()) {
+                    Set<String> scanned = new TreeSet<>();
+                    try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + probe.sql)) {
+                        probe.binder.bind(pstmt);
+                        ResultSet rs = pstmt.executeQuery();
+                        ResultSetMetaData md = rs.getMetaData();
+                        int typeColumn = 0, tableColumn = 0;
+                        for (int i = 1; i <= md.getColumnCount(); i++) {
+                            if ("type".equalsIgnoreCase(md.getColumnLabel(i))) typeColumn = i;
+                            if ("table".equalsIgnoreCase(md.getColumnLabel(i))) tableColumn = i;
+                        }
+                        while (rs.next()) {
+                            if (typeColumn > 0) { // MySQL: one row per table, type ALL is a full scan
+                                String table = rs.getString(tableColumn);
+                                if ("ALL".equalsIgnoreCase(rs.getString(typeColumn)) && table != null) scanned.add(TABLE_ALIASES.getOrDefault(table, table));
+                            } else { // H2: one plan text with /* TABLE.tableScan */ comments
+                                Matcher m = H2_TABLE_SCAN.matcher(rs.getString(1));
+                                while (m.find()) scanned.add(m.group(1).toLowerCase(Locale.ROOT));
+                            }
+                        }
+                    }
+                    for (String table : scanned) {
+                        if (!table.matches("\\w+")) continue;
+                        Long rows = rowCounts.get(table);
+                        if (rows == null) {
+                            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) { rs.next(); rows = rs.getLong(1); }
+                            rowCounts.put(table, rows);
+                        }
+                        if (rows >= SCAN_WARN_ROWS) warnings.add("Query plan check: '" + probe.name + "' reads all " + rows + " rows of " + table);
+                    }
+                    if (verbose) System.out.println((scanned.isEmpty() ? "indexed      " : "scans " + scanned + " ") + probe.name);
+                }
+            }
+            for (String warning : warnings) System.err.println(warning);
+            return warnings;
+        }
+    }
+
+    // ====================== IN-MEMORY REPOSITORIES ======================
+    // The whole schema in hash maps and sorted sets: appointments are indexed by id, in grid order globally and per
+    // patient and doctor, and by modification time for sync. One read/write lock guards everything; stored
+    // appointments are never mutated in place (updates swap in a copy), so callers may keep what they were given.
+    private static class MemoryStore implements UserRepository, DoctorRepository, PatientRepository, AppointmentRepository, ReportRepository, ChartRepository, ChangeRepository, AnalyticsRepository, ExportRepository {
+        private static final Comparator<Appointment> GRID_ORDER = (x, y) -> {
+            int c = y.dateTime.compareTo(x.dateTime);
+            return c != 0 ? c : Integer.compare(y.id, x.id);
+        };
+        private static final Comparator<Appointment> UPDATE_ORDER = (x, y) -> {
+            int c = x.updatedAt.compareTo(y.updatedAt);
+            return c != 0 ? c : Integer.compare(x.id, y.id);
+        };
+
+        private static class Account { final User user; final String password; Account(User user, String password) { this.user = user; this.password = password; } }
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Account> accounts = new HashMap<>();
+        private final Map<Integer, Doctor> doctorsById = new HashMap<>(), doctorsByUser = new HashMap<>();
+        private List<Doctor> doctorsByName = Collections.emptyList();
+        private final Map<Integer, Patient> patientsById = new HashMap<>(), patientsByUser = new HashMap<>();
+        private final TreeMap<Integer, Appointment> appointmentsById = new TreeMap<>();
+        private final TreeSet<Appointment> appointmentsByTime = new TreeSet<>(GRID_ORDER);
+        private final TreeSet<Appointment> appointmentsByUpdate = new TreeSet<>(UPDATE_ORDER);
+        private final Map<Integer, TreeSet<Appointment>> appointmentsByPatient = new HashMap<>(), appointmentsByDoctor = new HashMap<>();
+        private final Map<Integer, List<MedicalReport>> reportsByAppointment = new HashMap<>();
+        private final ArrayDeque<ChangeEvent> changes = new ArrayDeque<>();
+        private long nextChangeId = 1;
+        private final TreeMap<LocalDate, TreeMap<Integer, DailyStats>> dailyStats = new TreeMap<>();
+        private static final int EXPORT_CHUNK = 1_000;
+        // The last filtered scope that was materialised, reused until an appointment is indexed or removed.
+        private static class FilteredView {
+            final AppointmentScope scope; final int version; final NavigableSet<Appointment> rows;
+            FilteredView(AppointmentScope scope, int version, NavigableSet<Appointment> rows) { this.scope = scope; this.version = version; this.rows = rows; }
+        }
+        private volatile FilteredView filteredView;
+        private int version;
+        private int nextUserId = 1, nextDoctorId = 1, nextPatientId = 1, nextAppointmentId = 1, nextReportId = 1;
+
+        // Same accounts as the seed data of the MySQL script in README.md.
+        MemoryStore() {
+            addUser("Admin", "12345678", "admin");
+            String[][] doctors = {{"Mohan", "Orthopedist"}, {"Anbu", "Dermatologist"}, {"Adhiyan", "Neurologist"}, {"Akila", "Cardiologist"}, {"Jovitha", "General"}};
+            for (int i = 0; i < doctors.length; i++) {
+                Doctor d = new Doctor(); d.id = nextDoctorId++; d.name = doctors[i][0]; d.specialty = doctors[i][1];
+                d.userId = addUser("dr_" + d.name.toLowerCase(), String.format("%02d", i + 1), "doctor").id;
+                doctorsById.put(d.id, d); doctorsByUser.put(d.userId, d);
+            }
+            List<Doctor> sorted = new ArrayList<>(doctorsById.values());
+            sorted.sort((x, y) -> x.name.compareTo(y.name));
+            doctorsByName = Collections.unmodifiableList(sorted);
+        }
+
+        // Synthetic load for running the UI at scale: patientN / passwordN accounts and back-to-back 15-minute
+        // appointments between 09:00 and 17:00 spread over the doctors, half of them in the past (Completed) and
+        // half ahead (Scheduled).
+        void seedSampleData(int patients, int appointments) {
+            lock.writeLock().lock();
+            try {
+                List<Patient> seeded = new ArrayList<>(patients);
+                for (int i = 1; i <= patients; i++) seeded.add(addPatient(addUser("patient" + i, "password" + i, "patient").id, "Patient " + i, null));
+                if (seeded.isEmpty() || appointments <= 0) return;
+                List<Doctor> doctors = doctorsByName;
+                int slotsPerDay = 32, perDoctor = (appointments + doctors.size() - 1) / doctors.size();
+                LocalDate firstDay = LocalDate.now().minusDays(perDoctor / slotsPerDay / 2);
+                LocalDateTime now = LocalDateTime.now();
+                Timestamp stamp = new Timestamp(System.currentTimeMillis());
+                for (int i = 0; i < appointments; i++) {
+                    int slot = i / doctors.size();
+                    LocalDateTime start = firstDay.plusDays(slot / slotsPerDay).atTime(9, 0).plusMinutes(15L * (slot % slotsPerDay));
+                    addAppointment(seeded.get(i % seeded.size()), doctors.get(i % doctors.size()), start, start.isBefore(now) ? "Completed" : "Scheduled", null, stamp);
+                }
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        private User addUser(String username, String password, String role) {
+            User user = new User(nextUserId++, username, role);
+            accounts.put(username, new Account(user, password));
+            return user;
+        }
+
+        private Patient addPatient(int userId, String name, String abhaId) {
+            Patient p = new Patient(); p.id = nextPatientId++; p.userId = userId; p.name = name; p.abhaId = abhaId;
+            patientsById.put(p.id, p); patientsByUser.put(userId, p);
+            return p;
+        }
+
+        private Appointment addAppointment(Patient patient, Doctor doctor, LocalDateTime start, String status, String notes, Timestamp stamp) {
+            Appointment a = new Appointment();
+            a.id = nextAppointmentId++; a.patientId = patient.id; a.patientName = patient.name; a.doctorId = doctor.id; a.doctorName = doctor.name;
+            a.dateTime = start; a.status = status; a.notes = notes; a.updatedAt = stamp;
+            TreeSet<Appointment> earlier = appointmentsByPatient.get(patient.id);
+            countDaily(a, 1, "Completed".equals(status) ? 1 : 0, earlier != null && !earlier.isEmpty() ? 1 : 0);
+            index(a);
+            return a;
+        }
+
+        private void countDaily(Appointment a, int booked, int completed, int returning) {
+            DailyStats s = dailyStats.computeIfAbsent(a.dateTime.toLocalDate(), k -> new TreeMap<>()).computeIfAbsent(a.doctorId, k -> {
+                DailyStats created = new DailyStats(); created.day = a.dateTime.toLocalDate(); created.doctorId = a.doctorId; return created;
+            });
+            s.booked += booked; s.completed += completed; s.returning += returning;
+        }
+
+        private void recordChange(ChangeEvent.Kind kind, Appointment a) {
+            ChangeEvent e = new ChangeEvent();
+            e.id = nextChangeId++; e.kind = kind; e.appointmentId = a.id; e.patientId = a.patientId; e.doctorId = a.doctorId; e.createdAt = currentTime();
+            changes.addLast(e);
+        }
+
+        private void index(Appointment a) {
+            version++;
+            appointmentsById.put(a.id, a);
+            appointmentsByTime.add(a);
+            appointmentsByUpdate.add(a);
+            appointmentsByPatient.computeIfAbsent(a.patientId, k -> new TreeSet<>(GRID_ORDER)).add(a);
+            appointmentsByDoctor.computeIfAbsent(a.doctorId, k -> new TreeSet<>(GRID_ORDER)).add(a);
+        }
+
+        private void unindex(Appointment a) {
+            version++;
+            appointmentsById.remove(a.id);
+            appointmentsByTime.remove(a);
+            appointmentsByUpdate.remove(a);
+            appointmentsByPatient.get(a.patientId).remove(a);
+            appointmentsByDoctor.get(a.doctorId).remove(a);
+        }
+
+        // A search key that sorts (in grid order) just before every appointment at 'time' or earlier.
+        private static Appointment probe(LocalDateTime time, int id) {
+            Appointment a = new Appointment(); a.dateTime = time; a.id = id; return a;
+        }
+
+        private NavigableSet<Appointment> scoped(AppointmentScope scope) {
+            AppointmentFilter f = scope.filter;
+            if (f == null) return owned(scope);
+            FilteredView view = filteredView;
+            if (view != null && view.scope == scope && view.version == version) return view.rows;
+            NavigableSet<Appointment> candidates = owned(scope);
+            if (f.doctorId > 0 && scope.kind == AppointmentScope.Kind.ALL) {
+                NavigableSet<Appointment> byDoctor = appointmentsByDoctor.get(f.doctorId);
+                candidates = byDoctor != null ? byDoctor : Collections.emptyNavigableSet();
+            }
+            if (f.from != null && f.to != null && f.from.isAfter(f.to)) candidates = Collections.emptyNavigableSet();
+            if (f.to != null && !candidates.isEmpty()) candidates = candidates.tailSet(probe(f.to.plusDays(1).atStartOfDay(), Integer.MIN_VALUE), false);
+            if (f.from != null && !candidates.isEmpty()) candidates = candidates.headSet(probe(f.from.atStartOfDay(), Integer.MIN_VALUE), false);
+            TreeSet<Appointment> rows = new TreeSet<>(GRID_ORDER);
+            for (Appointment a : candidates) if (f.matches(a)) rows.add(a);
+            filteredView = new FilteredView(scope, version, rows);
+            return rows;
+        }
+
+        private NavigableSet<Appointment> owned(AppointmentScope scope) {
+            if (scope.kind == AppointmentScope.Kind.ALL) return appointmentsByTime;
+            NavigableSet<Appointment> set = null;
+            if (scope.kind == AppointmentScope.Kind.PATIENT) {
+                Patient p = patientsByUser.get(scope.userId);
+                if (p != null) set = appointmentsByPatient.get(p.id);
+            } else {
+                Doctor d = doctorsByUser.get(scope.userId);
+                if (d != null) set = appointmentsByDoctor.get(d.id);
+            }
+            return set != null ? set : Collections.emptyNavigableSet();
+        }
+
+        private boolean inScope(AppointmentScope scope, Appointment a) {
+            if (scope.filter != null && !scope.filter.matches(a)) return false;
+            if (scope.kind == AppointmentScope.Kind.ALL) return true;
+            if (scope.kind == AppointmentScope.Kind.PATIENT) { Patient p = patientsByUser.get(scope.userId); return p != null && p.id == a.patientId; }
+            Doctor d = doctorsByUser.get(scope.userId);
+            return d != null && d.id == a.doctorId;
+        }
+
+        @Override
+        public User authenticate(String username, String password, String role) {
+            lock.readLock().lock();
+            try {
+                Account account = accounts.get(username);
+                if (account == null || !account.password.equals(password) || (role != null && !role.equals(account.user.role))) return null;
+                return new User(account.user.id, account.user.username, account.user.role);
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<Doctor> findAll() {
+            lock.readLock().lock();
+            try { return doctorsByName; } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public Patient findByUserId(int userId) {
+            lock.readLock().lock();
+            try { return patientsByUser.get(userId); } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public int register(String username, String password, String name, LocalDate dob, String phone, String abhaId) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                if (accounts.containsKey(username)) throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + username + "' for key 'users.username'");
+                int userId = addUser(username, password, "patient").id;
+                addPatient(userId, name, abhaId != null && !abhaId.trim().isEmpty() ? abhaId : null);
+                return userId;
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        @Override
+        public List<Patient> listAll() {
+            lock.readLock().lock();
+            try { return new ArrayList<>(patientsById.values()); } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public Timestamp currentTime() { return new Timestamp(System.currentTimeMillis()); }
+
+        @Override
+        public int[] countAndMaxId(AppointmentScope scope) {
+            lock.readLock().lock();
+            try { // the global maximum is a valid high-water mark for any scope
+                return new int[]{scoped(scope).size(), appointmentsById.isEmpty() ? 0 : appointmentsById.lastKey()};
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<Appointment> page(AppointmentScope scope, LocalDateTime afterTime, int afterId, int limit) {
+            lock.readLock().lock();
+            try {
+                NavigableSet<Appointment> set = scoped(scope);
+                List<Appointment> rows = new ArrayList<>(Math.min(limit, set.size()));
+                for (Appointment a : afterTime == null ? set : set.tailSet(probe(afterTime, afterId), false)) {
+                    if (rows.size() == limit) break;
+                    rows.add(a);
+                }
+                return rows;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public Appointment at(AppointmentScope scope, int position) {
+            lock.readLock().lock();
+            try {
+                NavigableSet<Appointment> set = scoped(scope);
+                if (position < 0 || position >= set.size()) return null;
+                Iterator<Appointment> it = position < set.size() / 2 ? set.iterator() : set.descendingIterator();
+                for (int i = position < set.size() / 2 ? position : set.size() - 1 - position; i > 0; i--) it.next();
+                return it.next();
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<Appointment> changedSince(AppointmentScope scope, int sinceId, Timestamp since) {
+            lock.readLock().lock();
+            try {
+                TreeMap<Integer, Appointment> changed = new TreeMap<>();
+                for (Appointment a : appointmentsById.tailMap(sinceId, false).values()) if (inScope(scope, a)) changed.put(a.id, a);
+                Appointment from = new Appointment(); from.updatedAt = since; from.id = Integer.MIN_VALUE;
+                for (Appointment a : appointmentsByUpdate.tailSet(from, true)) if (inScope(scope, a)) changed.put(a.id, a);
+                return new ArrayList<>(changed.values());
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<Appointment> forPatient(int patientId) {
+            lock.readLock().lock();
+            try {
+                TreeSet<Appointment> set = appointmentsByPatient.get(patientId);
+                return set == null ? new ArrayList<>() : new ArrayList<>(set);
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public Appointment findById(int appointmentId) {
+            lock.readLock().lock();
+            try { return appointmentsById.get(appointmentId); } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<Appointment> notesChangedSince(Timestamp since) {
+            lock.readLock().lock();
+            try {
+                List<Appointment> rows = new ArrayList<>();
+                if (since == null) {
+                    for (Appointment a : appointmentsById.values()) if (a.notes != null) rows.add(a);
+                } else {
+                    Appointment from = new Appointment(); from.updatedAt = since; from.id = Integer.MIN_VALUE;
+                    rows.addAll(appointmentsByUpdate.tailSet(from, true));
+                }
+                return rows;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public Set<Integer> patientIdsForDoctor(int doctorId) {
+            lock.readLock().lock();
+            try {
+                Set<Integer> ids = new HashSet<>();
+                TreeSet<Appointment> set = appointmentsByDoctor.get(doctorId);
+                if (set != null) for (Appointment a : set) ids.add(a.patientId);
+                return ids;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // Doctor appointments with from < start < to, newest first.
+        private Iterable<Appointment> doctorBetween(int doctorId, LocalDateTime from, LocalDateTime to) {
+            TreeSet<Appointment> set = appointmentsByDoctor.get(doctorId);
+            if (set == null) return Collections.emptyList();
+            return set.subSet(probe(to, Integer.MIN_VALUE), false, probe(from, Integer.MAX_VALUE), false);
+        }
+
+        @Override
+        public List<LocalDateTime> bookedStarts(int doctorId, LocalDate day) {
+            lock.readLock().lock();
+            try {
+                List<LocalDateTime> starts = new ArrayList<>();
+                for (Appointment a : doctorBetween(doctorId, day.atStartOfDay().minusNanos(1), day.plusDays(1).atStartOfDay()))
+                    if (!"Cancelled".equals(a.status)) starts.add(a.dateTime);
+                return starts;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public boolean insertIfFree(int patientId, int doctorId, LocalDateTime start, int minutes) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                Patient patient = patientsById.get(patientId); Doctor doctor = doctorsById.get(doctorId);
+                if (patient == null || doctor == null) throw new SQLIntegrityConstraintViolationException("Unknown patient " + patientId + " or doctor " + doctorId);
+                for (Appointment a : doctorBetween(doctorId, start.minusMinutes(minutes), start.plusMinutes(minutes)))
+                    if (!"Cancelled".equals(a.status)) return false;
+                recordChange(ChangeEvent.Kind.APPOINTMENT_BOOKED, addAppointment(patient, doctor, start, "Scheduled", null, currentTime()));
+                return true;
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        @Override
+        public int complete(int appointmentId, String notes) {
+            lock.writeLock().lock();
+            try {
+                Appointment current = appointmentsById.get(appointmentId);
+                if (current == null) return 0;
+                Appointment updated = current.copy();
+                updated.notes = notes; updated.status = "Completed"; updated.updatedAt = currentTime();
+                unindex(current); index(updated);
+                if (!"Completed".equals(current.status)) countDaily(updated, 0, 1, 0);
+                recordChange(ChangeEvent.Kind.APPOINTMENT_UPDATED, updated);
+                return 1;
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        @Override
+        public List<Appointment> scheduledBetween(LocalDateTime from, LocalDateTime to) {
+            lock.readLock().lock();
+            try {
+                List<Appointment> rows = new ArrayList<>();
+                for (Appointment a : appointmentsByTime.subSet(probe(to, Integer.MIN_VALUE), false, probe(from, Integer.MIN_VALUE), false).descendingSet())
+                    if ("Scheduled".equals(a.status)) rows.add(a);
+                return rows;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<MedicalReport> reportsForAppointment(int appointmentId) {
+            lock.readLock().lock();
+            try {
+                List<MedicalReport> reports = reportsByAppointment.get(appointmentId);
+                return reports == null ? new ArrayList<>() : new ArrayList<>(reports);
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<MedicalReport> reportsForPatient(int patientId) {
+            lock.readLock().lock();
+            try {
+                List<MedicalReport> reports = new ArrayList<>();
+                TreeSet<Appointment> appointments = appointmentsByPatient.get(patientId);
+                if (appointments != null) for (Appointment a : appointments) {
+                    List<MedicalReport> forAppointment = reportsByAppointment.get(a.id);
+                    if (forAppointment != null) reports.addAll(forAppointment);
+                }
+                reports.sort(MedicalReport.NEWEST_FIRST);
+                return reports;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public void addReport(int appointmentId, String reportName, String filePath) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                Appointment appointment = appointmentsById.get(appointmentId);
+                if (appointment == null) throw new SQLIntegrityConstraintViolationException("Unknown appointment " + appointmentId);
+                MedicalReport r = new MedicalReport();
+                r.id = nextReportId++; r.appointmentId = appointmentId; r.reportName = reportName; r.filePath = filePath; r.uploadedAt = LocalDateTime.now();
+                reportsByAppointment.computeIfAbsent(appointmentId, k -> new ArrayList<>()).add(0, r);
+                recordChange(ChangeEvent.Kind.REPORT_ADDED, appointment);
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        @Override
+        public PatientChart chartForPatient(int patientId) {
+            lock.readLock().lock();
+            try {
+                PatientChart chart = new PatientChart();
+                chart.patientId = patientId; chart.history = forPatient(patientId); chart.reports = reportsForPatient(patientId);
+                return chart;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public long lastChangeId() {
+            lock.readLock().lock();
+            try { return nextChangeId - 1; } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public List<ChangeEvent> changesAfter(long afterId, int limit) {
+            lock.readLock().lock();
+            try {
+                List<ChangeEvent> events = new ArrayList<>();
+                for (ChangeEvent e : changes) if (e.id > afterId && events.size() < limit) events.add(e);
+                return events;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        @Override
+        public void purgeChangesBefore(Timestamp cutoff) {
+            lock.writeLock().lock();
+            try {
+                while (!changes.isEmpty() && changes.peekFirst().createdAt.before(cutoff)) changes.removeFirst();
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        @Override
+        public List<DailyStats> dailyStats(LocalDate from, LocalDate to) {
+            lock.readLock().lock();
+            try {
+                List<DailyStats> rows = new ArrayList<>();
+                for (TreeMap<Integer, DailyStats> day : dailyStats.subMap(from, true, to, true).values())
+                    for (DailyStats s : day.values()) rows.add(s.copy());
+                return rows;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // Copies EXPORT_CHUNK appointments at a time under the read lock and writes them after releasing it, resuming
+        // after the last one by grid key, so a long export neither holds the lock nor copies the whole scope.
+        @Override
+        public void exportAppointments(AppointmentScope scope, boolean withReports, ExportRepository.Sink sink) throws IOException {
+            Appointment after = null;
+            while (true) {
+                List<Appointment> chunk = new ArrayList<>(EXPORT_CHUNK);
+                List<List<MedicalReport>> reports = new ArrayList<>(EXPORT_CHUNK);
+                lock.readLock().lock();
+                try {
+                    NavigableSet<Appointment> oldestFirst = scoped(scope).descendingSet();
+                    for (Appointment a : after == null ? oldestFirst : oldestFirst.tailSet(after, false)) {
+                        chunk.add(a);
+                        List<MedicalReport> forAppointment = withReports ? reportsByAppointment.get(a.id) : null;
+                        reports.add(forAppointment == null ? Collections.emptyList() : new ArrayList<>(forAppointment));
+                        if (chunk.size() == EXPORT_CHUNK) break;
+                    }
+                } finally { lock.readLock().unlock(); }
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<MedicalReport> forAppointment = reports.get(i);
+                    if (forAppointment.isEmpty()) sink.row(chunk.get(i), null);
+                    for (int r = forAppointment.size() - 1; r >= 0; r--) sink.row(chunk.get(i), forAppointment.get(r)); // stored newest first
+                }
+                if (chunk.size() < EXPORT_CHUNK) return;
+                after = chunk.get(chunk.size() - 1);
+            }
+        }
+
+        @Override
+        public void rebuildDailyStats() {
+            lock.writeLock().lock();
+            try {
+                dailyStats.clear();
+                Set<Integer> seen = new HashSet<>();
+                for (Appointment a : appointmentsById.values()) countDaily(a, 1, "Completed".equals(a.status) ? 1 : 0, seen.add(a.patientId) ? 0 : 1);
+            } finally { lock.writeLock().unlock(); }
+        }
+    }
+
+    // ====================== HTTP REPOSITORIES ======================
+    // Wire format shared by ClinicServer and RemoteStore: models as JSON objects named after their fields, times as
+    // ISO strings (Timestamps via LocalDateTime, so they keep their nanos), enums by name, int[] and sets as arrays.
+    private static class Wire {
+        static StringBuilder write(StringBuilder sb, Object v) {
+            if (v == null) return sb.append("null");
+            if (v instanceof String) return Json.quote(sb, (String) v);
+            if (v instanceof Number || v instanceof Boolean) return sb.append(v);
+            if (v instanceof Timestamp) return Json.quote(sb, ((Timestamp) v).toLocalDateTime().toString());
+            if (v instanceof LocalDate || v instanceof LocalDateTime || v instanceof Enum) return Json.quote(sb, v.toString());
+            if (v instanceof int[]) {
+                int[] values = (int[]) v;
+                sb.append('[');
+                for (int i = 0; i < values.length; i++) (i > 0 ? sb.append(',') : sb).append(values[i]);
+                return sb.append(']');
+            }
+            if (v instanceof Collection) {
+                sb.append('[');
+                boolean first = true;
+                for (Object item : (Collection<?>) v) { if (!first) sb.append(','); first = false; write(sb, item); }
+                return sb.append(']');
+            }
+            if (v instanceof Map) {
+                sb.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) { if (!first) sb.append(','); first = false; write(Json.quote(sb, (String) e.getKey()).append(':'), e.getValue()); }
+                return sb.append('}');
+            }
+            if (v instanceof User) { User u = (User) v; return object(sb, "id", u.id, "username", u.username, "role", u.role); }
+            if (v instanceof Doctor) { Doctor d = (Doctor) v; return object(sb, "id", d.id, "userId", d.userId, "name", d.name, "specialty", d.specialty); }
+            if (v instanceof Patient) { Patient p = (Patient) v; return object(sb, "id", p.id, "userId", p.userId, "name", p.name, "abhaId", p.abhaId); }
+            if (v instanceof Appointment) {
+                Appointment a = (Appointment) v;
+                return object(sb, "id", a.id, "patientId", a.patientId, "doctorId", a.doctorId, "patientName", a.patientName, "doctorName", a.doctorName,
+                        "dateTime", a.dateTime, "status", a.status, "notes", a.notes, "updatedAt", a.updatedAt);
+            }
+            if (v instanceof MedicalReport) {
+                MedicalReport r = (MedicalReport) v;
+                return object(sb, "id", r.id, "appointmentId", r.appointmentId, "reportName", r.reportName, "filePath", r.filePath, "uploadedAt", r.uploadedAt);
+            }
+            if (v instanceof PatientChart) { PatientChart c = (PatientChart) v; return object(sb, "patientId", c.patientId, "history", c.history, "reports", c.reports); }
+            if (v instanceof ChangeEvent) {
+                ChangeEvent e = (ChangeEvent) v;
+                return object(sb, "id", e.id, "kind", e.kind, "appointmentId", e.appointmentId, "patientId", e.patientId, "doctorId", e.doctorId, "createdAt", e.createdAt);
+            }
+            if (v instanceof DailyStats) {
+                DailyStats d = (DailyStats) v;
+                return object(sb, "day", d.day, "doctorId", d.doctorId, "booked", d.booked, "completed", d.completed, "returning", d.returning);
+            }
+            if (v instanceof AppointmentScope) { AppointmentScope scope = (AppointmentScope) v; return object(sb, "kind", scope.kind, "userId", scope.userId, "filter", scope.filter); }
+            if (v instanceof AppointmentFilter) {
+                AppointmentFilter f = (AppointmentFilter) v;
+                return object(sb, "doctorId", f.doctorId, "status", f.status, "from", f.from, "to", f.to, "patientIds", f.patientIds, "patientNamePrefix", f.patientNamePrefix);
+            }
+            throw new IllegalArgumentException("No wire format for " + v.getClass().getSimpleName());
+        }
+
+        static StringBuilder object(StringBuilder sb, Object... namesAndValues) {
+            sb.append('{');
+            for (int i = 0; i < namesAndValues.length; i += 2) write(Json.quote(i > 0 ? sb.append(',') : sb, (String) namesAndValues[i]).append(':'), namesAndValues[i + 1]);
+            return sb.append('}');
+        }
+
+        static int integer(Object v) { return v == null ? 0 : ((Number) v).intValue(); }
+        static long number(Object v) { return v == null ? 0 : ((Number) v).longValue(); }
+        static LocalDate date(Object v) { return v == null ? null : LocalDate.parse((String) v); }
+        static LocalDateTime dateTime(Object v) { return v == null ? null : LocalDateTime.parse((String) v); }
+        static Timestamp timestamp(Object v) { return v == null ? null : Timestamp.valueOf(LocalDateTime.parse((String) v)); }
+
+        static int[] ints(Object v) {
+            if (v == null) return null;
+            List<?> values = (List<?>) v;
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) result[i] = integer(values.get(i));
+            return result;
+        }
+
+        static <T> List<T> list(Object v, Function<Object, T> item) {
+            List<?> values = (List<?>) v;
+            List<T> result = new ArrayList<>(values.size());
+            for (Object value : values) result.add(item.apply(value));
+            return result;
+        }
+
+        static User user(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v;
+            return new User(integer(m.get("id")), (String) m.get("username"), (String) m.get("role"));
+        }
+
+        static Doctor doctor(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v; Doctor d = new Doctor();
+            d.id = integer(m.get("id")); d.userId = integer(m.get("userId")); d.name = (String) m.get("name"); d.specialty = (String) m.get("specialty");
+            return d;
+        }
+
+        static Patient patient(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v; Patient p = new Patient();
+            p.id = integer(m.get("id")); p.userId = integer(m.get("userId")); p.name = (String) m.get("name"); p.abhaId = (String) m.get("abhaId");
+            return p;
+        }
+
+        static Appointment appointment(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v; Appointment a = new Appointment();
+            a.id = integer(m.get("id")); a.patientId = integer(m.get("patientId")); a.doctorId = integer(m.get("doctorId"));
+            a.patientName = (String) m.get("patientName"); a.doctorName = (String) m.get("doctorName"); a.dateTime = dateTime(m.get("dateTime"));
+            a.status = (String) m.get("status"); a.notes = (String) m.get("notes"); a.updatedAt = timestamp(m.get("updatedAt"));
+            return a;
+        }
+
+        static MedicalReport report(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v; MedicalReport r = new MedicalReport();
+            r.id = integer(m.get("id")); r.appointmentId = integer(m.get("appointmentId")); r.reportName = (String) m.get("reportName");
+            r.filePath = (String) m.get("filePath"); r.uploadedAt = dateTime(m.get("uploadedAt"));
+            return r;
+        }
+
+        static PatientChart chart(Object v) {
+            if (v == null) return null;
+            Map<?, ?> m = (Map<?, ?>) v; PatientChart c = new PatientChart();
+            c.patientId = integer(m.get("patientId")); c.history = list(m.get("history"), Wire::appointment); c.reports = list(m.get("reports"), Wire::report);
+            return c;
+        }
+
+        static ChangeEvent change(Object v) {
+            Map<?, ?> m = (Map<?, ?>) v; ChangeEvent e = new ChangeEvent();
+            e.id = number(m.get("id")); e.kind = m.get("kind") == null ? null : ChangeEvent.Kind.valueOf((String) m.get("kind"));
+            e.appointmentId = integer(m.get("appointmentId")); e.patientId = integer(m.get("patientId")); e.doctorId = integer(m.get("doctorId"));
+            e.createdAt = timestamp(m.get("createdAt"));
+            return e;
+        }
+
+        static DailyStats dailyStats(Object v) {
+            Map<?, ?> m = (Map<?, ?>) v; DailyStats d = new DailyStats();
+            d.day = date(m.get("day")); d.doctorId = integer(m.get("doctorId"));
+            d.booked = integer(m.get("booked")); d.completed = integer(m.get("completed")); d.returning = integer(m.get("returning"));
+            return d;
+        }
+
+        static AppointmentScope scope(Object v) {
+            if (v == null) return AppointmentScope.ALL;
+            Map<?, ?> m = (Map<?, ?>) v;
+            AppointmentScope scope = new AppointmentScope(AppointmentScope.Kind.valueOf((String) m.get("kind")), integer(m.get("userId")));
+            Map<?, ?> f = (Map<?, ?>) m.get("filter");
+            if (f == null) return scope;
+            AppointmentFilter filter = new AppointmentFilter();
+            filter.doctorId = integer(f.get("doctorId")); filter.status = (String) f.get("status"); filter.from = date(f.get("from")); filter.to = date(f.get("to"));
+            filter.patientIds = ints(f.get("patientIds")); filter.patientNamePrefix = (String) f.get("patientNamePrefix");
+            return scope.filtered(filter);
+        }
+    }
+
+    // Thin-client engine (-Dclinic.store=http): each repository call is one request to a ClinicServer at
+    // clinic.server.url (default http://localhost:8080), so the client holds no database credentials or connections.
+    // Requests carry the session of the last successful login, i.e. one signed-in user per process as in the Swing
+    // app. Server errors come back as SQLExceptions; pruning the change feed is left to the server.
+    private static class RemoteStore implements UserRepository, DoctorRepository, PatientRepository, AppointmentRepository, ReportRepository, ChartRepository, ChangeRepository, AnalyticsRepository, ExportRepository {
+        static { // drop idle connections before the server does (30 s), or a request can go out on one it is closing
+            if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) System.setProperty("jdk.httpclient.keepalive.timeout", "20");
+        }
+        private final URI base;
+        private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5)).build();
+        private volatile String token = "";
+
+        RemoteStore(String url) { base = URI.create(url.endsWith("/") ? url : url + "/"); }
+
+        private HttpRequest.Builder request(String path) {
+            return HttpRequest.newBuilder(base.resolve("api/" + path)).header("Authorization", "Bearer " + token);
+        }
+
+        private static String body(Object... namesAndValues) { return Wire.object(new StringBuilder(128), namesAndValues).toString(); }
+
+        private Object call(String operation, Object... namesAndValues) throws SQLException {
+            HttpRequest request = request(operation).timeout(Duration.ofSeconds(30)).header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body(namesAndValues))).build();
+            HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) throw failure(response.statusCode(), response.body());
+            return Json.parse(response.body());
+        }
+
+        private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws SQLException {
+            try {
+                return http.send(request, handler);
+            } catch (IOException e) {
+                throw new SQLException("Clinic server at " + base + " is not reachable: " + e.getMessage(), "08001", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the clinic server", e);
+            }
+        }
+
+        private static SQLException failure(int status, String body) {
+            String message = body;
+            try { message = (String) ((Map<?, ?>) Json.parse(body)).get("error"); } catch (RuntimeException ignored) { }
+            return status == 409 ? new SQLIntegrityConstraintViolationException(message) : new SQLException(message + " (HTTP " + status + ")");
+        }
+
+        @Override
+        public User authenticate(String username, String password, String role) throws SQLException {
+            Map<?, ?> reply = (Map<?, ?>) call("users/login", "username", username, "password", password, "role", role);
+            User user = Wire.user(reply.get("user"));
+            if (user != null) token = (String) reply.get("token");
+            return user;
+        }
+
+        @Override
+        public List<Doctor> findAll() throws SQLException { return Wire.list(call("doctors/all"), Wire::doctor); }
+
+        @Override
+        public Patient findByUserId(int userId) throws SQLException { return Wire.patient(call("patients/byUser", "userId", userId)); }
+
+        @Override
+        public int register(String username, String password, String name, LocalDate dob, String phone, String abhaId) throws SQLException {
+            return Wire.integer(call("patients/register", "username", username, "password", password, "name", name, "dob", dob, "phone", phone, "abhaId", abhaId));
+        }
+
+        @Override
+        public List<Patient> listAll() throws SQLException { return Wire.list(call("patients/all"), Wire::patient); }
+
+        @Override
+        public Timestamp currentTime() throws SQLException { return Wire.timestamp(call("appointments/currentTime")); }
+
+        @Override
+        public int[] countAndMaxId(AppointmentScope scope) throws SQLException { return Wire.ints(call("appointments/countAndMaxId", "scope", scope)); }
+
+        @Override
+        public List<Appointment> page(AppointmentScope scope, LocalDateTime afterTime, int afterId, int limit) throws SQLException {
+            return Wire.list(call("appointments/page", "scope", scope, "afterTime", afterTime, "afterId", afterId, "limit", limit), Wire::appointment);
+        }
+
+        @Override
+        public Appointment at(AppointmentScope scope, int position) throws SQLException {
+            return Wire.appointment(call("appointments/at", "scope", scope, "position", position));
+        }
+
+        @Override
+        public List<Appointment> changedSince(AppointmentScope scope, int sinceId, Timestamp since) throws SQLException {
+            return Wire.list(call("appointments/changedSince", "scope", scope, "sinceId", sinceId, "since", since), Wire::appointment);
+        }
+
+        @Override
+        public List<Appointment> forPatient(int patientId) throws SQLException { return Wire.list(call("appointments/forPatient", "patientId", patientId), Wire::appointment); }
+
+        @Override
+        public Appointment findById(int appointmentId) throws SQLException { return Wire.appointment(call("appointments/findById", "appointmentId", appointmentId)); }
+
+        @Override
+        public List<Appointment> notesChangedSince(Timestamp since) throws SQLException {
+            return Wire.list(call("appointments/notesChangedSince", "since", since), Wire::appointment);
+        }
+
+        @Override
+        public Set<Integer> patientIdsForDoctor(int doctorId) throws SQLException {
+            return new HashSet<>(Wire.list(call("appointments/patientIdsForDoctor", "doctorId", doctorId), Wire::integer));
+        }
+
+        @Override
+        public List<LocalDateTime> bookedStarts(int doctorId, LocalDate day) throws SQLException {
+            return Wire.list(call("appointments/bookedStarts", "doctorId", doctorId, "day", day), Wire::dateTime);
+        }
+
+        @Override
+        public boolean insertIfFree(int patientId, int doctorId, LocalDateTime start, int minutes) throws SQLException {
+            return (Boolean) call("appointments/insertIfFree", "patientId", patientId, "doctorId", doctorId, "start", start, "minutes", minutes);
+        }
+
+        @Override
+        public int complete(int appointmentId, String notes) throws SQLException { return Wire.integer(call("appointments/complete", "appointmentId", appointmentId, "notes", notes)); }
+
+        @Override
+        public List<Appointment> scheduledBetween(LocalDateTime from, LocalDateTime to) throws SQLException {
+            return Wire.list(call("appointments/scheduledBetween", "from", from, "to", to), Wire::appointment);
+        }
+
+        @Override
+        public List<MedicalReport> reportsForAppointment(int appointmentId) throws SQLException {
+            return Wire.list(call("reports/forAppointment", "appointmentId", appointmentId), Wire::report);
+        }
+
+        @Override
+        public List<MedicalReport> reportsForPatient(int patientId) throws SQLException { return Wire.list(call("reports/forPatient", "patientId", patientId), Wire::report); }
+
+        @Override
+        public void addReport(int appointmentId, String reportName, String filePath) throws SQLException {
+            call("reports/add", "appointmentId", appointmentId, "reportName", reportName, "filePath", filePath);
+        }
+
+        @Override
+        public PatientChart chartForPatient(int patientId) throws SQLException { return Wire.chart(call("charts/forPatient", "patientId", patientId)); }
+
+        @Override
+        public long lastChangeId() throws SQLException { return Wire.number(call("changes/last")); }
+
+        @Override
+        public List<ChangeEvent> changesAfter(long afterId, int limit) throws SQLException { return Wire.list(call("changes/after", "afterId", afterId, "limit", limit), Wire::change); }
+
+        @Override
+        public void purgeChangesBefore(Timestamp cutoff) { }
+
+        @Override
+        public List<DailyStats> dailyStats(LocalDate from, LocalDate to) throws SQLException { return Wire.list(call("analytics/daily", "from", from, "to", to), Wire::dailyStats); }
+
+        @Override
+        public void rebuildDailyStats() throws SQLException { call("analytics/rebuild"); }
+
+        // Rows arrive as JSON Lines, one [appointment, report] pair each, and go to the sink as they are read. The
+        // server ends with a {"rows":N} line, so a connection dropped halfway fails instead of passing as complete.
+        @Override
+        public void exportAppointments(AppointmentScope scope, boolean withReports, ExportRepository.Sink sink) throws SQLException, IOException {
+            HttpRequest request = request("exports/appointments").header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body("scope", scope, "withReports", withReports))).build();
+            HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8), 64 * 1024)) {
+                if (response.statusCode() != 200) {
+                    StringBuilder error = new StringBuilder();
+                    for (String line; (line = in.readLine()) != null; ) error.append(line);
+                    throw failure(response.statusCode(), error.toString());
+                }
+                long rows = 0;
+                for (String line; (line = in.readLine()) != null; ) {
+                    Object row = Json.parse(line);
+                    if (row instanceof Map) {
+                        if (Wire.number(((Map<?, ?>) row).get("rows")) != rows) break;
+                        return;
+                    }
+                    List<?> pair = (List<?>) row;
+                    sink.row(Wire.appointment(pair.get(0)), Wire.report(pair.get(1)));
+                    rows++;
+                }
+                throw new IOException("Export from " + base + " ended early");
+            }
+        }
+
+        private <T> HttpResponse<T> transfer(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+            try {
+                return http.send(request, handler);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while transferring a report");
+            }
+        }
+
+        boolean hasFile(String key) throws IOException {
+            HttpResponse<Void> response = transfer(request("files/" + key).timeout(Duration.ofSeconds(30)).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        }
+
+        void upload(String key, Path file) throws IOException {
+            if (hasFile(key)) return;
+            HttpResponse<String> response = transfer(request("files/" + key).PUT(HttpRequest.BodyPublishers.ofFile(file)).build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 204) throw new IOException(failure(response.statusCode(), response.body()).getMessage());
+        }
+
+        // Stored like a local upload, so the copy doubles as a cache for later views.
+        void download(String key) throws IOException {
+            HttpResponse<InputStream> response = transfer(request("files/" + key).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) throw new IOException("Report " + key + " not available from " + base + " (HTTP " + response.statusCode() + ")");
+                ReportStore.get().receive(key, in, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    // ====================== SESSION ======================
+    private static class SessionManager {
+        private static User currentUser;
+        private static LoginPrefetch prefetch;
+        public static void login(User user, LoginPrefetch prefetch) { currentUser = user; SessionManager.prefetch = prefetch; }
+        public static void logout() {
+            if (currentUser != null) ReferenceData.invalidatePatient(currentUser.id);
+            currentUser = null; prefetch = null;
+        }
+        public static User getCurrentUser() { return currentUser; }
+        static LoginPrefetch getPrefetch() { return prefetch; }
+        // The profile resolved at login; null for other roles or while it is still loading.
+        static Patient getPatient() { return prefetch != null ? LoginPrefetch.loaded(prefetch.patient) : null; }
+        static Doctor getDoctor() { return prefetch != null ? LoginPrefetch.loaded(prefetch.doctor) : null; }
+        public static boolean hasRole(String... roles) {
+            if (currentUser == null) return false;
+            for (String r : roles) if (currentUser.role.equalsIgnoreCase(r)) return true;
+            return false;
+        }
+    }
+
+    // ====================== REFERENCE DATA CACHE ======================
+    // Small LRU cache with a time-to-live per entry. Loads happen outside the lock; concurrent misses for the
+    // same key may both hit the database, which is harmless for read-only reference data. Every invalidate or put
+    // bumps the key's version, and a load that overlapped one is returned to its caller but not cached, so a read
+    // that started before a change never overwrites it.
+    private static class ReferenceCache<K, V> {
+        interface Loader<K, V> { V load(K key) throws SQLException; }
+        private static class Entry<V> { final V value; final long loadedAt; Entry(V value, long loadedAt) { this.value = value; this.loadedAt = loadedAt; } }
+
+        private final String name;
+        private final long ttlMillis;
+        private final Loader<K, V> loader;
+        private final Map<K, Entry<V>> entries;
+        private final Map<K, long[]> loading = new HashMap<>(); // key -> {loads in flight, version}; guarded by entries
+        private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+        ReferenceCache(String name, int maxEntries, long ttlMillis, Loader<K, V> loader) {
+            this.name = name; this.ttlMillis = ttlMillis; this.loader = loader;
+            this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() <= maxEntries) return false;
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+
+        // Returns the cached value, loading it on a miss or after expiry. Null results are not cached.
+        V get(K key) throws SQLException {
+            synchronized (entries) {
+                Entry<V> entry = entries.get(key);
+                if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) { hits.incrementAndGet(); return entry.value; }
+                if (entry != null) { entries.remove(key); evictions.incrementAndGet(); }
+            }
+            misses.incrementAndGet();
+            long version;
+            synchronized (entries) {
+                long[] load = loading.computeIfAbsent(key, k -> new long[2]);
+                load[0]++; version = load[1];
+            }
+            V value = null;
+            try {
+                value = loader.load(key);
+                return value;
+            } finally {
+                synchronized (entries) {
+                    long[] load = loading.get(key);
+                    if (value != null && load[1] == version) entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+                    if (--load[0] == 0) loading.remove(key);
+                }
+            }
+        }
+
+        void put(K key, V value) {
+            synchronized (entries) { changed(key); entries.put(key, new Entry<>(value, System.currentTimeMillis())); }
+        }
+        // Replaces a fresh cached value with change(value); loads in flight for the key are not cached either way.
+        void update(K key, UnaryOperator<V> change) {
+            synchronized (entries) {
+                changed(key);
+                Entry<V> entry = entries.get(key);
+                if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) entries.put(key, new Entry<>(change.apply(entry.value), System.currentTimeMillis()));
+            }
+        }
+        void invalidate(K key) { synchronized (entries) { changed(key); entries.remove(key); } }
+        void invalidateAll() { synchronized (entries) { loading.values().forEach(load -> load[1]++); entries.clear(); } }
+
+        private void changed(K key) {
+            long[] load = loading.get(key);
+            if (load != null) load[1]++;
+        }
+
+        String getStats() {
+            long h = hits.get(), m = misses.get();
+            int size; synchronized (entries) { size = entries.size(); }
+            return String.format("%s: size=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d", name, size, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictions.get());
+        }
+    }
+
+    // Process-wide cache of the doctor list and of patient profiles keyed by user id.
+    private static class ReferenceData {
+        private static final ReferenceCache<Boolean, List<Doctor>> DOCTORS = new ReferenceCache<>("doctors", 1,
+                Long.getLong("clinic.cache.doctorsTtlMillis", 300_000L), ignored -> Collections.unmodifiableList(Repositories.doctors().findAll()));
+        private static final ReferenceCache<Integer, Patient> PATIENTS_BY_USER = new ReferenceCache<>("patientsByUser",
+                Integer.getInteger("clinic.cache.maxPatients", 1_000), Long.getLong("clinic.cache.patientsTtlMillis", 600_000L), userId -> Repositories.patients().findByUserId(userId));
+
+        static List<Doctor> doctors() throws SQLException { return DOCTORS.get(Boolean.TRUE); }
+        static Patient patientForUser(int userId) throws SQLException { return PATIENTS_BY_USER.get(userId); }
+        static void invalidateDoctors() { DOCTORS.invalidateAll(); }
+        static void invalidatePatient(int userId) { PATIENTS_BY_USER.invalidate(userId); }
+        static String getStats() { return DOCTORS.getStats() + "; " + PATIENTS_BY_USER.getStats(); }
+
+        // Notes and reports of an appointment with this doctor may be written by the admin or by that doctor.
+        static boolean mayWrite(User user, int doctorId) throws SQLException {
+            if (user == null) return false;
+            if ("admin".equalsIgnoreCase(user.role)) return true;
+            if (!"doctor".equalsIgnoreCase(user.role)) return false;
+            for (Doctor d : doctors()) if (d.id == doctorId) return d.userId == user.id;
+            return false;
+        }
+
+        static void fillDoctorCombo(JComboBox<Doctor> doctorCombo) {
+            DataExecutor.submit(ReferenceData::doctors, doctors -> doctors.forEach(doctorCombo::addItem), Throwable::printStackTrace);
+        }
+    }
+
+    // ====================== PATIENT CHART CACHE ======================
+    // Charts for the doctor's history dialog, kept per patient. Notes saved and reports uploaded from this process
+    // patch the cached chart (as a copy; dialogs may still hold the old one) and keep a chart still being read from
+    // being cached. Every change ChangeBus reports, this process's own included, drops the chart so it is read again
+    // on next open.
+    private static class PatientCharts {
+        private static final ReferenceCache<Integer, PatientChart> CHARTS = new ReferenceCache<>("charts",
+                Integer.getInteger("clinic.cache.maxCharts", 200), Long.getLong("clinic.cache.chartTtlMillis", 600_000L), PatientCharts::load);
+        private static Runnable subscription;
+
+        static PatientChart load(int patientId) throws SQLException { return Repositories.charts().chartForPatient(patientId); }
+
+        static PatientChart get(int patientId) throws SQLException {
+            subscribe();
+            return CHARTS.get(patientId);
+        }
+
+        static void notesSaved(int patientId, int appointmentId, String notes) {
+            patch(patientId, chart -> chart.history.replaceAll(a -> {
+                if (a.id != appointmentId) return a;
+                Appointment updated = a.copy();
+                updated.notes = notes; updated.status = "Completed";
+                return updated;
+            }));
+        }
+
+        static void reportAdded(int patientId, int appointmentId, String reportName, String filePath) {
+            patch(patientId, chart -> {
+                MedicalReport r = new MedicalReport();
+                r.appointmentId = appointmentId; r.reportName = reportName; r.filePath = filePath; r.uploadedAt = LocalDateTime.now();
+                chart.reports.add(0, r);
+            });
+        }
+
+        static String getStats() { return CHARTS.getStats(); }
+
+        private static void patch(int patientId, Consumer<PatientChart> change) {
+            CHARTS.update(patientId, cached -> {
+                PatientChart copy = new PatientChart();
+                copy.patientId = patientId; copy.history = new ArrayList<>(cached.history); copy.reports = new ArrayList<>(cached.reports);
+                change.accept(copy);
+                return copy;
+            });
+        }
+
+        private static synchronized void subscribe() {
+            if (subscription == null) subscription = ChangeBus.subscribe(events -> {
+                for (ChangeEvent e : events) CHARTS.invalidate(e.patientId);
+            });
+        }
+    }
+
+    // ====================== PATIENT NAME SEARCH ======================
+    // Prefix index for as-you-type patient search. Each name is filed under its full lower-cased form and under every
+    // later word, all in one sorted array, so a prefix lookup is a binary search plus a scan over the hits.
+    private static class PatientNameIndex {
+        private static final int MAX_MATCHES = Integer.getInteger("clinic.search.maxPatientIds", 1_000);
+        private static final long TTL_MILLIS = Long.getLong("clinic.search.indexTtlMillis", 300_000L);
+        private static volatile PatientNameIndex current;
+
+        private final String[] keys; private final int[] patientIds; private final long builtAt = System.currentTimeMillis();
+
+        private PatientNameIndex(List<Patient> patients) {
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(patients.size() * 2);
+            for (Patient p : patients) {
+                String name = normalize(p.name);
+                if (name.isEmpty()) continue;
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(name, p.id));
+                for (int space = name.indexOf(' '); space >= 0; space = name.indexOf(' ', space + 1)) entries.add(new AbstractMap.SimpleImmutableEntry<>(name.substring(space + 1), p.id));
+            }
+            entries.sort(Map.Entry.comparingByKey());
+            keys = new String[entries.size()]; patientIds = new int[entries.size()];
+            for (int i = 0; i < keys.length; i++) { keys[i] = entries.get(i).getKey(); patientIds[i] = entries.get(i).getValue(); }
+        }
+
+        // Built on first use and rebuilt once it is older than clinic.search.indexTtlMillis, so patients registered
+        // from other machines show up eventually; registrations in this process call invalidate().
+        static PatientNameIndex get() throws SQLException {
+            PatientNameIndex index = current;
+            if (index == null || System.currentTimeMillis() - index.builtAt > TTL_MILLIS) current = index = new PatientNameIndex(Repositories.patients().listAll());
+            return index;
+        }
+        static void invalidate() { current = null; }
+
+        static String normalize(String text) { return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT); }
+
+        // Sorted, distinct ids of patients whose name or one of its words starts with 'prefix';
+        // null when more than clinic.search.maxPatientIds patients match.
+        int[] match(String prefix) {
+            String p = normalize(prefix);
+            int low = 0, high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(p) < 0) low = mid + 1; else high = mid;
+            }
+            int[] found = new int[16]; int n = 0;
+            for (int i = low; i < keys.length && keys[i].startsWith(p); i++) {
+                if (n == MAX_MATCHES * 4) return null; // the same patient can appear under several words
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = patientIds[i];
+            }
+            int[] ids = Arrays.stream(found, 0, n).sorted().distinct().toArray();
+            return ids.length > MAX_MATCHES ? null : ids;
+        }
+    }
+
+    // ====================== NOTES SEARCH ======================
+    // In-process inverted index over consultation notes, ranked with BM25. Terms per appointment are saved to
+    // clinic.notesIndex.file together with the database time they are current to, so a restart loads the file and
+    // only reads notes changed since then. Notes saved in this process are indexed right away; notes saved elsewhere
+    // are read in the background when ChangeBus reports an updated appointment. Each entry also keeps what a result
+    // row shows (time, names, notes), so searches never touch the database.
+    private static class NotesIndex {
+        private static final Path FILE = Paths.get(System.getProperty("clinic.notesIndex.file", "clinic_notes.idx"));
+        private static final int FILE_MAGIC = 0x4e4f5432; // older files lack the display fields and are rebuilt
+        private static final double K1 = 1.2, B = 0.75;
+        private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+                "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", "of", "on", "or", "the", "to", "was", "with"));
+        private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "clinic-notes-index"); t.setDaemon(true); return t;
+        });
+        private static volatile NotesIndex current;
+
+        static class Hit {
+            final Appointment appointment; final double score; // id, patient, doctor, time and notes only
+            Hit(Appointment appointment, double score) { this.appointment = appointment; this.score = score; }
+        }
+        private static class Doc {
+            final int doctorId, patientId, length; final String[] terms; final int[] counts;
+            final LocalDateTime dateTime; final String patientName, doctorName, notes;
+            Doc(Appointment a, String[] terms, int[] counts) {
+                this(a.doctorId, a.patientId, a.dateTime, a.patientName, a.doctorName, a.notes, terms, counts);
+            }
+            Doc(int doctorId, int patientId, LocalDateTime dateTime, String patientName, String doctorName, String notes, String[] terms, int[] counts) {
+                this.doctorId = doctorId; this.patientId = patientId; this.terms = terms; this.counts = counts;
+                this.dateTime = dateTime; this.patientName = patientName; this.doctorName = doctorName; this.notes = notes;
+                length = Arrays.stream(counts).sum();
+            }
+            Appointment shown(int appointmentId) {
+                Appointment a = new Appointment();
+                a.id = appointmentId; a.patientId = patientId; a.doctorId = doctorId;
+                a.dateTime = dateTime; a.patientName = patientName; a.doctorName = doctorName; a.notes = notes;
+                return a;
+            }
+        }
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Integer, Doc> docs = new HashMap<>();
+        private final TreeMap<String, Map<Integer, Integer>> postings = new TreeMap<>(); // term -> appointment id -> count
+        private final boolean persistent = !(Repositories.appointments() instanceof MemoryStore);
+        private long totalLength;
+        private Timestamp syncedAt; // every change up to this database time is applied; null until the first full read
+        private volatile boolean dirty;
+
+        static NotesIndex get() throws SQLException {
+            NotesIndex index = current;
+            if (index != null) return index;
+            synchronized (NotesIndex.class) {
+                if (current == null) {
+                    // Saver and subscription start only once the first sync succeeded; a failed attempt leaves nothing behind.
+                    NotesIndex loaded = new NotesIndex();
+                    if (loaded.persistent) loaded.load();
+                    loaded.sync();
+                    current = loaded;
+                    if (loaded.persistent) SAVER.scheduleWithFixedDelay(loaded::saveIfDirty, 30, 30, TimeUnit.SECONDS);
+                    ChangeBus.subscribe(events -> {
+                        if (events.stream().anyMatch(e -> e.kind == ChangeEvent.Kind.APPOINTMENT_UPDATED)) SAVER.execute(loaded::syncQuietly);
+                    });
+                }
+                return current;
+            }
+        }
+
+        // Called after notes were saved in this process. Until the index is first used there is nothing to update.
+        static void noteSaved(int appointmentId) throws SQLException {
+            NotesIndex index = current;
+            if (index != null) index.put(Repositories.appointments().findById(appointmentId));
+        }
+
+        // Lower-cased runs of letters and digits, minus one-letter words and stop words.
+        static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<>();
+            if (text == null) return tokens;
+            String lower = text.toLowerCase(Locale.ROOT);
+            for (int i = 0, start = -1; i <= lower.length(); i++) {
+                boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+                if (letter && start < 0) start = i;
+                else if (!letter && start >= 0) {
+                    String token = lower.substring(start, i);
+                    if (token.length() > 1 && !STOP_WORDS.contains(token)) tokens.add(token);
+                    start = -1;
+                }
+            }
+            return tokens;
+        }
+
+        // Applies notes written since the last sync by any process. updated_at is stamped by the statement but visible
+        // only at commit, so each sync re-reads the clinic.changes.gapMillis before syncedAt; unchanged rows are skipped.
+        synchronized void sync() throws SQLException {
+            AppointmentRepository appointments = Repositories.appointments();
+            Timestamp now = appointments.currentTime();
+            Timestamp since = syncedAt == null ? null : new Timestamp(syncedAt.getTime() - ChangeBus.GAP_MILLIS);
+            for (Appointment a : appointments.notesChangedSince(since)) put(a);
+            lock.writeLock().lock();
+            try { syncedAt = now; dirty = true; } finally { lock.writeLock().unlock(); }
+        }
+
+        private void syncQuietly() {
+            try { sync(); } catch (SQLException e) { e.printStackTrace(); }
+        }
+
+        private void put(Appointment a) {
+            if (a == null) return;
+            lock.readLock().lock();
+            try {
+                Doc old = docs.get(a.id);
+                if (old != null && Objects.equals(old.notes, a.notes) && old.dateTime.equals(a.dateTime)) return; // re-read, nothing new
+            } finally { lock.readLock().unlock(); }
+            Map<String, Integer> counts = new HashMap<>();
+            for (String token : tokenize(a.notes)) counts.merge(token, 1, Integer::sum);
+            String[] terms = counts.keySet().toArray(new String[0]);
+            int[] termCounts = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) termCounts[i] = counts.get(terms[i]);
+            lock.writeLock().lock();
+            try {
+                remove(a.id);
+                if (terms.length > 0) add(a.id, new Doc(a, terms, termCounts));
+                dirty = true;
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        private void add(int appointmentId, Doc doc) {
+            docs.put(appointmentId, doc);
+            totalLength += doc.length;
+            for (int i = 0; i < doc.terms.length; i++) postings.computeIfAbsent(doc.terms[i], k -> new HashMap<>()).put(appointmentId, doc.counts[i]);
+        }
+
+        private void remove(int appointmentId) {
+            Doc old = docs.remove(appointmentId);
+            if (old == null) return;
+            totalLength -= old.length;
+            for (String term : old.terms) {
+                Map<Integer, Integer> list = postings.get(term);
+                list.remove(appointmentId);
+                if (list.isEmpty()) postings.remove(term);
+            }
+        }
+
+        // Best matches first. The last query word also matches longer words, so results follow typing.
+        List<Hit> search(String query, AppointmentScope scope, int limit) throws SQLException {
+            List<String> terms = tokenize(query);
+            if (terms.isEmpty()) return new ArrayList<>();
+            Set<Integer> visible = visiblePatients(scope);
+            Map<Integer, Double> scores = new HashMap<>();
+            lock.readLock().lock();
+            try {
+                double averageLength = docs.isEmpty() ? 1 : (double) totalLength / docs.size();
+                for (int t = 0; t < terms.size(); t++) {
+                    String term = terms.get(t);
+                    Map<String, Map<Integer, Integer>> matching = t < terms.size() - 1 ? postings.subMap(term, true, term, true)
+                            : postings.subMap(term, true, term + Character.MAX_VALUE, false);
+                    for (Map<Integer, Integer> list : matching.values()) {
+                        double idf = Math.log(1 + (docs.size() - list.size() + 0.5) / (list.size() + 0.5));
+                        for (Map.Entry<Integer, Integer> posting : list.entrySet()) {
+                            Doc doc = docs.get(posting.getKey());
+                            if (visible != null && !visible.contains(doc.patientId)) continue;
+                            double tf = posting.getValue();
+                            scores.merge(posting.getKey(), idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / averageLength)), Double::sum);
+                        }
+                    }
+                }
+                PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(Map.Entry.<Integer, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+                for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+                    best.add(e);
+                    if (best.size() > limit) best.poll();
+                }
+                List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(best);
+                ranked.sort(best.comparator().reversed());
+                List<Hit> hits = new ArrayList<>(ranked.size());
+                for (Map.Entry<Integer, Double> e : ranked) hits.add(new Hit(docs.get(e.getKey()).shown(e.getKey()), e.getValue()));
+                return hits;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // Patients whose notes the scope may read: everyone for the admin (null), a doctor's own patients, a patient's own notes.
+        private static Set<Integer> visiblePatients(AppointmentScope scope) throws SQLException {
+            if (scope.kind == AppointmentScope.Kind.ALL) return null;
+            if (scope.kind == AppointmentScope.Kind.PATIENT) {
+                Patient p = ReferenceData.patientForUser(scope.userId);
+                return p != null ? Collections.singleton(p.id) : Collections.emptySet();
+            }
+            for (Doctor d : ReferenceData.doctors()) if (d.userId == scope.userId) return Repositories.appointments().patientIdsForDoctor(d.id);
+            return Collections.emptySet();
+        }
+
+        private void load() {
+            if (!Files.exists(FILE)) return;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(FILE)))) {
+                if (in.readInt() != FILE_MAGIC) return;
+                Timestamp saved = new Timestamp(in.readLong());
+                for (int n = in.readInt(); n > 0; n--) {
+                    int appointmentId = in.readInt(), doctorId = in.readInt(), patientId = in.readInt();
+                    LocalDateTime dateTime = LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC);
+                    String patientName = readText(in), doctorName = readText(in), notes = readText(in);
+                    String[] terms = new String[in.readInt()]; int[] counts = new int[terms.length];
+                    for (int i = 0; i < terms.length; i++) { terms[i] = in.readUTF(); counts[i] = in.readInt(); }
+                    add(appointmentId, new Doc(doctorId, patientId, dateTime, patientName, doctorName, notes, terms, counts));
+                }
+                syncedAt = saved;
+            } catch (IOException e) {
+                e.printStackTrace(); // unreadable file: fall back to a full read
+                docs.clear(); postings.clear(); totalLength = 0; syncedAt = null;
+            }
+        }
+
+        private void saveIfDirty() {
+            if (!dirty) return;
+            lock.readLock().lock();
+            try {
+                Path parent = FILE.toAbsolutePath().getParent();
+                Path temp = Files.createTempFile(parent, "notes", ".part");
+                dirty = false;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(FILE_MAGIC);
+                    out.writeLong(syncedAt.getTime());
+                    out.writeInt(docs.size());
+                    for (Map.Entry<Integer, Doc> e : docs.entrySet()) {
+                        Doc doc = e.getValue();
+                        out.writeInt(e.getKey()); out.writeInt(doc.doctorId); out.writeInt(doc.patientId);
+                        out.writeLong(doc.dateTime.toEpochSecond(ZoneOffset.UTC));
+                        writeText(out, doc.patientName); writeText(out, doc.doctorName); writeText(out, doc.notes);
+                        out.writeInt(doc.terms.length);
+                        for (int i = 0; i < doc.terms.length; i++) { out.writeUTF(doc.terms[i]); out.writeInt(doc.counts[i]); }
+                    }
+                }
+                Files.move(temp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                dirty = true;
+                e.printStackTrace();
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // Length-prefixed UTF-8, -1 for null; notes can be longer than writeUTF allows.
+        private static void writeText(DataOutputStream out, String text) throws IOException {
+            if (text == null) { out.writeInt(-1); return; }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length); out.write(bytes);
+        }
+
+        private static String readText(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // ====================== CHANGE NOTIFICATIONS ======================
+    // One poller per process tails the change_events outbox and hands new events to subscribed panels on the EDT,
+    // so open views update without each polling the appointment tables. Ids are assigned at insert but become
+    // visible at commit, so ids skipped below the highest one seen are kept as gaps and every poll re-reads from the
+    // lowest gap. Each event is delivered once, as long as it commits within clinic.changes.gapMillis of a later id
+    // showing up; gaps older than that (rolled-back inserts, or a very slow transaction) are given up.
+    private static class ChangeBus {
+        private static final long POLL_MILLIS = Long.getLong("clinic.changes.pollMillis", 1_000L);
+        private static final long RETAIN_MILLIS = Long.getLong("clinic.changes.retainMillis", 86_400_000L);
+        private static final long GAP_MILLIS = Long.getLong("clinic.changes.gapMillis", 60_000L);
+        private static final int BATCH = 500, MAX_GAPS = 10_000;
+        private static final List<Consumer<List<ChangeEvent>>> SUBSCRIBERS = new CopyOnWriteArrayList<>();
+        private static final TreeMap<Long, Long> gaps = new TreeMap<>(); // missing id -> when it was first missed; poller thread only
+        private static ScheduledExecutorService poller;
+        private static long highestId = -1, lastPurge;
+
+        // Subscribers run on the EDT; the returned Runnable unsubscribes.
+        static synchronized Runnable subscribe(Consumer<List<ChangeEvent>> subscriber) {
+            SUBSCRIBERS.add(subscriber);
+            if (poller == null) {
+                poller = Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "clinic-change-bus"); t.setDaemon(true); return t; });
+                poller.scheduleWithFixedDelay(ChangeBus::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return () -> SUBSCRIBERS.remove(subscriber);
+        }
+
+        private static void poll() {
+            if (SUBSCRIBERS.isEmpty()) return;
+            try {
+                ChangeRepository changes = Repositories.changes();
+                if (highestId < 0) { highestId = changes.lastChangeId(); return; } // only changes from now on
+                List<ChangeEvent> fresh = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                long from = gaps.isEmpty() ? highestId : gaps.firstKey() - 1;
+                while (true) {
+                    List<ChangeEvent> batch = changes.changesAfter(from, BATCH);
+                    for (ChangeEvent e : batch) {
+                        if (e.id > highestId) {
+                            for (long missing = Math.max(highestId + 1, e.id - MAX_GAPS); missing < e.id; missing++) gaps.put(missing, now);
+                            highestId = e.id;
+                        } else if (gaps.remove(e.id) == null) continue; // delivered before
+                        if (e.kind != null) fresh.add(e); // no kind: an event the server does not show this user
+                    }
+                    if (batch.size() < BATCH) break;
+                    from = batch.get(batch.size() - 1).id;
+                }
+                gaps.values().removeIf(missedAt -> now - missedAt > GAP_MILLIS);
+                while (gaps.size() > MAX_GAPS) gaps.pollFirstEntry();
+                if (!fresh.isEmpty()) SwingUtilities.invokeLater(() -> { for (Consumer<List<ChangeEvent>> s : SUBSCRIBERS) s.accept(fresh); });
+                if (System.currentTimeMillis() - lastPurge > 3_600_000L) {
+                    lastPurge = System.currentTimeMillis();
+                    changes.purgeChangesBefore(new Timestamp(Repositories.appointments().currentTime().getTime() - RETAIN_MILLIS));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // ====================== LOGIN PREFETCH ======================
+    // Starts every query the role's dashboard needs as soon as the credentials check out, all at once instead of
+    // panel by panel: the first page of appointments, the doctor list and the profile, then (for patients) history
+    // and reports in parallel. Panels claim their part while the dashboard is built and fill in as each completes.
+    // The time from the login click to each step, and to the first page on screen, is printed once it is shown.
+    private static class LoginPrefetch {
+        final User user;
+        final CompletableFuture<PagedAppointmentTableModel.Snapshot> firstPage;
+        final CompletableFuture<List<Doctor>> doctors;
+        final CompletableFuture<Patient> patient; // null unless a patient logged in
+        final CompletableFuture<Doctor> doctor;   // null unless a doctor logged in
+        final CompletableFuture<Vector<Vector<Object>>> records, reports;
+        private final PagedAppointmentTableModel appointments;
+        private final long startedAt;
+        private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>()); // step -> ms since the click
+        private final Set<String> claimed = new HashSet<>();
+
+        // startedAt is the System.nanoTime() of the login click; authentication has just succeeded.
+        LoginPrefetch(User user, long startedAt) {
+            this.user = user; this.startedAt = startedAt;
+            mark("auth");
+            appointments = new PagedAppointmentTableModel(AppointmentScope.forUser(user));
+            firstPage = timed("appointments", DataExecutor.supply(appointments::loadSnapshot));
+            doctors = timed("doctors", DataExecutor.supply(ReferenceData::doctors));
+            boolean isPatient = "patient".equalsIgnoreCase(user.role);
+            patient = isPatient ? timed("profile", DataExecutor.supply(() -> ReferenceData.patientForUser(user.id))) : CompletableFuture.completedFuture(null);
+            doctor = "doctor".equalsIgnoreCase(user.role) ? timed("profile", doctors.thenApply(list -> {
+                for (Doctor d : list) if (d.userId == user.id) return d;
+                return null;
+            })) : CompletableFuture.completedFuture(null);
+            records = isPatient ? timed("records", patient.thenCompose(p -> p == null ? CompletableFuture.completedFuture(null) : DataExecutor.supply(() -> PatientRecordsPanel.loadRecords(p.id))))
+                    : CompletableFuture.completedFuture(null);
+            reports = isPatient ? timed("reports", patient.thenCompose(p -> p == null ? CompletableFuture.completedFuture(null) : DataExecutor.supply(() -> PatientRecordsPanel.loadReports(p.id))))
+                    : CompletableFuture.completedFuture(null);
+        }
+
+        static <T> T loaded(CompletableFuture<T> future) {
+            return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+        }
+
+        private <T> CompletableFuture<T> timed(String step, CompletableFuture<T> future) {
+            future.whenComplete((result, error) -> mark(error == null ? step : step + " (failed)"));
+            return future;
+        }
+
+        private void mark(String step) { timings.put(step, (System.nanoTime() - startedAt) / 1_000_000); }
+
+        // Each part is handed out once; views created later load their own data.
+        synchronized boolean claim(String part) { return claimed.add(part); }
+
+        PagedAppointmentTableModel claimAppointments() { return claim("appointments") ? appointments : null; }
+
+        void awaitAll() throws InterruptedException, ExecutionException {
+            CompletableFuture.allOf(firstPage, doctors, patient, doctor, records, reports).get();
+        }
+
+        // Called on the EDT when the first page of appointments is on screen.
+        void firstScreenShown() {
+            mark("first screen");
+            System.out.println("Login " + user.role + ": " + timingsReport());
+        }
+
+        String timingsReport() {
+            StringJoiner report = new StringJoiner(", ");
+            synchronized (timings) { timings.forEach((step, ms) -> report.add(step + " " + ms + " ms")); }
+            return report.toString();
+        }
+    }
+
+    // ====================== LOGIN SCREENS ======================
+    public static class LoginChoiceFrame extends JFrame {
+        public LoginChoiceFrame() {
+            setTitle("SMART HEALTHCARE APPOINTMENT SYSTEM");
+            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); setSize(700, 450);
+            setLocationRelativeTo(null); setLayout(new BorderLayout(10, 10));
+            JLabel titleLabel = new JLabel("Welcome! Select Your Role to Login", SwingConstants.CENTER);
+            titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 28));
+            titleLabel.setBorder(new EmptyBorder(40, 0, 20, 0)); add(titleLabel, BorderLayout.NORTH);
+            JPanel buttonPanel = new JPanel(new GridLayout(1, 3, 30, 20));
+            buttonPanel.setBorder(new EmptyBorder(20, 50, 80, 50));
+            buttonPanel.add(createRoleButton("Patient", e -> { new RoleLoginFrame("Patient").setVisible(true); dispose(); }));
+            buttonPanel.add(createRoleButton("Doctor", e -> { new RoleLoginFrame("Doctor").setVisible(true); dispose(); }));
+            buttonPanel.add(createRoleButton("Admin", e -> { new AdminLoginFrame().setVisible(true); dispose(); }));
+            add(buttonPanel, BorderLayout.CENTER);
+            ModernButton themeToggle = new ModernButton(ThemeManager.isDarkMode() ? "Light Mode" : "Dark Mode");
+            themeToggle.setFont(new Font("Segoe UI", Font.BOLD, 14));
+            themeToggle.addActionListener(e -> { ThemeManager.toggleTheme(); themeToggle.setText(ThemeManager.isDarkMode() ? "Light Mode" : "Dark Mode"); });
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            bottomPanel.setBorder(new EmptyBorder(0, 0, 10, 10)); bottomPanel.add(themeToggle);
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
+        private ModernButton createRoleButton(String text, ActionListener action) {
+            ModernButton button = new ModernButton(text); button.addActionListener(action); button.setFont(new Font("Segoe UI", Font.BOLD, 20)); return button;
+        }
+    }
+    public static class AdminLoginFrame extends JFrame {
+        public AdminLoginFrame() {
+            setTitle("Admin Login"); setSize(400, 250); setLocationRelativeTo(null);
+            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); setLayout(new BorderLayout(10, 10));
+            add(new JLabel("Admin Login", SwingConstants.CENTER), BorderLayout.NORTH);
+            final JPasswordField passwordField = new JPasswordField();
+            passwordField.setHorizontalAlignment(SwingConstants.CENTER);
+            final JTextField usernameField = new JTextField("Admin");
+            usernameField.setHorizontalAlignment(SwingConstants.CENTER);
+
+            JPanel centerPanel = new JPanel(new GridLayout(2,1, 5, 5));
+            centerPanel.add(new JLabel("Username:", SwingConstants.CENTER));
+            centerPanel.add(usernameField);
+            centerPanel.add(new JLabel("Password:", SwingConstants.CENTER));
+            centerPanel.add(passwordField);
+            add(centerPanel, BorderLayout.CENTER);
+
+            ModernButton loginButton = new ModernButton("Login");
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER)); buttonPanel.add(loginButton);
+            add(buttonPanel, BorderLayout.SOUTH);
+            loginButton.addActionListener(e -> {
+                final String username = usernameField.getText(), password = new String(passwordField.getPassword());
+                final long startedAt = System.nanoTime();
+                loginButton.setEnabled(false);
+                DataExecutor.submit(() -> {
+                    User user = Repositories.users().authenticate(username, password, "admin");
+                    return user != null ? new LoginPrefetch(user, startedAt) : null;
+                }, prefetch -> {
+                    loginButton.setEnabled(true);
+                    if (prefetch != null) {
+                        SessionManager.login(prefetch.user, prefetch);
+                        new MainApplicationFrame().setVisible(true);
+                        dispose();
+                    } else {
+                        JOptionPane.showMessageDialog(this, "Incorrect Credentials.", "Login Failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                }, ex -> {
+                    loginButton.setEnabled(true);
+                    JOptionPane.showMessageDialog(this, "Database Error: " + ex.getMessage(), "Login Error", JOptionPane.ERROR_MESSAGE);
+                });
+            });
+        }
+    }
+    public static class RoleLoginFrame extends JFrame {
+        public RoleLoginFrame(final String role) {
+            setTitle(role + " Portal"); setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            setSize(450, "Patient".equals(role) ? 550 : 350); setLocationRelativeTo(null);
+            JTabbedPane tabbedPane = new JTabbedPane();
+            tabbedPane.addTab("Login", createLoginPanel(role));
+            if ("Patient".equals(role)) { tabbedPane.addTab("Register", createPatientRegisterPanel()); }
+            add(tabbedPane);
+        }
+        private JPanel createLoginPanel(final String role) {
+            JPanel panel = new JPanel(new GridBagLayout()); GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(5, 5, 5, 5); gbc.fill = GridBagConstraints.HORIZONTAL;
+            final JComboBox<Doctor> doctorCombo = new JComboBox<>();
+            final JTextField usernameField = new JTextField(20);
+            final JPasswordField passwordField = new JPasswordField(20);
+            if ("Doctor".equals(role)) {
+                gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Doctor:"), gbc);
+                gbc.gridx = 1; panel.add(doctorCombo, gbc); ReferenceData.fillDoctorCombo(doctorCombo);
+            } else {
+                gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Username:"), gbc);
+                gbc.gridx = 1; panel.add(usernameField, gbc);
+            }
+            gbc.gridx = 0; gbc.gridy = 1; panel.add(new JLabel("Password:"), gbc);
+            gbc.gridx = 1; panel.add(passwordField, gbc);
+            ModernButton loginButton = new ModernButton("Login");
+            gbc.gridx = 1; gbc.gridy = 2; panel.add(loginButton, gbc);
+            loginButton.addActionListener(e -> {
+                String username = usernameField.getText();
+                if ("Doctor".equals(role) && doctorCombo.getSelectedItem() != null) {
+                    Doctor selectedDoctor = (Doctor) doctorCombo.getSelectedItem();
+                    username = "dr_" + selectedDoctor.name.toLowerCase().replace(" ", "");
+                }
+                performLogin(username, new String(passwordField.getPassword()));
+            });
+            return panel;
+        }
+        private JPanel createPatientRegisterPanel() {
+            JPanel panel = new JPanel(new GridBagLayout()); GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(5, 5, 5, 5); gbc.fill = GridBagConstraints.HORIZONTAL;
+            final JTextField regUser = new JTextField(), regName = new JTextField(), regPhone = new JTextField(), regAbhaId = new JTextField();
+            final JPasswordField regPass = new JPasswordField(); final DatePicker regDob = new DatePicker();
+            gbc.gridx = 0; gbc.gridy = 0; panel.add(new JLabel("Username:"), gbc); gbc.gridx = 1; panel.add(regUser, gbc);
+            gbc.gridx = 0; gbc.gridy = 1; panel.add(new JLabel("Password:"), gbc); gbc.gridx = 1; panel.add(regPass, gbc);
+            gbc.gridx = 0; gbc.gridy = 2; panel.add(new JLabel("Full Name:"), gbc); gbc.gridx = 1; panel.add(regName, gbc);
+            gbc.gridx = 0; gbc.gridy = 3; panel.add(new JLabel("Date of Birth:"), gbc); gbc.gridx = 1; panel.add(regDob, gbc);
+            gbc.gridx = 0; gbc.gridy = 4; panel.add(new JLabel("Phone:"), gbc); gbc.gridx = 1; panel.add(regPhone, gbc);
+            gbc.gridx = 0; gbc.gridy = 5; panel.add(new JLabel("ABHA ID (Optional):"), gbc); gbc.gridx = 1; panel.add(regAbhaId, gbc);
+            ModernButton registerButton = new ModernButton("Register");
+            gbc.gridx = 1; gbc.gridy = 6; panel.add(registerButton, gbc);
+            registerButton.addActionListener(e -> {
+                String abhaId = regAbhaId.getText();
+                if (abhaId != null && !abhaId.trim().isEmpty()) {
+                    int choice = JOptionPane.showConfirmDialog(this,
+                            "Do you want to link this ABHA ID to your account?\nThis is a one-time process.",
+                            "Confirm ABHA Linking", JOptionPane.YES_NO_OPTION);
+                    if (choice == JOptionPane.YES_OPTION) {
+                        performRegistration(regUser.getText(), new String(regPass.getPassword()), regName.getText(), regDob.getDate(), regPhone.getText(), abhaId);
+                    }
+                } else {
+                     performRegistration(regUser.getText(), new String(regPass.getPassword()), regName.getText(), regDob.getDate(), regPhone.getText(), null);
+                }
+            });
+            return panel;
+        }
+        private void performLogin(String username, String password) {
+            final long startedAt = System.nanoTime();
+            DataExecutor.submit(() -> {
+                User user = Repositories.users().authenticate(username, password, null);
+                return user != null ? new LoginPrefetch(user, startedAt) : null;
+            }, prefetch -> {
+                if (prefetch != null) {
+                    SessionManager.login(prefetch.user, prefetch);
+                    new MainApplicationFrame().setVisible(true); dispose();
+                } else { JOptionPane.showMessageDialog(this, "Invalid Credentials.", "Login Failed", JOptionPane.ERROR_MESSAGE); }
+            }, ex -> JOptionPane.showMessageDialog(this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        }
+        private void performRegistration(String username, String password, String name, LocalDate dob, String phone, String abhaId) {
+            if (username.isEmpty() || password.isEmpty() || name.isEmpty() || dob == null) {
+                JOptionPane.showMessageDialog(this, "Username, Password, Name, and DoB fields must be filled out.", "Validation Error", JOptionPane.ERROR_MESSAGE); return;
+            }
+            DataExecutor.submit(() -> {
+                insertPatientAccount(username, password, name, dob, phone, abhaId);
+                return null;
+            }, ignored -> JOptionPane.showMessageDialog(this, "Registration successful! Please login.", "Success", JOptionPane.INFORMATION_MESSAGE),
+               ex -> JOptionPane.showMessageDialog(this, "Registration failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        }
+        private static void insertPatientAccount(String username, String password, String name, LocalDate dob, String phone, String abhaId) throws SQLException {
+            int userId = Repositories.patients().register(username, password, name, dob, phone, abhaId);
+            ReferenceData.invalidatePatient(userId);
+            PatientNameIndex.invalidate();
+        }
+    }
+
+    // ====================== MAIN DASHBOARD ======================
+    public static class MainApplicationFrame extends JFrame {
         public MainApplicationFrame() {
             User user = SessionManager.getCurrentUser();
-            setTitle("Pro Clinic Manager - " + (user != null ? user.role.toUpperCase() : ""));
-            setSize(1200, 700); setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            setLocationRelativeTo(null); setLayout(new BorderLayout());
-            JLabel welcomeLabel = new JLabel("Welcome, " + (user != null ? user.username : ""), SwingConstants.CENTER);
-            welcomeLabel.setFont(new Font("Segoe UI", Font.BOLD, 24)); welcomeLabel.setBorder(new EmptyBorder(10,0,10,0));
-            JPanel mainPanel = SessionManager.hasRole("patient") ? new PatientDashboardPanel() :
-                                 SessionManager.hasRole("doctor") ? new DoctorDashboardPanel() : new AdminDashboardPanel();
-            add(welcomeLabel, BorderLayout.NORTH); add(mainPanel, BorderLayout.CENTER);
-            ModernButton logoutButton = new ModernButton("Logout");
-            logoutButton.addActionListener(e -> { SessionManager.logout(); new LoginChoiceFrame().setVisible(true); dispose(); });
-            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-            bottomPanel.add(logoutButton); add(bottomPanel, BorderLayout.SOUTH);
+            setTitle("Pro Clinic Manager - " + (user != null ? user.role.toUpperCase() : ""));
+            setSize(1200, 700); setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            setLocationRelativeTo(null); setLayout(new BorderLayout());
+            JLabel welcomeLabel = new JLabel("Welcome, " + (user != null ? user.username : ""), SwingConstants.CENTER);
+            welcomeLabel.setFont(new Font("Segoe UI", Font.BOLD, 24)); welcomeLabel.setBorder(new EmptyBorder(10,0,10,0));
+            JPanel mainPanel = SessionManager.hasRole("patient") ? new PatientDashboardPanel() :
+                                 SessionManager.hasRole("doctor") ? new DoctorDashboardPanel() : new AdminDashboardPanel();
+            add(welcomeLabel, BorderLayout.NORTH); add(mainPanel, BorderLayout.CENTER);
+            ModernButton logoutButton = new ModernButton("Logout");
+            logoutButton.addActionListener(e -> { SessionManager.logout(); new LoginChoiceFrame().setVisible(true); dispose(); });
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            bottomPanel.add(logoutButton); add(bottomPanel, BorderLayout.SOUTH);
+        }
+    }
+
+    // ====================== DASHBOARD PANELS ======================
+    public static class PatientDashboardPanel extends JPanel {
+        private final AppointmentsViewPanel appointmentsView;
+        public PatientDashboardPanel() {
+            setLayout(new BorderLayout());
+            JTabbedPane tabbedPane = new JTabbedPane();
+            JPanel appointmentsOuterPanel = new JPanel(new BorderLayout());
+            ModernButton bookAppointmentButton = new ModernButton("Book New Appointment");
+            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+            topPanel.setBorder(new EmptyBorder(10,0,10,0));
+            topPanel.add(bookAppointmentButton);
+            appointmentsOuterPanel.add(topPanel, BorderLayout.NORTH);
+            appointmentsView = new AppointmentsViewPanel();
+            appointmentsOuterPanel.add(appointmentsView, BorderLayout.CENTER);
+            bookAppointmentButton.addActionListener(e -> new AppointmentBookingDialog(this).setVisible(true));
+            tabbedPane.addTab("My Appointments", appointmentsOuterPanel);
+            tabbedPane.addTab("My Medical Records", new PatientRecordsPanel());
+            add(tabbedPane, BorderLayout.CENTER);
+        }
+        public void refreshAppointments() { appointmentsView.syncChanges(); }
+    }
+    public static class DoctorDashboardPanel extends JPanel {
+        public DoctorDashboardPanel() {
+            setLayout(new BorderLayout());
+            JTabbedPane tabbedPane = new JTabbedPane();
+            AppointmentsViewPanel appointmentsPanel = new AppointmentsViewPanel();
+            JTable appointmentsTable = appointmentsPanel.getTable();
+            appointmentsTable.addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        int selectedRow = appointmentsTable.getSelectedRow();
+                        if (selectedRow >= 0) {
+                            int appointmentId = (int) appointmentsTable.getModel().getValueAt(selectedRow, 0);
+                            String patientName = (String) appointmentsTable.getModel().getValueAt(selectedRow, 1);
+                            int patientId = (int) appointmentsTable.getModel().getValueAt(selectedRow, 5); // Hidden patient_id column
+                            new PatientHistoryDialog((JFrame) SwingUtilities.getWindowAncestor(DoctorDashboardPanel.this),
+                                    patientId, patientName, appointmentId).setVisible(true);
+                        }
+                    }
+                }
+            });
+            tabbedPane.addTab("My Appointments", appointmentsPanel);
+            tabbedPane.addTab("Search Notes", new NotesSearchPanel());
+            add(tabbedPane, BorderLayout.CENTER);
+        }
+    }
+    public static class AdminDashboardPanel extends JPanel {
+        public AdminDashboardPanel() {
+            setLayout(new BorderLayout());
+            JTabbedPane tabbedPane = new JTabbedPane();
+            JPanel appointmentsOuterPanel = new JPanel(new BorderLayout());
+            AppointmentsViewPanel appointmentsView = new AppointmentsViewPanel();
+            appointmentsOuterPanel.add(new AppointmentFilterBar(appointmentsView), BorderLayout.NORTH);
+            appointmentsOuterPanel.add(appointmentsView, BorderLayout.CENTER);
+            tabbedPane.addTab("Appointments", appointmentsOuterPanel);
+            tabbedPane.addTab("Search Notes", new NotesSearchPanel());
+            tabbedPane.addTab("Analytics", new ClinicAnalyticsPanel());
+            add(tabbedPane, BorderLayout.CENTER);
+        }
+    }
+
+    // Per-doctor utilization and completion, and booking volume by day, week or month, rolled up from the daily
+    // counters of AnalyticsRepository. Reloads when appointments change. Utilization is bookings over the slots of
+    // the days the doctor had any booking, at clinic.analytics.dayHours (default 8) hours a day.
+    public static class ClinicAnalyticsPanel extends JPanel {
+        private static final String[] RANGES = {"Last 7 days", "Last 30 days", "Last 90 days", "Last 365 days", "Next 30 days"};
+        private static final int[] RANGE_DAYS = {-7, -30, -90, -365, 30};
+        private static final String[] ROLLUPS = {"Day", "Week", "Month"};
+        private static final int DAY_HOURS = Integer.getInteger("clinic.analytics.dayHours", 8);
+        private static class Totals { int days, booked, completed, returning; }
+        private static class Result { Vector<Vector<Object>> doctors, periods; Totals total; long millis; }
+
+        private final JComboBox<String> rangeCombo = new JComboBox<>(RANGES);
+        private final JComboBox<String> rollupCombo = new JComboBox<>(ROLLUPS);
+        private final JLabel summaryLabel = new JLabel(" ");
+        private final DefaultTableModel doctorModel = new DefaultTableModel(new String[]{"Doctor", "Specialty", "Days", "Booked", "Completed", "Completion", "Returning", "Utilization"}, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        private final DefaultTableModel periodModel = new DefaultTableModel(new String[]{"Period", "Booked", "Completed", "Completion", "Returning"}, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        private final LatestLoad loader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+        private Runnable unsubscribe;
+
+        public ClinicAnalyticsPanel() {
+            setLayout(new BorderLayout(10, 10));
+            setBorder(new EmptyBorder(10, 10, 10, 10));
+            rangeCombo.setSelectedIndex(1);
+            JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            controls.add(new JLabel("Range:")); controls.add(rangeCombo);
+            controls.add(new JLabel("Group by:")); controls.add(rollupCombo);
+            controls.add(summaryLabel);
+            add(controls, BorderLayout.NORTH);
+            JTable doctorTable = new JTable(doctorModel), periodTable = new JTable(periodModel);
+            doctorTable.setRowHeight(25); periodTable.setRowHeight(25);
+            JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(doctorTable), new JScrollPane(periodTable));
+            split.setResizeWeight(0.4);
+            add(split, BorderLayout.CENTER);
+            rangeCombo.addActionListener(e -> reload());
+            rollupCombo.addActionListener(e -> reload());
+            reload();
+        }
+
+        @Override public void addNotify() {
+            super.addNotify();
+            if (unsubscribe == null) unsubscribe = ChangeBus.subscribe(events -> {
+                if (events.stream().anyMatch(e -> e.kind != ChangeEvent.Kind.REPORT_ADDED)) reload();
+            });
+        }
+        @Override public void removeNotify() {
+            if (unsubscribe != null) { unsubscribe.run(); unsubscribe = null; }
+            super.removeNotify();
+        }
+
+        private void reload() {
+            int days = RANGE_DAYS[rangeCombo.getSelectedIndex()];
+            LocalDate today = LocalDate.now();
+            LocalDate from = days < 0 ? today.plusDays(days + 1) : today, to = days < 0 ? today : today.plusDays(days - 1);
+            String rollup = (String) rollupCombo.getSelectedItem();
+            loader.start(() -> load(from, to, rollup), result -> {
+                replaceRows(doctorModel, result.doctors);
+                replaceRows(periodModel, result.periods);
+                Totals t = result.total;
+                summaryLabel.setText(t.booked + " bookings, " + percent(t.completed, t.booked) + " completed, " + percent(t.returning, t.booked)
+                        + " from returning patients (" + result.millis + " ms)");
+            });
+        }
+
+        private static Result load(LocalDate from, LocalDate to, String rollup) throws SQLException {
+            long started = System.nanoTime();
+            List<DailyStats> rows = Repositories.analytics().dailyStats(from, to);
+            Map<Integer, Totals> byDoctor = new HashMap<>();
+            TreeMap<LocalDate, Totals> byPeriod = new TreeMap<>();
+            Totals total = new Totals();
+            for (DailyStats s : rows) {
+                LocalDate period = "Month".equals(rollup) ? s.day.withDayOfMonth(1) : "Week".equals(rollup) ? s.day.with(DayOfWeek.MONDAY) : s.day;
+                for (Totals t : new Totals[]{byDoctor.computeIfAbsent(s.doctorId, k -> new Totals()), byPeriod.computeIfAbsent(period, k -> new Totals()), total}) {
+                    t.booked += s.booked; t.completed += s.completed; t.returning += s.returning;
+                }
+                if (s.booked > 0) byDoctor.get(s.doctorId).days++;
+            }
+            int perDay = DAY_HOURS * 60 / SlotAvailability.get().getAppointmentMinutes();
+            Result result = new Result();
+            result.doctors = new Vector<>();
+            for (Doctor d : ReferenceData.doctors()) {
+                Totals t = byDoctor.getOrDefault(d.id, new Totals());
+                result.doctors.add(new Vector<>(Arrays.asList(d.name, d.specialty, t.days, t.booked, t.completed, percent(t.completed, t.booked),
+                        percent(t.returning, t.booked), percent(t.booked, t.days * perDay))));
+            }
+            result.periods = new Vector<>();
+            for (Map.Entry<LocalDate, Totals> e : byPeriod.descendingMap().entrySet()) {
+                Totals t = e.getValue();
+                String label = "Month".equals(rollup) ? e.getKey().format(DateTimeFormatter.ofPattern("yyyy-MM")) : "Week".equals(rollup) ? "Week of " + e.getKey() : e.getKey().toString();
+                result.periods.add(new Vector<>(Arrays.asList(label, t.booked, t.completed, percent(t.completed, t.booked), percent(t.returning, t.booked))));
+            }
+            result.total = total;
+            result.millis = (System.nanoTime() - started) / 1_000_000;
+            return result;
+        }
+
+        private static String percent(int part, int whole) { return whole == 0 ? "-" : String.format("%.1f%%", 100.0 * part / whole); }
+    }
+
+    // Ranked search over consultation notes through NotesIndex, as you type. Doctors only get notes of their own
+    // patients and can open a result in the patient history dialog.
+    public static class NotesSearchPanel extends JPanel {
+        private static final int MAX_RESULTS = 50;
+        private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private final AppointmentScope scope = AppointmentScope.forCurrentUser();
+        private final JTextField queryField = new JTextField(30);
+        private final DefaultTableModel resultsModel = new DefaultTableModel(new String[]{"ID", "Date", "Patient", "Doctor", "Notes", "PatientID", "Writable"}, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        private final Timer typingDelay = new Timer(200, e -> search());
+        private final LatestLoad loader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+
+        public NotesSearchPanel() {
+            setLayout(new BorderLayout(10, 10));
+            setBorder(new EmptyBorder(10, 10, 10, 10));
+            JPanel searchBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            searchBar.add(new JLabel("Search notes:")); searchBar.add(queryField);
+            add(searchBar, BorderLayout.NORTH);
+            JTable resultsTable = new JTable(resultsModel);
+            resultsTable.removeColumn(resultsTable.getColumnModel().getColumn(6));
+            resultsTable.removeColumn(resultsTable.getColumnModel().getColumn(5));
+            resultsTable.getColumnModel().getColumn(4).setPreferredWidth(500);
+            resultsTable.setRowHeight(25);
+            add(new JScrollPane(resultsTable), BorderLayout.CENTER);
+            typingDelay.setRepeats(false);
+            queryField.addActionListener(e -> { typingDelay.stop(); search(); });
+            queryField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override public void insertUpdate(DocumentEvent e) { typingDelay.restart(); }
+                @Override public void removeUpdate(DocumentEvent e) { typingDelay.restart(); }
+                @Override public void changedUpdate(DocumentEvent e) { typingDelay.restart(); }
+            });
+            if (SessionManager.hasRole("doctor")) resultsTable.addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent e) {
+                    int row = resultsTable.getSelectedRow();
+                    if (e.getClickCount() != 2 || row < 0) return;
+                    int modelRow = resultsTable.convertRowIndexToModel(row);
+                    new PatientHistoryDialog((JFrame) SwingUtilities.getWindowAncestor(NotesSearchPanel.this), (int) resultsModel.getValueAt(modelRow, 5),
+                            (String) resultsModel.getValueAt(modelRow, 2), (int) resultsModel.getValueAt(modelRow, 0), (boolean) resultsModel.getValueAt(modelRow, 6)).setVisible(true);
+                }
+            });
+            DataExecutor.submit(NotesIndex::get, ignored -> { }, Throwable::printStackTrace); // load the index before the first keystroke
+        }
+
+        private void search() {
+            String query = queryField.getText();
+            User user = SessionManager.getCurrentUser();
+            loader.start(() -> {
+                List<Object[]> rows = new ArrayList<>();
+                for (NotesIndex.Hit hit : NotesIndex.get().search(query, scope, MAX_RESULTS)) {
+                    Appointment a = hit.appointment;
+                    rows.add(new Object[]{a.id, a.dateTime.format(DATE_TIME), a.patientName, a.doctorName, snippet(a.notes, query), a.patientId,
+                            ReferenceData.mayWrite(user, a.doctorId)});
+                }
+                return rows;
+            }, rows -> {
+                resultsModel.setRowCount(0);
+                rows.forEach(resultsModel::addRow);
+            });
+        }
+
+        // Up to ~120 characters of the notes around the first query word found in them.
+        private static String snippet(String notes, String query) {
+            if (notes == null) return "";
+            String flat = notes.replaceAll("\\s+", " "), lower = flat.toLowerCase(Locale.ROOT);
+            int at = -1;
+            for (String term : NotesIndex.tokenize(query)) if ((at = lower.indexOf(term)) >= 0) break;
+            int from = Math.max(0, at - 40), to = Math.min(flat.length(), Math.max(at, 0) + 80);
+            return (from > 0 ? "..." : "") + flat.substring(from, to) + (to < flat.length() ? "..." : "");
+        }
+    }
+
+    // Doctor, status and date filters become SQL predicates on the appointments indexes; the patient box is resolved
+    // to patient ids through PatientNameIndex while typing. Every change reloads the grid from its first page.
+    public static class AppointmentFilterBar extends JPanel {
+        private static final String ALL_DOCTORS = "All doctors", ANY_STATUS = "Any status";
+        private final AppointmentsViewPanel appointmentsView;
+        private final JComboBox<Object> doctorCombo = new JComboBox<>(new Object[]{ALL_DOCTORS});
+        private final JComboBox<String> statusCombo = new JComboBox<>(new String[]{ANY_STATUS, "Scheduled", "Completed", "Cancelled"});
+        private final DatePicker fromPicker = new DatePicker(), toPicker = new DatePicker();
+        private final JTextField patientField = new JTextField(16);
+        private final Timer typingDelay = new Timer(150, e -> applyFilter());
+        private final LatestLoad loader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+        private final ModernButton exportButton = new ModernButton("Export...");
+        private AppointmentFilter appliedFilter;
+        private boolean clearing;
+
+        public AppointmentFilterBar(AppointmentsViewPanel appointmentsView) {
+            super(new FlowLayout(FlowLayout.LEFT, 8, 6));
+            this.appointmentsView = appointmentsView;
+            DataExecutor.submit(ReferenceData::doctors, doctors -> doctors.forEach(doctorCombo::addItem), Throwable::printStackTrace);
+            typingDelay.setRepeats(false);
+            doctorCombo.addActionListener(e -> applyFilter());
+            statusCombo.addActionListener(e -> applyFilter());
+            fromPicker.addDateChangeListener(e -> applyFilter());
+            toPicker.addDateChangeListener(e -> applyFilter());
+            patientField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override public void insertUpdate(DocumentEvent e) { typingDelay.restart(); }
+                @Override public void removeUpdate(DocumentEvent e) { typingDelay.restart(); }
+                @Override public void changedUpdate(DocumentEvent e) { typingDelay.restart(); }
+            });
+            ModernButton clearButton = new ModernButton("Clear");
+            clearButton.addActionListener(e -> clear());
+            exportButton.addActionListener(e -> export());
+            add(new JLabel("Patient:")); add(patientField);
+            add(doctorCombo); add(statusCombo);
+            add(new JLabel("From:")); add(fromPicker);
+            add(new JLabel("To:")); add(toPicker);
+            add(clearButton); add(exportButton);
+        }
+
+        // Writes what the grid currently shows; the file name picks the format (.csv or .jsonl) and gzip (.gz).
+        private void export() {
+            Object[] kinds = {"Appointments", "Medical history"};
+            int kind = JOptionPane.showOptionDialog(this, "Export the appointments matching the current filter as:", "Export",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, kinds, kinds[0]);
+            if (kind < 0) return;
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setSelectedFile(new File(kind == 0 ? "appointments.csv" : "history.jsonl.gz"));
+            if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            Path target = fileChooser.getSelectedFile().toPath();
+            AppointmentScope scope = AppointmentScope.ALL.filtered(appliedFilter);
+            exportButton.setEnabled(false);
+            DataExecutor.submit(() -> ClinicExport.export(scope, kind == 1, ClinicExport.formatFor(target), ClinicExport.gzipFor(target), target), rows -> {
+                exportButton.setEnabled(true);
+                JOptionPane.showMessageDialog(this, "Exported " + rows + " appointments to " + target.getFileName() + ".", "Export", JOptionPane.INFORMATION_MESSAGE);
+            }, error -> {
+                exportButton.setEnabled(true);
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Export failed: " + error.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
+            });
+        }
+
+        private void clear() {
+            clearing = true;
+            try {
+                patientField.setText(""); doctorCombo.setSelectedIndex(0); statusCombo.setSelectedIndex(0);
+                fromPicker.setDate(null); toPicker.setDate(null);
+            } finally { clearing = false; }
+            typingDelay.stop();
+            applyFilter();
+        }
+
+        private void applyFilter() {
+            if (clearing) return;
+            AppointmentFilter filter = new AppointmentFilter();
+            Object doctor = doctorCombo.getSelectedItem();
+            if (doctor instanceof Doctor) filter.doctorId = ((Doctor) doctor).id;
+            if (!ANY_STATUS.equals(statusCombo.getSelectedItem())) filter.status = (String) statusCombo.getSelectedItem();
+            filter.from = fromPicker.getDate(); filter.to = toPicker.getDate();
+            String patient = patientField.getText().trim();
+            loader.start(() -> {
+                if (!patient.isEmpty()) {
+                    filter.patientIds = PatientNameIndex.get().match(patient);
+                    if (filter.patientIds == null) filter.patientNamePrefix = patient; // too many hits to list by id
+                }
+                return filter;
+            }, applied -> { appliedFilter = applied; appointmentsView.applyFilter(applied); });
+        }
+    }
+
+    // ====================== PATIENT RECORDS VIEW ======================
+    public static class PatientRecordsPanel extends JPanel {
+        private final DefaultTableModel recordsTableModel;
+        private final DefaultTableModel reportsTableModel;
+        private int currentPatientId = -1;
+        private JLabel abhaInfoLabel;
+        private final ReportPreviewPanel reportPreview = new ReportPreviewPanel(220);
+        private final LatestLoad loader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+        private final LatestLoad recordsLoader = new LatestLoad(loading -> { }), reportsLoader = new LatestLoad(loading -> { });
+        private Runnable unsubscribe;
+
+
+        public PatientRecordsPanel() {
+            setLayout(new BorderLayout(10, 10));
+            setBorder(new EmptyBorder(10, 10, 10, 10));
+
+            abhaInfoLabel = new JLabel("ABHA ID: Checking...", SwingConstants.LEFT);
+            abhaInfoLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
+            abhaInfoLabel.setBorder(new EmptyBorder(0, 5, 10, 0));
+            add(abhaInfoLabel, BorderLayout.NORTH);
+
+
+            recordsTableModel = new DefaultTableModel(new String[]{"Date", "Doctor", "Notes"}, 0){
+                @Override public boolean isCellEditable(int r, int c) { return false; }
+            };
+            JTable recordsTable = new JTable(recordsTableModel);
+            JScrollPane recordsScrollPane = new JScrollPane(recordsTable);
+            recordsScrollPane.setBorder(new TitledBorder("Medical History"));
+            reportsTableModel = new DefaultTableModel(new String[]{"Uploaded On", "Report Name", "File Path"}, 0){
+                @Override public boolean isCellEditable(int r, int c) { return false; }
+            };
+            JTable reportsTable = new JTable(reportsTableModel);
+            reportsTable.removeColumn(reportsTable.getColumnModel().getColumn(2)); // Hide file path
+
+            JButton viewReportButton = new JButton("View Selected Report");
+            JPanel reportsPanel = new JPanel(new BorderLayout(5, 5));
+            reportsPanel.setBorder(new TitledBorder("Scans & Reports (from ABHA)"));
+            reportsPanel.add(new JScrollPane(reportsTable), BorderLayout.CENTER);
+            reportsPanel.add(viewReportButton, BorderLayout.SOUTH);
+            reportsPanel.add(reportPreview, BorderLayout.EAST);
+            reportsTable.getSelectionModel().addListSelectionListener(e -> {
+                if (e.getValueIsAdjusting()) return;
+                int selectedRow = reportsTable.getSelectedRow();
+                reportPreview.showReport(selectedRow >= 0 ? (String) reportsTableModel.getValueAt(selectedRow, 2) : null);
+            });
+            JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, recordsScrollPane, reportsPanel);
+            splitPane.setResizeWeight(0.6);
+            add(splitPane, BorderLayout.CENTER);
+            viewReportButton.addActionListener(e -> {
+                int selectedRow = reportsTable.getSelectedRow();
+                if (selectedRow >= 0) {
+                    // Correctly get file path from the hidden column in the model
+                    String filePath = (String) reportsTableModel.getValueAt(selectedRow, 2);
+                    DataExecutor.submit(() -> ReportStore.get().fetch(filePath), file -> {
+                        try {
+                            Desktop.getDesktop().open(file.toFile());
+                        } catch (IOException ex) {
+                            JOptionPane.showMessageDialog(this, "Could not open file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }, ex -> JOptionPane.showMessageDialog(this, "Could not open file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+                } else {
+                    JOptionPane.showMessageDialog(this, "Please select a report to view.", "No Selection", JOptionPane.WARNING_MESSAGE);
+                }
+            });
+            loadPatientData();
+        }
+
+        private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+        private static class PatientRecords {
+            int patientId; String abhaId;
+            Vector<Vector<Object>> records, reports;
+        }
+
+        private void loadPatientData() {
+            final int userId = SessionManager.getCurrentUser().id;
+            LoginPrefetch prefetch = SessionManager.getPrefetch();
+            loader.start(prefetch != null && prefetch.claim("records") ? prefetch.patient.thenCombine(prefetch.records, (patient, records) -> {
+                if (patient == null) return null;
+                PatientRecords data = new PatientRecords();
+                data.patientId = patient.id; data.abhaId = patient.abhaId; data.records = records;
+                return data;
+            }).thenCombine(prefetch.reports, (data, reports) -> {
+                if (data != null) data.reports = reports;
+                return data;
+            }) : DataExecutor.supply(() -> {
+                Patient patient = ReferenceData.patientForUser(userId);
+                if (patient == null) return null;
+                PatientRecords data = new PatientRecords();
+                data.patientId = patient.id;
+                data.abhaId = patient.abhaId;
+                data.records = loadRecords(data.patientId);
+                data.reports = loadReports(data.patientId);
+                return data;
+            }), data -> {
+                if (data == null) return;
+                this.currentPatientId = data.patientId;
+                if(data.abhaId != null && !data.abhaId.isEmpty()){
+                   abhaInfoLabel.setText("Linked ABHA ID: " + data.abhaId);
+                } else {
+                   abhaInfoLabel.setText("ABHA ID: Not Linked");
+                }
+                replaceRows(recordsTableModel, data.records);
+                replaceRows(reportsTableModel, data.reports);
+                reportPreview.prefetch(ReportPreviewPanel.paths(data.reports, 2));
+            });
+        }
+
+        // Reloads only the table a change touches: appointment events the history, report events the reports.
+        @Override public void addNotify() {
+            super.addNotify();
+            if (unsubscribe == null) unsubscribe = ChangeBus.subscribe(this::applyChanges);
+        }
+        @Override public void removeNotify() {
+            if (unsubscribe != null) { unsubscribe.run(); unsubscribe = null; }
+            super.removeNotify();
+        }
+
+        private void applyChanges(List<ChangeEvent> events) {
+            final int patientId = currentPatientId;
+            boolean records = false, reports = false;
+            for (ChangeEvent e : events) {
+                if (e.patientId != patientId) continue;
+                if (e.kind == ChangeEvent.Kind.REPORT_ADDED) reports = true; else records = true;
+            }
+            if (records) recordsLoader.start(() -> loadRecords(patientId), rows -> replaceRows(recordsTableModel, rows));
+            if (reports) reportsLoader.start(() -> loadReports(patientId), rows -> {
+                replaceRows(reportsTableModel, rows);
+                reportPreview.prefetch(ReportPreviewPanel.paths(rows, 2));
+            });
+        }
+
+        private static Vector<Vector<Object>> loadRecords(int patientId) throws SQLException {
+            Vector<Vector<Object>> rows = new Vector<>();
+            for (Appointment a : Repositories.appointments().forPatient(patientId)) {
+                Vector<Object> row = new Vector<>();
+                row.add(a.dateTime.format(DATE_TIME));
+                row.add(a.doctorName);
+                row.add(a.notes);
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        private static Vector<Vector<Object>> loadReports(int patientId) throws SQLException {
+            Vector<Vector<Object>> rows = new Vector<>();
+            for (MedicalReport r : Repositories.reports().reportsForPatient(patientId)) {
+                Vector<Object> row = new Vector<>();
+                row.add(r.uploadedAt.format(DATE));
+                row.add("[ABHA] " + r.reportName); // Add ABHA prefix
+                row.add(r.filePath); // Hidden column
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+
+    // ====================== APPOINTMENTS VIEW ======================
+    public static class AppointmentsViewPanel extends JPanel {
+        private final AppointmentScope baseScope = AppointmentScope.forCurrentUser();
+        private final PagedAppointmentTableModel tableModel;
+        private final JTable table;
+        private final JLabel statusLabel = new JLabel("Loading appointments...", SwingConstants.CENTER);
+        private Runnable unsubscribe;
+
+        public AppointmentsViewPanel() {
+            setLayout(new BorderLayout());
+            LoginPrefetch prefetch = SessionManager.getPrefetch();
+            PagedAppointmentTableModel prefetched = prefetch != null ? prefetch.claimAppointments() : null;
+            tableModel = prefetched != null ? prefetched : new PagedAppointmentTableModel(baseScope);
+            table = new JTable(tableModel);
+            table.removeColumn(table.getColumnModel().getColumn(6));
+            table.removeColumn(table.getColumnModel().getColumn(5));
+            table.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+            table.setRowHeight(25);
+            table.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 15));
+            add(new JScrollPane(table), BorderLayout.CENTER);
+            statusLabel.setVisible(false);
+            add(statusLabel, BorderLayout.SOUTH);
+            tableModel.setLoadingIndicator(statusLabel::setVisible);
+            if (prefetched != null) tableModel.show(prefetch.firstPage, prefetch::firstScreenShown);
+            else refreshData();
+        }
+        public JTable getTable() { return table; }
+
+        public void refreshData() { tableModel.refresh(); }
+        public void syncChanges() { tableModel.sync(); }
+        void applyFilter(AppointmentFilter filter) { tableModel.setScope(baseScope.filtered(filter)); }
+
+        // While shown, appointment changes from any session are pulled in through sync(), which only fetches the changed rows.
+        @Override public void addNotify() {
+            super.addNotify();
+            if (unsubscribe == null) unsubscribe = ChangeBus.subscribe(events -> { if (events.stream().anyMatch(this::affects)) syncChanges(); });
+        }
+        @Override public void removeNotify() {
+            if (unsubscribe != null) { unsubscribe.run(); unsubscribe = null; }
+            super.removeNotify();
+        }
+
+        private boolean affects(ChangeEvent e) {
+            if (e.kind == ChangeEvent.Kind.REPORT_ADDED) return false;
+            if (baseScope.kind == AppointmentScope.Kind.PATIENT) { Patient p = SessionManager.getPatient(); return p == null || p.id == e.patientId; }
+            if (baseScope.kind == AppointmentScope.Kind.DOCTOR) { Doctor d = SessionManager.getDoctor(); return d == null || d.id == e.doctorId; }
+            return true;
+        }
+    }
+
+    // ====================== PAGED APPOINTMENTS MODEL ======================
+    // Fetches fixed-size pages on demand using keyset pagination on (appointment_datetime, id). Only pages near
+    // the rows the JTable actually asks for are kept; pages far from the current view are evicted.
+    // Pages are columnar: primitive arrays, names and statuses as dictionary codes, times as epoch millis that are
+    // formatted only when a cell is rendered. Notes are not part of the grid queries and are fetched per row on demand.
+    public static class PagedAppointmentTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"ID", "Patient", "Doctor", "Date & Time", "Status", "PatientID", "Notes"};
+        private static final int NOTES_COLUMN = 6;
+        private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private static final Dictionary STATUSES = new Dictionary("Scheduled", "Completed", "Cancelled");
+        private static final int MAX_GAPS = 10_000;
+
+        // Appointment times are wall-clock values; they are stored as if they were UTC so no zone rules apply.
+        private static long epochMillis(LocalDateTime time) { return time.toInstant(ZoneOffset.UTC).toEpochMilli(); }
+        private static LocalDateTime localTime(long epochMillis) {
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000), Math.floorMod(epochMillis, 1000) * 1_000_000, ZoneOffset.UTC);
+        }
+
+        private static class Key {
+            final long time; final int id;
+            Key(long time, int id) { this.time = time; this.id = id; }
+            // Negative when this row is listed before the other one (newest first).
+            int compareTo(Key other) { return compare(time, id, other.time, other.id); }
+            static int compare(long time, int id, long otherTime, int otherId) {
+                int c = Long.compare(otherTime, time);
+                return c != 0 ? c : Integer.compare(otherId, id);
+            }
+        }
+
+        // Interns repeated strings as int codes. Pages are encoded on background threads and decoded on the EDT.
+        private static class Dictionary {
+            private final Map<String, Integer> codes = new HashMap<>();
+            private String[] values = new String[64];
+            Dictionary(String... initial) { for (String value : initial) encode(value); }
+            synchronized int encode(String value) {
+                if (value == null) return -1;
+                Integer code = codes.get(value);
+                if (code != null) return code;
+                int next = codes.size();
+                if (next == values.length) values = Arrays.copyOf(values, next * 2);
+                values[next] = value; codes.put(value, next);
+                return next;
+            }
+            synchronized String decode(int code) { return code < 0 ? null : values[code]; }
+        }
+
+        private static class Page {
+            int size;
+            final int[] ids, patientIds, patientNames, doctorNames; final long[] times; final byte[] statuses;
+            Page(int capacity) {
+                ids = new int[capacity]; patientIds = new int[capacity]; patientNames = new int[capacity]; doctorNames = new int[capacity];
+                times = new long[capacity]; statuses = new byte[capacity];
+            }
+            Key key(int i) { return new Key(times[i], ids[i]); }
+            Key lastKey() { return size == 0 ? null : key(size - 1); }
+            int indexOf(int id) {
+                for (int i = 0; i < size; i++) if (ids[i] == id) return i;
+                return -1;
+            }
+            void set(int i, Appointment a, Dictionary names) {
+                ids[i] = a.id; patientIds[i] = a.patientId; times[i] = epochMillis(a.dateTime);
+                patientNames[i] = names.encode(a.patientName); doctorNames[i] = names.encode(a.doctorName); statuses[i] = (byte) STATUSES.encode(a.status);
+            }
+            void append(Appointment a, Dictionary names) { set(size++, a, names); }
+            // Opens a gap at pos; when the page is full its last row falls off.
+            void insertAt(int pos) {
+                int moved = Math.min(size, ids.length - 1) - pos;
+                if (moved > 0) {
+                    System.arraycopy(ids, pos, ids, pos + 1, moved); System.arraycopy(patientIds, pos, patientIds, pos + 1, moved);
+                    System.arraycopy(patientNames, pos, patientNames, pos + 1, moved); System.arraycopy(doctorNames, pos, doctorNames, pos + 1, moved);
+                    System.arraycopy(times, pos, times, pos + 1, moved); System.arraycopy(statuses, pos, statuses, pos + 1, moved);
+                }
+                if (size < ids.length) size++;
+            }
+        }
+        private static class Snapshot {
+            int rowCount, maxId; Timestamp syncedAt; Page firstPage;
+        }
+        private static class Changes {
+            final List<Appointment> rows = new ArrayList<>();
+            Timestamp syncedAt;
+        }
+
+        private volatile AppointmentScope scope;
+        private final int pageSize = Integer.getInteger("clinic.grid.pageSize", 200);
+        private final int maxCachedPages = Integer.getInteger("clinic.grid.maxPages", 64);
+        private final Dictionary names = new Dictionary(); // patient and doctor names seen by this view
+        private final Map<Integer, Page> pages = new HashMap<>();
+        private final Map<Integer, Key> pageStartKeys = new HashMap<>(); // key of the row just before each page start
+        private final Set<Integer> pending = new HashSet<>();
+        private final Map<Integer, String> notes = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) { return size() > 256; }
+        };
+        private final Set<Integer> pendingNotes = new HashSet<>();
+        private int rowCount, generation, lastRequestedPage;
+        private boolean refreshing, syncing, syncAgain; // syncAgain: a sync was asked for while another load was running
+        // High-water marks for sync(): the largest appointment id seen and the database time of the last read. Ids are
+        // assigned at insert and updated_at is stamped by the statement, but both only become visible at commit, so
+        // ids skipped below highWaterId are kept as gaps (id -> when first missed) and every sync re-reads from the
+        // lowest gap and from highWaterTime minus clinic.changes.gapMillis, the same window ChangeBus waits for its gaps.
+        private int highWaterId;
+        private Timestamp highWaterTime;
+        private final TreeMap<Integer, Long> gaps = new TreeMap<>();
+        private Consumer<Boolean> loadingIndicator = loading -> { };
+
+        PagedAppointmentTableModel(AppointmentScope scope) { this.scope = scope; }
+
+        void setLoadingIndicator(Consumer<Boolean> loadingIndicator) { this.loadingIndicator = loadingIndicator; }
+
+        // Switches to another scope (e.g. a filtered one) and reloads; results still in flight for the old scope are dropped.
+        void setScope(AppointmentScope scope) {
+            this.scope = scope;
+            refresh();
+        }
+
+        @Override public int getRowCount() { return rowCount; }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int column) { return COLUMNS[column]; }
+        @Override public boolean isCellEditable(int r, int c) { return false; }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            int pageIndex = row / pageSize, offset = row % pageSize;
+            Page page = pages.get(pageIndex);
+            if (page == null) { requestPage(pageIndex); return null; }
+            if (offset > pageSize * 3 / 4) requestPage(pageIndex + 1);
+            else if (offset < pageSize / 4) requestPage(pageIndex - 1);
+            if (offset >= page.size) return null;
+            switch (column) {
+                case 0: return page.ids[offset];
+                case 1: return names.decode(page.patientNames[offset]);
+                case 2: return names.decode(page.doctorNames[offset]);
+                case 3: return localTime(page.times[offset]).format(DATE_TIME);
+                case 4: return STATUSES.decode(page.statuses[offset]);
+                case 5: return page.patientIds[offset];
+                default: return notes(page.ids[offset]);
+            }
+        }
+
+        private String notes(int appointmentId) {
+            if (notes.containsKey(appointmentId)) return notes.get(appointmentId);
+            if (!pendingNotes.add(appointmentId)) return null;
+            DataExecutor.submit(() -> {
+                Appointment appointment = Repositories.appointments().findById(appointmentId);
+                return appointment != null ? appointment.notes : null;
+            }, loaded -> {
+                pendingNotes.remove(appointmentId);
+                notes.put(appointmentId, loaded);
+                int row = rowOf(appointmentId);
+                if (row >= 0) fireTableCellUpdated(row, NOTES_COLUMN);
+            }, error -> {
+                pendingNotes.remove(appointmentId);
+                error.printStackTrace();
+            });
+            return null;
+        }
+
+        private int rowOf(int appointmentId) {
+            for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+                int i = entry.getValue().indexOf(appointmentId);
+                if (i >= 0) return entry.getKey() * pageSize + i;
+            }
+            return -1;
+        }
+
+        // Re-counts the scope and reloads the first page; cached pages are swapped out in one step once both arrive.
+        public void refresh() { show(DataExecutor.supply(this::loadSnapshot), null); }
+
+        // Shows a snapshot that is already being loaded (see LoginPrefetch); onShown runs once its rows are in the table.
+        void show(CompletableFuture<Snapshot> load, Runnable onShown) {
+            final int gen = ++generation;
+            refreshing = true;
+            loadingIndicator.accept(true);
+            DataExecutor.whenDone(load, snapshot -> {
+                if (gen != generation) return;
+                pages.clear(); pageStartKeys.clear(); pending.clear(); notes.clear();
+                rowCount = snapshot.rowCount;
+                highWaterId = snapshot.maxId;
+                highWaterTime = snapshot.syncedAt;
+                gaps.clear();
+                storePage(0, snapshot.firstPage);
+                refreshing = false;
+                loadingIndicator.accept(false);
+                fireTableDataChanged();
+                if (onShown != null) onShown.run();
+                if (syncAgain) sync();
+            }, error -> {
+                if (gen != generation) return;
+                refreshing = false;
+                loadingIndicator.accept(false);
+                error.printStackTrace();
+            });
+        }
+
+        // The background half of refresh(); safe to call from any thread.
+        Snapshot loadSnapshot() throws SQLException {
+            AppointmentRepository appointments = Repositories.appointments();
+            Snapshot snapshot = new Snapshot();
+            snapshot.syncedAt = appointments.currentTime();
+            int[] countAndMaxId = appointments.countAndMaxId(scope);
+            snapshot.rowCount = countAndMaxId[0]; snapshot.maxId = countAndMaxId[1];
+            snapshot.firstPage = fetchPage(null);
+            return snapshot;
+        }
+
+        // Fetches only appointments inserted or modified since the last refresh/sync and patches them into the
+        // cached pages, instead of re-counting and reloading the view.
+        public void sync() {
+            if (refreshing || syncing) { syncAgain = true; return; }
+            syncAgain = false;
+            if (highWaterTime == null) { refresh(); return; }
+            final int gen = generation, sinceId = gaps.isEmpty() ? highWaterId : gaps.firstKey() - 1;
+            final Timestamp since = new Timestamp(highWaterTime.getTime() - ChangeBus.GAP_MILLIS);
+            syncing = true;
+            DataExecutor.submit(() -> fetchChanges(sinceId, since), changes -> {
+                syncing = false;
+                if (gen == generation) applyChanges(changes);
+                if (syncAgain) sync();
+            }, error -> {
+                syncing = false;
+                error.printStackTrace();
+            });
+        }
+
+        // Rows are re-read while they are inside the window; only ids above highWaterId or in a gap are new.
+        private void applyChanges(Changes changes) {
+            boolean inserted = false;
+            long now = System.currentTimeMillis();
+            for (Appointment a : changes.rows) {
+                if (a.id > highWaterId) {
+                    for (int missing = Math.max(highWaterId + 1, a.id - MAX_GAPS); missing < a.id; missing++) gaps.put(missing, now);
+                    highWaterId = a.id;
+                } else if (gaps.remove(a.id) == null) { updateRow(a); continue; }
+                insertRow(a); inserted = true;
+            }
+            gaps.values().removeIf(missedAt -> now - missedAt > ChangeBus.GAP_MILLIS);
+            while (gaps.size() > MAX_GAPS) gaps.pollFirstEntry();
+            highWaterTime = changes.syncedAt;
+            if (inserted) { generation++; pending.clear(); } // page loads in flight were computed before the inserts
+        }
+
+        private void updateRow(Appointment a) {
+            notes.remove(a.id);
+            for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+                Page page = entry.getValue();
+                int i = page.indexOf(a.id);
+                if (i >= 0) {
+                    page.set(i, a, names);
+                    int index = entry.getKey() * pageSize + i;
+                    fireTableRowsUpdated(index, index);
+                    return;
+                }
+            }
+        }
+
+        // Rows before the insertion point keep their positions; the page it lands in is patched and the
+        // pages after it (whose rows all shift by one) are dropped and reloaded lazily.
+        private void insertRow(Appointment a) {
+            rowCount++;
+            Key key = new Key(epochMillis(a.dateTime), a.id);
+            int target = -1;
+            for (int k : new TreeSet<>(pages.keySet())) {
+                Page page = pages.get(k);
+                if (page.size < pageSize || key.compareTo(page.lastKey()) < 0) { target = k; break; }
+            }
+            Key targetStart = target > 0 ? pageStartKeys.get(target) : null;
+            final boolean placed = target == 0 || (targetStart != null && key.compareTo(targetStart) > 0);
+            final int firstStale = target < 0 ? Integer.MAX_VALUE : placed ? target + 1 : target;
+            pages.keySet().removeIf(k -> k >= firstStale);
+            pageStartKeys.entrySet().removeIf(e -> key.compareTo(e.getValue()) < 0);
+            if (!placed) { fireTableDataChanged(); return; }
+
+            Page page = pages.get(target);
+            int pos = 0;
+            while (pos < page.size && Key.compare(page.times[pos], page.ids[pos], key.time, key.id) < 0) pos++;
+            page.insertAt(pos);
+            page.set(pos, a, names);
+            if (page.size == pageSize) pageStartKeys.put(target + 1, page.lastKey());
+            int index = target * pageSize + pos;
+            fireTableRowsInserted(index, index);
+        }
+
+        private void requestPage(int pageIndex) {
+            if (pageIndex < 0 || (long) pageIndex * pageSize >= rowCount || pages.containsKey(pageIndex) || !pending.add(pageIndex)) return;
+            lastRequestedPage = pageIndex;
+            final int gen = generation;
+            final Key startKey = pageStartKeys.get(pageIndex);
+            DataExecutor.submit(() -> {
+                Key key = startKey;
+                if (key == null && pageIndex > 0) { // jumping to a page whose start is unknown
+                    Appointment previous = Repositories.appointments().at(scope, pageIndex * pageSize - 1);
+                    if (previous != null) key = new Key(epochMillis(previous.dateTime), previous.id);
+                }
+                return fetchPage(key);
+            }, page -> {
+                if (gen != generation) return;
+                pending.remove(pageIndex);
+                storePage(pageIndex, page);
+                int first = pageIndex * pageSize, last = Math.min(rowCount, first + pageSize) - 1;
+                if (last >= first) fireTableRowsUpdated(first, last);
+            }, error -> {
+                if (gen != generation) return;
+                pending.remove(pageIndex);
+                error.printStackTrace();
+            });
+        }
+
+        private void storePage(int pageIndex, Page page) {
+            pages.put(pageIndex, page);
+            if (page.size == pageSize) pageStartKeys.put(pageIndex + 1, page.lastKey());
+            while (pages.size() > maxCachedPages) {
+                int farthest = pageIndex;
+                for (int p : pages.keySet()) if (Math.abs(p - lastRequestedPage) > Math.abs(farthest - lastRequestedPage)) farthest = p;
+                if (farthest == pageIndex) break;
+                pages.remove(farthest);
+            }
+        }
+
+        private Page fetchPage(Key after) throws SQLException {
+            List<Appointment> appointments = Repositories.appointments().page(scope, after != null ? localTime(after.time) : null, after != null ? after.id : 0, pageSize);
+            Page page = new Page(pageSize);
+            for (Appointment a : appointments) page.append(a, names);
+            return page;
+        }
+
+        private Changes fetchChanges(int sinceId, Timestamp since) throws SQLException {
+            AppointmentRepository appointments = Repositories.appointments();
+            Changes changes = new Changes();
+            changes.syncedAt = appointments.currentTime();
+            changes.rows.addAll(appointments.changedSince(scope, sinceId, since));
+            return changes;
+        }
+    }
+
+    // ====================== BOOKING DIALOG ======================
+    public static class AppointmentBookingDialog extends JDialog {
+        private final PatientDashboardPanel parentPanel;
+        public AppointmentBookingDialog(PatientDashboardPanel parent) {
+            this.parentPanel = parent; setTitle("Book an Appointment"); setModal(true);
+            setSize(500, 300); setLocationRelativeTo(parent); setLayout(new GridBagLayout());
+            GridBagConstraints gbc = new GridBagConstraints(); gbc.insets = new Insets(10, 10, 10, 10);
+            gbc.fill = GridBagConstraints.HORIZONTAL; final JComboBox<Doctor> doctorCombo = new JComboBox<>();
+            final DatePicker datePicker = new DatePicker(); final TimePicker timePicker = new TimePicker();
+            gbc.gridx = 0; gbc.gridy = 0; add(new JLabel("Select Doctor:"), gbc);
+            gbc.gridx = 1; gbc.weightx = 1.0; add(doctorCombo, gbc);
+            gbc.gridx = 0; gbc.gridy = 1; add(new JLabel("Select Date:"), gbc);
+            gbc.gridx = 1; add(datePicker, gbc);
+            gbc.gridx = 0; gbc.gridy = 2; add(new JLabel("Select Time:"), gbc);
+            gbc.gridx = 1; add(timePicker, gbc);
+            ModernButton bookButton = new ModernButton("Book"); gbc.gridx = 1; gbc.gridy = 3; add(bookButton, gbc);
+            ReferenceData.fillDoctorCombo(doctorCombo);
+            bookButton.addActionListener(e -> {
+                Doctor selectedDoctor = (Doctor) doctorCombo.getSelectedItem();
+                LocalDate selectedDate = datePicker.getDate(); LocalTime selectedTime = timePicker.getTime();
+                if (selectedDoctor == null || selectedDate == null || selectedTime == null) {
+                    JOptionPane.showMessageDialog(this, "All fields are required.", "Error", JOptionPane.ERROR_MESSAGE); return;
+                }
+                LocalDateTime appointmentDateTime = LocalDateTime.of(selectedDate, selectedTime);
+                final int userId = SessionManager.getCurrentUser().id;
+                bookButton.setEnabled(false);
+                setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                DataExecutor.submit(() -> bookAppointment(userId, selectedDoctor.id, appointmentDateTime), result -> {
+                    bookButton.setEnabled(true); setCursor(null);
+                    if (result == BookingResult.NO_PROFILE) { JOptionPane.showMessageDialog(this, "Could not find patient profile.", "Error", JOptionPane.ERROR_MESSAGE); return; }
+                    if (result == BookingResult.SLOT_TAKEN) { showSlotTaken(selectedDoctor.id, appointmentDateTime); return; }
+                    JOptionPane.showMessageDialog(this, "Appointment booked successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    parentPanel.refreshAppointments(); dispose();
+                }, ex -> {
+                    bookButton.setEnabled(true); setCursor(null);
+                    JOptionPane.showMessageDialog(this, "Booking failed: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+                });
+            });
+        }
+        private void showSlotTaken(int doctorId, LocalDateTime requested) {
+            DataExecutor.submit(() -> SlotAvailability.get().nextFreeSlot(doctorId, requested), next -> {
+                String message = "The doctor already has an appointment at that time.";
+                if (next != null) message += "\nNext free slot that day: " + next;
+                JOptionPane.showMessageDialog(this, message, "Slot Unavailable", JOptionPane.WARNING_MESSAGE);
+            }, Throwable::printStackTrace);
+        }
+        enum BookingResult { BOOKED, NO_PROFILE, SLOT_TAKEN }
+        private static BookingResult bookAppointment(int userId, int doctorId, LocalDateTime appointmentDateTime) throws SQLException {
+            Patient patient = SessionManager.getPatient();
+            if (patient == null || patient.userId != userId) patient = ReferenceData.patientForUser(userId);
+            if (patient == null) return BookingResult.NO_PROFILE;
+            return insertAppointment(patient.id, doctorId, appointmentDateTime);
+        }
+        // Claims the slot in memory first, then lets the repository re-check and insert it for other terminals.
+        private static BookingResult insertAppointment(int patientId, int doctorId, LocalDateTime appointmentDateTime) throws SQLException {
+            SlotAvailability availability = SlotAvailability.get();
+            if (!availability.tryReserve(doctorId, appointmentDateTime)) return BookingResult.SLOT_TAKEN;
+            boolean keepReservation = false;
+            try {
+                if (!Repositories.appointments().insertIfFree(patientId, doctorId, appointmentDateTime, availability.getAppointmentMinutes())) {
+                    keepReservation = true; // booked from another terminal since the day was cached
+                    availability.invalidate(doctorId, appointmentDateTime.toLocalDate());
+                    return BookingResult.SLOT_TAKEN;
+                }
+                keepReservation = true;
+                return BookingResult.BOOKED;
+            } finally {
+                if (!keepReservation) availability.release(doctorId, appointmentDateTime);
+            }
+        }
+    }
+
+    // ====================== SLOT AVAILABILITY ======================
+    // Per-doctor, per-day bitmap of 5-minute slots (288 bits in five longs). Days are loaded from the appointment
+    // repository on first use; reservations flip the bits of every slot an appointment covers under a striped lock.
+    private static class SlotAvailability {
+        static final int SLOT_MINUTES = 5;
+        static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+        private static final SlotAvailability INSTANCE = new SlotAvailability(Integer.getInteger("clinic.appointment.minutes", 15), (doctorId, day) -> Repositories.appointments().bookedStarts(doctorId, day));
+
+        interface DayLoader { List<LocalDateTime> bookedStarts(int doctorId, LocalDate day) throws SQLException; }
+
+        private final int slotsPerAppointment;
+        private final DayLoader loader;
+        private final ConcurrentHashMap<Long, long[]> days = new ConcurrentHashMap<>();
+        private final Object[] stripes = new Object[64];
+
+        SlotAvailability(int appointmentMinutes, DayLoader loader) {
+            this.slotsPerAppointment = Math.max(1, (appointmentMinutes + SLOT_MINUTES - 1) / SLOT_MINUTES);
+            this.loader = loader;
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+        }
+
+        static SlotAvailability get() { return INSTANCE; }
+        int getAppointmentMinutes() { return slotsPerAppointment * SLOT_MINUTES; }
+
+        private static long key(int doctorId, LocalDate day) { return ((long) doctorId << 32) | (day.toEpochDay() & 0xffffffffL); }
+        private Object stripe(long key) { return stripes[(int) (key ^ (key >>> 32)) & (stripes.length - 1)]; }
+        private static int slotOf(LocalTime time) { return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES; }
+
+        private long[] day(int doctorId, LocalDate day) throws SQLException {
+            long key = key(doctorId, day);
+            long[] bits = days.get(key);
+            if (bits != null) return bits;
+            long[] loaded = new long[(SLOTS_PER_DAY + 63) / 64];
+            for (LocalDateTime start : loader.bookedStarts(doctorId, day)) mark(loaded, slotOf(start.toLocalTime()), true);
+            bits = days.putIfAbsent(key, loaded);
+            return bits != null ? bits : loaded;
+        }
+
+        private boolean isFree(long[] bits, int firstSlot) {
+            int end = Math.min(SLOTS_PER_DAY, firstSlot + slotsPerAppointment);
+            for (int s = firstSlot; s < end; s++) if ((bits[s >>> 6] & (1L << s)) != 0) return false;
+            return true;
+        }
+
+        private void mark(long[] bits, int firstSlot, boolean booked) {
+            int end = Math.min(SLOTS_PER_DAY, firstSlot + slotsPerAppointment);
+            for (int s = firstSlot; s < end; s++) {
+                if (booked) bits[s >>> 6] |= 1L << s; else bits[s >>> 6] &= ~(1L << s);
+            }
+        }
+
+        // Atomically claims the slots for an appointment; false if any of them is already taken.
+        boolean tryReserve(int doctorId, LocalDateTime start) throws SQLException {
+            long[] bits = day(doctorId, start.toLocalDate());
+            int slot = slotOf(start.toLocalTime());
+            synchronized (stripe(key(doctorId, start.toLocalDate()))) {
+                if (!isFree(bits, slot)) return false;
+                mark(bits, slot, true);
+                return true;
+            }
+        }
+
+        void release(int doctorId, LocalDateTime start) {
+            long[] bits = days.get(key(doctorId, start.toLocalDate()));
+            if (bits == null) return;
+            synchronized (stripe(key(doctorId, start.toLocalDate()))) { mark(bits, slotOf(start.toLocalTime()), false); }
+        }
+
+        // Drops a cached day so it is reloaded from the database on next use.
+        void invalidate(int doctorId, LocalDate day) { days.remove(key(doctorId, day)); }
+
+        List<LocalTime> freeSlots(int doctorId, LocalDate day) throws SQLException {
+            long[] bits = day(doctorId, day);
+            List<LocalTime> free = new ArrayList<>();
+            synchronized (stripe(key(doctorId, day))) {
+                for (int s = 0; s + slotsPerAppointment <= SLOTS_PER_DAY; s++)
+                    if (isFree(bits, s)) free.add(LocalTime.of(s * SLOT_MINUTES / 60, s * SLOT_MINUTES % 60));
+            }
+            return free;
+        }
+
+        LocalTime nextFreeSlot(int doctorId, LocalDateTime from) throws SQLException {
+            int first = slotOf(from.toLocalTime());
+            for (LocalTime t : freeSlots(doctorId, from.toLocalDate())) if (slotOf(t) >= first) return t;
+            return null;
+        }
+    }
+
+    // ====================== PATIENT HISTORY DIALOG (FOR DOCTOR) ======================
+    public static class PatientHistoryDialog extends JDialog {
+        private final int patientId;
+        private final int appointmentId;
+        private final boolean editable; // false: another doctor's appointment, opened from the notes search
+        private final JTextArea notesArea;
+        private final DefaultTableModel reportsTableModel;
+        private DefaultTableModel historyModel;
+        private final ReportPreviewPanel reportPreview = new ReportPreviewPanel(160);
+        private final LatestLoad chartLoader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+        private final LatestLoad reportsLoader = new LatestLoad(loading -> setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null));
+
+        public PatientHistoryDialog(JFrame owner, int patientId, String patientName, int appointmentId) {
+            this(owner, patientId, patientName, appointmentId, true);
+        }
+
+        public PatientHistoryDialog(JFrame owner, int patientId, String patientName, int appointmentId, boolean editable) {
+            super(owner, "Medical File: " + patientName + (editable ? "" : " (read only)"), true);
+            this.patientId = patientId;
+            this.appointmentId = appointmentId;
+            this.editable = editable;
+            setSize(800, 600); setLocationRelativeTo(owner);
+            setLayout(new BorderLayout(10, 10));
+            JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
+            splitPane.setResizeWeight(0.5);
+            JPanel topPanel = new JPanel(new GridLayout(1, 2, 10, 10));
+            notesArea = new JTextArea(10, 30);
+            JPanel notesPanel = new JPanel(new BorderLayout());
+            notesPanel.setBorder(new TitledBorder("Diagnosis & Prescription Notes"));
+            notesPanel.add(new JScrollPane(notesArea), BorderLayout.CENTER);
+            topPanel.add(notesPanel);
+            topPanel.add(createReportsPanel());
+            splitPane.setTopComponent(topPanel);
+            splitPane.setBottomComponent(createHistoryPanel());
+            add(splitPane, BorderLayout.CENTER);
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            ModernButton saveButton = new ModernButton("Save Changes");
+            ModernButton closeButton = new ModernButton("Close");
+            if (editable) buttonPanel.add(saveButton);
+            buttonPanel.add(closeButton);
+            add(buttonPanel, BorderLayout.SOUTH);
+            closeButton.addActionListener(e -> dispose());
+            saveButton.addActionListener(e -> saveChanges());
+            reportsTableModel = (DefaultTableModel)((JTable)((JScrollPane)((JPanel)topPanel.getComponent(1)).getComponent(0)).getViewport().getView()).getModel();
+            notesArea.setEnabled(false);
+            saveButton.setEnabled(false);
+            loadChart(saveButton);
+        }
+
+        private static class ChartData {
+            Vector<Vector<Object>> history, reports;
+            String notes;
+        }
+
+        private void loadChart(JButton saveButton) {
+            chartLoader.start(() -> chartData(PatientCharts.get(patientId), appointmentId), data -> {
+                replaceRows(historyModel, data.history);
+                notesArea.setText(data.notes);
+                replaceRows(reportsTableModel, data.reports);
+                reportPreview.prefetch(ReportPreviewPanel.paths(data.reports, 2));
+                notesArea.setEnabled(true);
+                notesArea.setEditable(editable);
+                saveButton.setEnabled(editable);
+            });
+        }
+
+        private JPanel createReportsPanel() {
+            JPanel panel = new JPanel(new BorderLayout(5, 5));
+            panel.setBorder(new TitledBorder("Uploaded Reports"));
+            DefaultTableModel model = new DefaultTableModel(new String[]{"Date", "Name", "File Path"}, 0){
+                @Override public boolean isCellEditable(int r, int c) { return false; }
+            };
+            JTable reportsTable = new JTable(model);
+            reportsTable.removeColumn(reportsTable.getColumnModel().getColumn(2)); // Hide file path
+            panel.add(new JScrollPane(reportsTable), BorderLayout.CENTER);
+            JButton uploadButton = new JButton("Upload New Report");
+            uploadButton.addActionListener(e -> uploadReport());
+            if (editable) panel.add(uploadButton, BorderLayout.SOUTH);
+            panel.add(reportPreview, BorderLayout.EAST);
+            reportsTable.getSelectionModel().addListSelectionListener(e -> {
+                if (e.getValueIsAdjusting()) return;
+                int selectedRow = reportsTable.getSelectedRow();
+                reportPreview.showReport(selectedRow >= 0 ? (String) model.getValueAt(selectedRow, 2) : null);
+            });
+            return panel;
+        }
+
+        private JPanel createHistoryPanel() {
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.setBorder(new TitledBorder("Patient Appointment History"));
+            historyModel = new DefaultTableModel(new String[]{"Date", "Doctor", "Status"}, 0);
+            JTable historyTable = new JTable(historyModel);
+            panel.add(new JScrollPane(historyTable), BorderLayout.CENTER);
+            return panel;
+        }
+
+        // Table rows for the whole history, this appointment's notes and this appointment's reports.
+        static ChartData chartData(PatientChart chart, int appointmentId) {
+            ChartData data = new ChartData();
+            data.history = new Vector<>();
+            for (Appointment a : chart.history) {
+                Vector<Object> row = new Vector<>();
+                row.add(a.dateTime.format(DateTimeFormatter.ISO_LOCAL_DATE));
+                row.add(a.doctorName);
+                row.add(a.status);
+                data.history.add(row);
+                if (a.id == appointmentId) data.notes = a.notes;
+            }
+            data.reports = reportRows(chart, appointmentId);
+            return data;
+        }
+
+        private static Vector<Vector<Object>> reportRows(PatientChart chart, int appointmentId) {
+            Vector<Vector<Object>> rows = new Vector<>();
+            for (MedicalReport r : chart.reports) {
+                if (r.appointmentId != appointmentId) continue;
+                Vector<Object> row = new Vector<>();
+                row.add(r.uploadedAt.format(DateTimeFormatter.ISO_LOCAL_DATE));
+                row.add(r.reportName);
+                row.add(r.filePath); // hidden
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        private void loadReports() {
+            reportsLoader.start(() -> reportRows(PatientCharts.get(patientId), appointmentId), rows -> {
+                replaceRows(reportsTableModel, rows);
+                reportPreview.prefetch(ReportPreviewPanel.paths(rows, 2));
+            });
+        }
+
+        private void saveChanges() {
+            final String notes = notesArea.getText();
+            User user = SessionManager.getCurrentUser();
+            DataExecutor.submit(() -> saveNotes(user, appointmentId, notes), updated -> {
+                if (updated > 0) PatientCharts.notesSaved(patientId, appointmentId, notes);
+                JOptionPane.showMessageDialog(this, "Record updated successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
+            }, ex -> JOptionPane.showMessageDialog(this, "Failed to update record: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+        }
+
+        // Stores the doctor's notes and marks the appointment completed.
+        static int saveNotes(User user, int appointmentId, String notes) throws SQLException {
+            requireWritable(user, appointmentId);
+            int updated = Repositories.appointments().complete(appointmentId, notes);
+            if (updated > 0) NotesIndex.noteSaved(appointmentId);
+            return updated;
+        }
+
+        // The jdbc and memory stores write whatever they are asked to; a ClinicServer makes the same check for thin clients.
+        private static void requireWritable(User user, int appointmentId) throws SQLException {
+            if (Repositories.appointments() instanceof RemoteStore) return;
+            Appointment a = Repositories.appointments().findById(appointmentId);
+            if (a != null && !ReferenceData.mayWrite(user, a.doctorId)) throw new SQLException("Appointment " + appointmentId + " is with another doctor");
+        }
+
+        private void uploadReport() {
+            JFileChooser fileChooser = new JFileChooser();
+            int result = fileChooser.showOpenDialog(this);
+            if (result == JFileChooser.APPROVE_OPTION) {
+                File selectedFile = fileChooser.getSelectedFile();
+                ProgressMonitor monitor = new ProgressMonitor(this, "Uploading " + selectedFile.getName(), null, 0, 1000);
+                monitor.setMillisToDecideToPopup(200);
+                User user = SessionManager.getCurrentUser();
+                DataExecutor.submit(() -> {
+                    requireWritable(user, appointmentId);
+                    String contentKey = ReportStore.get().store(selectedFile.toPath(), (done, total) -> {
+                        int permille = total == 0 ? 1000 : (int) (done * 1000 / total);
+                        SwingUtilities.invokeLater(() -> monitor.setProgress(permille));
+                    });
+                    Repositories.reports().addReport(appointmentId, selectedFile.getName(), contentKey);
+                    PatientCharts.reportAdded(patientId, appointmentId, selectedFile.getName(), contentKey);
+                    return contentKey;
+                }, stored -> {
+                    monitor.close();
+                    JOptionPane.showMessageDialog(this, "Report uploaded successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    loadReports(); // Refresh the list
+                }, ex -> {
+                    monitor.close();
+                    JOptionPane.showMessageDialog(this, "Report upload failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        }
+    }
+
+    // ====================== REPORT STORE ======================
+    // Content-addressed storage for uploaded reports. Files are hashed with SHA-256 while streaming and kept under
+    // clinic_uploads/sha256/ab/cd/<hash><.ext>; medical_reports.file_path stores the content key ("sha256:<hash><.ext>")
+    // instead of an absolute path, so identical uploads share one file. Rows written before this change keep
+    // their absolute paths and are resolved as-is.
+    private static class ReportStore {
+        static final String KEY_PREFIX = "sha256:";
+        private static final Pattern CONTENT_KEY = Pattern.compile("sha256:[0-9a-f]{64}(\\.[a-z0-9]+)?");
+        private static final ReportStore INSTANCE = new ReportStore(Paths.get("clinic_uploads"));
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        interface Progress { void update(long done, long total); }
+
+        private final Path root;
+        private final AtomicLong deduplicated = new AtomicLong(), stored = new AtomicLong();
+
+        ReportStore(Path root) { this.root = root; }
+        static ReportStore get() { return INSTANCE; }
+
+        // On a thin client (clinic.store=http) the stored file is also uploaded, unless the server has it already.
+        String store(Path source, Progress progress) throws IOException {
+            String key = storeLocally(source, progress);
+            if (Repositories.reports() instanceof RemoteStore) ((RemoteStore) Repositories.reports()).upload(key, resolve(key));
+            return key;
+        }
+
+        // Hashes the bytes while copying them to a temp file, so the key always matches what was stored even if the
+        // source changes meanwhile; the copy is dropped if that content is stored already.
+        private String storeLocally(Path source, Progress progress) throws IOException {
+            Path incoming = root.resolve("sha256");
+            Files.createDirectories(incoming);
+            Path temp = Files.createTempFile(incoming, "store", ".part");
+            try {
+                String key = KEY_PREFIX + copyAndHash(source, temp, progress) + extension(source.getFileName().toString());
+                Path target = resolve(key);
+                if (Files.exists(target)) {
+                    deduplicated.incrementAndGet();
+                    return key;
+                }
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    stored.incrementAndGet();
+                } catch (FileAlreadyExistsException e) { // same content stored concurrently
+                    deduplicated.incrementAndGet();
+                } catch (IOException e) {
+                    if (!Files.exists(target)) throw e;
+                    deduplicated.incrementAndGet();
+                }
+                return key;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        // Maps a medical_reports.file_path value to the file on disk.
+        Path resolve(String storedPath) {
+            if (!storedPath.startsWith(KEY_PREFIX)) return Paths.get(storedPath);
+            String name = storedPath.substring(KEY_PREFIX.length());
+            return root.resolve("sha256").resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name);
+        }
+
+        // As resolve(), but a thin client first downloads reports it has no copy of. Not for the EDT.
+        Path fetch(String storedPath) throws IOException {
+            Path file = resolve(storedPath);
+            if (!Files.exists(file) && isContentKey(storedPath) && Repositories.reports() instanceof RemoteStore) ((RemoteStore) Repositories.reports()).download(storedPath);
+            return file;
+        }
+
+        // Only keys written by store() pass: no legacy absolute paths and nothing that could leave the upload folder.
+        static boolean isContentKey(String storedPath) { return storedPath != null && CONTENT_KEY.matcher(storedPath).matches(); }
+
+        // Stores a stream under a key computed elsewhere, rejecting content that does not hash to it; moves reports
+        // between the server and thin clients.
+        void receive(String key, InputStream in, long maxBytes) throws IOException {
+            if (!isContentKey(key)) throw new IOException("Not a report key: " + key);
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), "receive", ".part");
+            try {
+                MessageDigest digest = newDigest();
+                try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.WRITE)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    long total = 0;
+                    for (int read; (read = in.read(buffer)) != -1; ) {
+                        if ((total += read) > maxBytes) throw new IOException("Report larger than " + maxBytes + " bytes");
+                        digest.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+                if (!key.startsWith(KEY_PREFIX + hex(digest.digest()))) throw new IOException("Content does not match " + key);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                stored.incrementAndGet();
+            } catch (FileAlreadyExistsException e) { // same content stored concurrently
+                deduplicated.incrementAndGet();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        String getStats() { return "reports stored=" + stored.get() + " deduplicated=" + deduplicated.get(); }
+
+        private static MessageDigest newDigest() {
+            try { return MessageDigest.getInstance("SHA-256"); }
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        }
+
+        private static String hex(byte[] hash) {
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : hash) hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return hex.toString();
+        }
+
+        // Reads until end of file rather than up to the size seen at the start, so a file that shrinks or grows meanwhile still ends the loop.
+        private static String copyAndHash(Path source, Path target, Progress progress) throws IOException {
+            MessageDigest digest = newDigest();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size(), done = 0;
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    buffer.clear();
+                    done += read;
+                    progress.update(done, Math.max(size, done));
+                }
+                out.force(false);
+                progress.update(done, done);
+            }
+            return hex(digest.digest());
+        }
+
+        private static String extension(String fileName) {
+            int dot = fileName.lastIndexOf('.');
+            if (dot <= 0 || fileName.length() - dot > 10) return "";
+            String ext = fileName.substring(dot).toLowerCase(Locale.ROOT);
+            return ext.matches("\\.[a-z0-9]+") ? ext : "";
         }
     }
 
-    // ====================== DASHBOARD PANELS ======================
-    public static class PatientDashboardPanel extends JPanel {
-        private final AppointmentsViewPanel appointmentsView;
-        public PatientDashboardPanel() {
-            setLayout(new BorderLayout());
-            JTabbedPane tabbedPane = new JTabbedPane();
-            JPanel appointmentsOuterPanel = new JPanel(new BorderLayout());
-            ModernButton bookAppointmentButton = new ModernButton("Book New Appointment");
-            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-            topPanel.setBorder(new EmptyBorder(10,0,10,0));
-            topPanel.add(bookAppointmentButton);
-            appointmentsOuterPanel.add(topPanel, BorderLayout.NORTH);
-            appointmentsView = new AppointmentsViewPanel();
-            appointmentsOuterPanel.add(appointmentsView, BorderLayout.CENTER);
-            bookAppointmentButton.addActionListener(e -> new AppointmentBookingDialog(this).setVisible(true));
-            tabbedPane.addTab("My Appointments", appointmentsOuterPanel);
-            tabbedPane.addTab("My Medical Records", new PatientRecordsPanel());
-            add(tabbedPane, BorderLayout.CENTER);
+    // ====================== REPORT THUMBNAILS ======================
+    // Downscaled previews of image reports. Sources are decoded from a memory-mapped view of the file; thumbnails
+    // are kept in a heap LRU bounded by pixel bytes and written to clinic_uploads/thumbnails so they survive restarts.
+    private static class ThumbnailCache {
+        private static final ThumbnailCache INSTANCE = new ThumbnailCache(Paths.get("clinic_uploads", "thumbnails"), Long.getLong("clinic.thumbnails.heapBytes", 64L << 20));
+        static { ImageIO.setUseCache(false); } // decode from memory instead of spilling ImageIO's stream cache to temp files
+
+        private final Path diskDir;
+        private final long maxHeapBytes;
+        private long heapBytes;
+        private final LinkedHashMap<String, BufferedImage> heap = new LinkedHashMap<>(64, 0.75f, true);
+        private final Set<String> notImages = ConcurrentHashMap.newKeySet();
+        private final AtomicLong heapHits = new AtomicLong(), diskHits = new AtomicLong(), decodes = new AtomicLong();
+
+        ThumbnailCache(Path diskDir, long maxHeapBytes) { this.diskDir = diskDir; this.maxHeapBytes = maxHeapBytes; }
+        static ThumbnailCache get() { return INSTANCE; }
+
+        // Returns a thumbnail no larger than maxSize on either side, or null if the report is not a readable image.
+        BufferedImage thumbnail(String storedPath, int maxSize) throws IOException {
+            Path file = ReportStore.get().fetch(storedPath);
+            String key = cacheId(storedPath, file) + "-" + maxSize;
+            synchronized (heap) {
+                BufferedImage cached = heap.get(key);
+                if (cached != null) { heapHits.incrementAndGet(); return cached; }
+            }
+            if (notImages.contains(key)) return null;
+            Path diskCopy = diskDir.resolve(key + ".png");
+            BufferedImage thumb = null;
+            if (Files.exists(diskCopy)) {
+                thumb = ImageIO.read(diskCopy.toFile());
+                if (thumb != null) diskHits.incrementAndGet();
+            }
+            if (thumb == null) {
+                BufferedImage source = decodeMapped(file);
+                if (source == null) { notImages.add(key); return null; }
+                decodes.incrementAndGet();
+                thumb = scale(source, maxSize);
+                Files.createDirectories(diskDir);
+                Path temp = Files.createTempFile(diskDir, key, ".tmp");
+                ImageIO.write(thumb, "png", temp.toFile());
+                Files.move(temp, diskCopy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            remember(key, thumb);
+            return thumb;
+        }
+
+        private void remember(String key, BufferedImage image) {
+            synchronized (heap) {
+                BufferedImage previous = heap.put(key, image);
+                if (previous != null) heapBytes -= bytes(previous);
+                heapBytes += bytes(image);
+                Iterator<Map.Entry<String, BufferedImage>> eldest = heap.entrySet().iterator();
+                while (heapBytes > maxHeapBytes && eldest.hasNext()) {
+                    Map.Entry<String, BufferedImage> entry = eldest.next();
+                    if (entry.getKey().equals(key)) continue;
+                    heapBytes -= bytes(entry.getValue());
+                    eldest.remove();
+                }
+            }
+        }
+
+        String getStats() {
+            synchronized (heap) {
+                return String.format("thumbnails: heap=%d (%.1f MB) heapHits=%d diskHits=%d decodes=%d", heap.size(), heapBytes / 1048576.0, heapHits.get(), diskHits.get(), decodes.get());
+            }
+        }
+
+        private static long bytes(BufferedImage image) { return (long) image.getWidth() * image.getHeight() * 4; }
+
+        // Content-addressed reports are identified by their hash; legacy paths by path and modification time.
+        private static String cacheId(String storedPath, Path file) throws IOException {
+            if (storedPath.startsWith(ReportStore.KEY_PREFIX)) {
+                String name = storedPath.substring(ReportStore.KEY_PREFIX.length());
+                int dot = name.indexOf('.');
+                return dot < 0 ? name : name.substring(0, dot);
+            }
+            String identity = file.toAbsolutePath() + "@" + Files.getLastModifiedTime(file).toMillis();
+            return UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8)).toString();
+        }
+
+        static BufferedImage decodeMapped(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return ImageIO.read(new ByteBufferInputStream(mapped));
+            }
+        }
+
+        private static BufferedImage scale(BufferedImage source, int maxSize) {
+            double factor = Math.min(1.0, (double) maxSize / Math.max(source.getWidth(), source.getHeight()));
+            int w = Math.max(1, (int) Math.round(source.getWidth() * factor)), h = Math.max(1, (int) Math.round(source.getHeight() * factor));
+            BufferedImage thumb = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = thumb.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.drawImage(source, 0, 0, w, h, null);
+            g2.dispose();
+            return thumb;
+        }
+
+        private static class ByteBufferInputStream extends InputStream {
+            private final ByteBuffer buffer;
+            ByteBufferInputStream(ByteBuffer buffer) { this.buffer = buffer; }
+            @Override public int read() { return buffer.hasRemaining() ? buffer.get() & 0xff : -1; }
+            @Override public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (!buffer.hasRemaining()) return -1;
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+            @Override public int available() { return buffer.remaining(); }
         }
-        public void refreshAppointments() { appointmentsView.refreshData(); }
     }
-    public static class DoctorDashboardPanel extends JPanel {
-        public DoctorDashboardPanel() {
-            setLayout(new BorderLayout());
-            AppointmentsViewPanel appointmentsPanel = new AppointmentsViewPanel();
-            JTable appointmentsTable = appointmentsPanel.getTable();
-            appointmentsTable.addMouseListener(new MouseAdapter() {
-                public void mouseClicked(MouseEvent e) {
-                    if (e.getClickCount() == 2) {
-                        int selectedRow = appointmentsTable.getSelectedRow();
-                        if (selectedRow >= 0) {
-                            int appointmentId = (int) appointmentsTable.getModel().getValueAt(selectedRow, 0);
-                            String patientName = (String) appointmentsTable.getModel().getValueAt(selectedRow, 1);
-                            int patientId = (int) appointmentsTable.getModel().getValueAt(selectedRow, 5); // Hidden patient_id column
-                            new PatientHistoryDialog((JFrame) SwingUtilities.getWindowAncestor(DoctorDashboardPanel.this),
-                                    patientId, patientName, appointmentId).setVisible(true);
-                        }
+
+    // Shows the thumbnail of the selected report; loads run in the background and only the latest one is shown.
+    public static class ReportPreviewPanel extends JPanel {
+        private final JLabel imageLabel = new JLabel("Select a report to preview", SwingConstants.CENTER);
+        private final int size;
+        private final LatestLoad loader = new LatestLoad(loading -> { if (loading) imageLabel.setText("Loading preview..."); });
+
+        public ReportPreviewPanel(int size) {
+            super(new BorderLayout());
+            this.size = size;
+            setPreferredSize(new Dimension(size + 10, size + 10));
+            setBorder(new TitledBorder("Preview"));
+            add(imageLabel, BorderLayout.CENTER);
+        }
+
+        public void showReport(String storedPath) {
+            loader.start(() -> storedPath == null ? null : ThumbnailCache.get().thumbnail(storedPath, size), thumb -> {
+                imageLabel.setIcon(thumb == null ? null : new ImageIcon(thumb));
+                imageLabel.setText(thumb != null ? null : storedPath == null ? "Select a report to preview" : "No preview available");
+            });
+        }
+
+        // Warms the caches for a patient's reports so moving through the list does not wait on decoding.
+        public void prefetch(List<String> storedPaths) {
+            DataExecutor.supply(() -> {
+                for (String path : storedPaths) {
+                    try { ThumbnailCache.get().thumbnail(path, size); } catch (IOException ignored) { }
+                }
+                return null;
+            });
+        }
+
+        static List<String> paths(Vector<Vector<Object>> rows, int column) {
+            List<String> paths = new ArrayList<>(rows.size());
+            for (Vector<Object> row : rows) paths.add((String) row.get(column));
+            return paths;
+        }
+    }
+
+    // ====================== APPOINTMENT REMINDERS ======================
+    // Hierarchical timing wheel: LEVELS wheels of 64 buckets, the first tickMillis per bucket and each next one 64
+    // times coarser, so 11 levels cover any long deadline. A timer goes on the finest level whose bucket span still
+    // separates it from the current tick; when a coarser bucket comes due its timers move down a level. add and
+    // cancel are O(1) and each timer is moved at most once per level. Not thread-safe: one thread owns a wheel.
+    private static class TimingWheel<T> {
+        static final class Timer<T> {
+            final long deadline; final T payload;
+            private Timer<T> prev, next;
+            private long tick; // when it fires; after the deadline's own tick for deadlines already passed when added
+            private int bucket = -1;
+            Timer(long deadline, T payload) { this.deadline = deadline; this.payload = payload; }
+            boolean isPending() { return bucket >= 0; }
+        }
+        private static final int BITS = 6, SLOTS = 1 << BITS, MASK = SLOTS - 1, LEVELS = (Long.SIZE + BITS - 1) / BITS;
+
+        private final long tickMillis;
+        private final Timer<T>[] buckets;
+        private long currentTick;
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        TimingWheel(long tickMillis, long startMillis) {
+            this.tickMillis = tickMillis;
+            this.buckets = (Timer<T>[]) new Timer<?>[LEVELS * SLOTS];
+            this.currentTick = Math.floorDiv(startMillis, tickMillis);
+        }
+
+        int size() { return size; }
+
+        // Fires on the first advance to or past deadlineMillis; a deadline already passed fires on the next tick.
+        Timer<T> add(long deadlineMillis, T payload) {
+            Timer<T> t = new Timer<>(deadlineMillis, payload);
+            long ticks = -Math.floorDiv(-deadlineMillis, tickMillis);
+            insert(t, Math.max(ticks, currentTick + 1));
+            size++;
+            return t;
+        }
+
+        boolean cancel(Timer<T> t) {
+            if (t.bucket < 0) return false;
+            unlink(t);
+            size--;
+            return true;
+        }
+
+        // Payloads of every timer due by nowMillis, in deadline order to the tick.
+        List<T> advanceTo(long nowMillis) {
+            List<T> due = new ArrayList<>();
+            long target = Math.floorDiv(nowMillis, tickMillis);
+            while (currentTick < target) {
+                if (size == 0) { currentTick = target; break; }
+                currentTick++;
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (BITS * level)) - 1)) != 0) continue;
+                    int bucket = level * SLOTS + ((int) (currentTick >>> (BITS * level)) & MASK);
+                    for (Timer<T> t = buckets[bucket], next; t != null; t = next) {
+                        next = t.next;
+                        unlink(t);
+                        insert(t, t.tick);
                     }
                 }
+                int bucket = (int) currentTick & MASK;
+                for (Timer<T> t = buckets[bucket], next; t != null; t = next) {
+                    next = t.next;
+                    unlink(t);
+                    size--;
+                    due.add(t.payload);
+                }
+            }
+            return due;
+        }
+
+        // ticks is never before the current tick.
+        private void insert(Timer<T> t, long ticks) {
+            t.tick = ticks;
+            long diff = ticks ^ currentTick;
+            int level = diff == 0 ? 0 : (Long.SIZE - 1 - Long.numberOfLeadingZeros(diff)) / BITS;
+            int bucket = level * SLOTS + ((int) (ticks >>> (BITS * level)) & MASK);
+            t.bucket = bucket; t.prev = null; t.next = buckets[bucket];
+            if (t.next != null) t.next.prev = t;
+            buckets[bucket] = t;
+        }
+
+        private void unlink(Timer<T> t) {
+            if (t.prev != null) t.prev.next = t.next; else buckets[t.bucket] = t.next;
+            if (t.next != null) t.next.prev = t.prev;
+            t.prev = t.next = null; t.bucket = -1;
+        }
+    }
+
+    // One reminder for one appointment, leadMinutes before it starts; addressed to both the patient and the doctor.
+    public static final class Reminder {
+        public final int appointmentId, patientId, doctorId, leadMinutes;
+        public final String patientName, doctorName;
+        public final LocalDateTime appointmentTime;
+        public final long dueAt;
+        Reminder(Appointment a, int leadMinutes, long dueAt) {
+            appointmentId = a.id; patientId = a.patientId; doctorId = a.doctorId; patientName = a.patientName; doctorName = a.doctorName;
+            appointmentTime = a.dateTime; this.leadMinutes = leadMinutes; this.dueAt = dueAt;
+        }
+    }
+
+    // Where due reminders go. Called on the reminder thread with at most clinic.reminders.batchSize reminders; a
+    // batch that throws is retried a minute later. Custom sinks (SMS, e-mail) are named with
+    // -Dclinic.reminders.sink=<class with a public no-arg constructor>.
+    public interface ReminderSink {
+        void send(List<Reminder> batch) throws Exception;
+    }
+
+    // The stand-in sink: one line per reminder appended to clinic.reminders.file (default clinic_reminders.log).
+    private static class LogReminderSink implements ReminderSink {
+        private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private final Path file = Paths.get(System.getProperty("clinic.reminders.file", "clinic_reminders.log"));
+
+        @Override
+        public void send(List<Reminder> batch) throws IOException {
+            String sentAt = LocalDateTime.now().format(DATE_TIME);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Reminder r : batch) {
+                    out.write(sentAt + " appointment " + r.appointmentId + " at " + r.appointmentTime.format(DATE_TIME) + " (in " + r.leadMinutes + " min): patient "
+                            + r.patientName + " (" + r.patientId + "), doctor " + r.doctorName + " (" + r.doctorId + ")\n");
+                }
+            }
+        }
+    }
+
+    // Schedules reminders clinic.reminders.leadMinutes (default "1440,60") before every Scheduled appointment. The
+    // next clinic.reminders.horizonHours (default 48) of appointments are loaded into a TimingWheel and topped up
+    // every hour; bookings and completions arrive through ChangeBus. Everything runs on one thread, which advances
+    // the wheel every clinic.reminders.tickMillis (default 1000) and hands due reminders to the sink in batches.
+    // Run it in one process only, with the 'reminders' command or -Dclinic.reminders.enabled=true; reminders already
+    // due when it starts are skipped.
+    private static class AppointmentReminders {
+        private static final long TICK_MILLIS = Long.getLong("clinic.reminders.tickMillis", 1_000L);
+        private static final long HORIZON_MILLIS = Long.getLong("clinic.reminders.horizonHours", 48L) * 3_600_000L;
+        private static final long RETRY_MILLIS = 60_000L, TOP_UP_MILLIS = 3_600_000L;
+        private static final int BATCH_SIZE = Integer.getInteger("clinic.reminders.batchSize", 500);
+        private static final int[] LEAD_MINUTES = Arrays.stream(System.getProperty("clinic.reminders.leadMinutes", "1440,60").split(","))
+                .mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+        private static AppointmentReminders instance;
+
+        private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "clinic-reminders"); t.setDaemon(true); return t; });
+        private final ReminderSink sink;
+        private final TimingWheel<Reminder> wheel = new TimingWheel<>(TICK_MILLIS, System.currentTimeMillis());
+        private final Map<Integer, List<TimingWheel.Timer<Reminder>>> byAppointment = new HashMap<>();
+        private LocalDateTime loadedUntil = LocalDateTime.now();
+        private long sent, failed;
+
+        private AppointmentReminders(ReminderSink sink) { this.sink = sink; }
+
+        static synchronized void start() throws ReflectiveOperationException {
+            if (instance != null) return;
+            String sinkClass = System.getProperty("clinic.reminders.sink", "");
+            instance = new AppointmentReminders(sinkClass.isEmpty() ? new LogReminderSink() : (ReminderSink) Class.forName(sinkClass).getConstructor().newInstance());
+            instance.thread.execute(instance::topUp);
+            instance.thread.scheduleWithFixedDelay(instance::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            instance.thread.scheduleWithFixedDelay(instance::topUp, TOP_UP_MILLIS, TOP_UP_MILLIS, TimeUnit.MILLISECONDS);
+            ChangeBus.subscribe(events -> instance.thread.execute(() -> instance.apply(events)));
+        }
+
+        private void topUp() {
+            LocalDateTime until = LocalDateTime.now().plus(Duration.ofMillis(HORIZON_MILLIS));
+            try {
+                List<Appointment> upcoming = Repositories.appointments().scheduledBetween(loadedUntil, until);
+                for (Appointment a : upcoming) schedule(a);
+                loadedUntil = until;
+                System.out.println("Reminders: loaded " + upcoming.size() + " appointments up to " + until.withNano(0) + "; " + wheel.size() + " pending, "
+                        + sent + " sent, " + failed + " failed so far");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void apply(List<ChangeEvent> events) {
+            Set<Integer> changed = new LinkedHashSet<>();
+            for (ChangeEvent e : events) if (e.kind != ChangeEvent.Kind.REPORT_ADDED) changed.add(e.appointmentId);
+            for (int id : changed) {
+                try {
+                    Appointment a = Repositories.appointments().findById(id);
+                    if (a != null && a.dateTime.isBefore(loadedUntil)) schedule(a); else cancel(id);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Replaces whatever was pending for the appointment.
+        private void schedule(Appointment a) {
+            cancel(a.id);
+            if (!"Scheduled".equals(a.status)) return;
+            long startsAt = a.dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), now = System.currentTimeMillis();
+            List<TimingWheel.Timer<Reminder>> timers = new ArrayList<>(LEAD_MINUTES.length);
+            for (int lead : LEAD_MINUTES) {
+                long dueAt = startsAt - lead * 60_000L;
+                if (dueAt > now) timers.add(wheel.add(dueAt, new Reminder(a, lead, dueAt)));
+            }
+            if (!timers.isEmpty()) byAppointment.put(a.id, timers);
+        }
+
+        private void cancel(int appointmentId) {
+            List<TimingWheel.Timer<Reminder>> timers = byAppointment.remove(appointmentId);
+            if (timers != null) for (TimingWheel.Timer<Reminder> t : timers) wheel.cancel(t);
+        }
+
+        private void tick() {
+            List<Reminder> due = wheel.advanceTo(System.currentTimeMillis());
+            for (Reminder r : due) byAppointment.computeIfPresent(r.appointmentId, (id, timers) -> {
+                timers.removeIf(t -> !t.isPending());
+                return timers.isEmpty() ? null : timers;
             });
-            add(appointmentsPanel, BorderLayout.CENTER);
+            for (int from = 0; from < due.size(); from += BATCH_SIZE) {
+                List<Reminder> batch = due.subList(from, Math.min(due.size(), from + BATCH_SIZE));
+                try {
+                    sink.send(batch);
+                    sent += batch.size();
+                } catch (Exception e) {
+                    failed += batch.size();
+                    e.printStackTrace();
+                    for (Reminder r : batch) byAppointment.computeIfAbsent(r.appointmentId, id -> new ArrayList<>()).add(wheel.add(System.currentTimeMillis() + RETRY_MILLIS, r));
+                }
+            }
+        }
+    }
+
+    // ====================== EXPORT ======================
+    // Appointment and medical-history extracts as CSV or JSON Lines, optionally gzipped. Rows stream from
+    // ExportRepository (a forward-only ResultSet with the JDBC store) through a 64 KB buffer into a FileChannel, so
+    // memory use does not grow with the row count. The file is written beside the target and moved into place when
+    // complete. History CSV has one line per report (report columns empty for appointments without any); history
+    // JSON Lines has one object per appointment with its reports in an array.
+    //   java ProClinicManager export appointments|history <file> [--format csv|jsonl] [--from yyyy-MM-dd] [--to yyyy-MM-dd] [--doctor id] [--gzip]
+    private static class ClinicExport {
+        enum Format { CSV, JSONL }
+        private static final int BUFFER_BYTES = 64 * 1024;
+        private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        private static final String[] APPOINTMENT_COLUMNS = {"appointment_id", "appointment_datetime", "status", "doctor_id", "doctor_name", "patient_id", "patient_name"};
+        private static final String[] REPORT_COLUMNS = {"notes", "report_id", "report_name", "report_file", "report_uploaded_at"};
+
+        static void run(String[] args) throws Exception {
+            if (args.length < 2 || !("appointments".equals(args[0]) || "history".equals(args[0]))) {
+                System.err.println("Usage: export appointments|history <file> [--format csv|jsonl] [--from yyyy-MM-dd] [--to yyyy-MM-dd] [--doctor id] [--gzip]");
+                System.exit(2);
+            }
+            Path target = Paths.get(args[1]);
+            Format format = formatFor(target); boolean gzip = gzipFor(target);
+            AppointmentFilter filter = new AppointmentFilter();
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format": format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+                    case "--from": filter.from = LocalDate.parse(args[++i]); break;
+                    case "--to": filter.to = LocalDate.parse(args[++i]); break;
+                    case "--doctor": filter.doctorId = Integer.parseInt(args[++i]); break;
+                    case "--gzip": gzip = true; break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            long started = System.nanoTime();
+            long appointments = export(AppointmentScope.ALL.filtered(filter), "history".equals(args[0]), format, gzip, target);
+            System.out.printf("Exported %d appointments to %s (%d bytes) in %d ms%n", appointments, target, Files.size(target), (System.nanoTime() - started) / 1_000_000);
+        }
+
+        static Format formatFor(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+            return name.endsWith(".jsonl") || name.endsWith(".json") ? Format.JSONL : Format.CSV;
+        }
+
+        static boolean gzipFor(Path file) { return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz"); }
+
+        // Returns the number of appointments written.
+        static long export(AppointmentScope scope, boolean history, Format format, boolean gzip, Path target) throws IOException, SQLException {
+            Path dir = target.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".part");
+            try {
+                RowWriter rows;
+                OutputStream out = Channels.newOutputStream(FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+                try (Writer text = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : out, StandardCharsets.UTF_8), BUFFER_BYTES)) {
+                    rows = format == Format.CSV ? new CsvRows(text, history) : new JsonRows(text, history);
+                    Repositories.exports().exportAppointments(scope, history, rows);
+                    rows.finish();
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return rows.appointments;
+            } catch (IOException | SQLException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+
+        private abstract static class RowWriter implements ExportRepository.Sink {
+            final Writer out; final boolean history;
+            long appointments;
+            private int lastId = -1;
+            RowWriter(Writer out, boolean history) { this.out = out; this.history = history; }
+
+            @Override public void row(Appointment a, MedicalReport report) throws IOException {
+                if (a.id != lastId) { appointments++; lastId = a.id; }
+            }
+            void finish() throws IOException { }
+        }
+
+        private static class CsvRows extends RowWriter {
+            private final CSVPrinter printer;
+            CsvRows(Writer out, boolean history) throws IOException {
+                super(out, history);
+                List<String> header = new ArrayList<>(Arrays.asList(APPOINTMENT_COLUMNS));
+                if (history) header.addAll(Arrays.asList(REPORT_COLUMNS));
+                printer = CSVFormat.DEFAULT.builder().setHeader(header.toArray(new String[0])).build().print(out);
+            }
+
+            @Override public void row(Appointment a, MedicalReport report) throws IOException {
+                super.row(a, report);
+                printer.print(a.id); printer.print(a.dateTime.format(DATE_TIME)); printer.print(a.status);
+                printer.print(a.doctorId); printer.print(a.doctorName); printer.print(a.patientId); printer.print(a.patientName);
+                if (history) {
+                    printer.print(a.notes);
+                    printer.print(report == null ? null : report.id); printer.print(report == null ? null : report.reportName);
+                    printer.print(report == null ? null : report.filePath); printer.print(report == null ? null : report.uploadedAt.format(DATE_TIME));
+                }
+                printer.println();
+            }
+        }
+
+        // Holds back the current appointment until its last report row has arrived.
+        private static class JsonRows extends RowWriter {
+            private final StringBuilder line = new StringBuilder(256);
+            private final List<MedicalReport> reports = new ArrayList<>();
+            private Appointment pending;
+            JsonRows(Writer out, boolean history) { super(out, history); }
+
+            @Override public void row(Appointment a, MedicalReport report) throws IOException {
+                super.row(a, report);
+                if (pending != null && pending.id != a.id) finish();
+                pending = a;
+                if (report != null) reports.add(report);
+            }
+
+            @Override void finish() throws IOException {
+                if (pending == null) return;
+                Appointment a = pending;
+                line.setLength(0);
+                line.append("{\"appointment_id\":").append(a.id).append(",\"appointment_datetime\":");
+                Json.quote(line, a.dateTime.format(DATE_TIME)).append(",\"status\":");
+                Json.quote(line, a.status).append(",\"doctor_id\":").append(a.doctorId).append(",\"doctor_name\":");
+                Json.quote(line, a.doctorName).append(",\"patient_id\":").append(a.patientId).append(",\"patient_name\":");
+                Json.quote(line, a.patientName);
+                if (history) {
+                    Json.quote(line.append(",\"notes\":"), a.notes).append(",\"reports\":[");
+                    for (int i = 0; i < reports.size(); i++) {
+                        MedicalReport r = reports.get(i);
+                        line.append(i == 0 ? "" : ",").append("{\"id\":").append(r.id).append(",\"name\":");
+                        Json.quote(line, r.reportName).append(",\"file\":");
+                        Json.quote(line, r.filePath).append(",\"uploaded_at\":");
+                        Json.quote(line, r.uploadedAt.format(DATE_TIME)).append('}');
+                    }
+                    line.append(']');
+                }
+                out.append(line.append("}\n"));
+                pending = null; reports.clear();
+            }
+        }
+    }
+
+    // Minimal JSON string encoding for the extracts.
+    private static class Json {
+        static StringBuilder quote(StringBuilder sb, String s) {
+            if (s == null) return sb.append("null");
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c)); else sb.append(c);
+                }
+            }
+            return sb.append('"');
+        }
+
+        // Reads one JSON value: objects become LinkedHashMaps, arrays ArrayLists, numbers Long (or Double with a
+        // fraction or exponent). Enough for the HTTP API's own messages; throws IllegalArgumentException otherwise,
+        // also for objects and arrays nested more than 64 deep.
+        static Object parse(String text) {
+            Parser parser = new Parser(text);
+            Object value = parser.value();
+            parser.skipSpace();
+            if (parser.pos != text.length()) throw parser.error("Trailing characters");
+            return value;
+        }
+
+        private static final class Parser {
+            private static final int MAX_DEPTH = 64;
+            final String text; int pos, depth;
+            Parser(String text) { this.text = text; }
+
+            Object value() {
+                skipSpace();
+                if (pos >= text.length()) throw error("Unexpected end");
+                char c = text.charAt(pos);
+                if (c == '{' || c == '[') {
+                    if (depth == MAX_DEPTH) throw error("Nested deeper than " + MAX_DEPTH);
+                    depth++; pos++; skipSpace();
+                    try { return c == '{' ? object() : array(); } finally { depth--; }
+                }
+                if (c == '"') return string();
+                if (text.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+                if (text.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+                if (text.startsWith("null", pos)) { pos += 4; return null; }
+                int start = pos;
+                while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) pos++;
+                String number = text.substring(start, pos);
+                try {
+                    boolean integral = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+                    return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    throw error("Bad value");
+                }
+            }
+
+            private Map<String, Object> object() {
+                Map<String, Object> object = new LinkedHashMap<>();
+                if (peek('}')) return object;
+                do {
+                    skipSpace();
+                    String key = string();
+                    skipSpace(); expect(':');
+                    object.put(key, value());
+                    skipSpace();
+                } while (peek(','));
+                expect('}');
+                return object;
+            }
+
+            private List<Object> array() {
+                List<Object> array = new ArrayList<>();
+                if (peek(']')) return array;
+                do { array.add(value()); skipSpace(); } while (peek(','));
+                expect(']');
+                return array;
+            }
+
+            String string() {
+                expect('"');
+                StringBuilder sb = new StringBuilder();
+                while (true) {
+                    if (pos >= text.length()) throw error("Unterminated string");
+                    char c = text.charAt(pos++);
+                    if (c == '"') return sb.toString();
+                    if (c != '\\') { sb.append(c); continue; }
+                    if (pos >= text.length()) throw error("Unterminated string");
+                    char e = text.charAt(pos++);
+                    switch (e) {
+                        case 'n': sb.append('\n'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'u':
+                            if (pos + 4 > text.length()) throw error("Bad escape");
+                            int code = 0;
+                            for (int end = pos + 4; pos < end; pos++) {
+                                int digit = Character.digit(text.charAt(pos), 16);
+                                if (digit < 0) throw error("Bad escape");
+                                code = code * 16 + digit;
+                            }
+                            sb.append((char) code); break;
+                        default: sb.append(e);
+                    }
+                }
+            }
+
+            void skipSpace() { while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++; }
+            boolean peek(char c) { if (pos < text.length() && text.charAt(pos) == c) { pos++; return true; } return false; }
+            void expect(char c) { if (!peek(c)) throw error("Expected '" + c + "'"); }
+            IllegalArgumentException error(String message) { return new IllegalArgumentException(message + " at offset " + pos + " of JSON"); }
+        }
+    }
+
+    // ====================== HTTP SERVER ======================
+    // Headless mode: java ProClinicManager serve [--port 8080] [--bind 127.0.0.1]
+    // Serves the repositories as a JSON API, so Swing clients started with -Dclinic.store=http need no database
+    // credentials. Each request runs on its own thread (virtual on Java 21+) against this process's connection pool.
+    // Doctors, patient profiles and charts come from this process's caches, shared by every terminal.
+    //   POST /api/<group>/<operation>   JSON object of arguments in, JSON value out (see RemoteStore for the calls)
+    //   HEAD|GET|PUT /api/files/<key>   report files by content key; PUT checks the hash
+    // Everything but users/login and patients/register needs "Authorization: Bearer <token>" from users/login.
+    // Patients and doctors get their own appointments whatever scope they send, and only doctors and the admin write
+    // notes and reports. Refusals come back as {"error": "..."} with a 4xx status, failures with 500.
+    private static class ClinicServer {
+        private static final long SESSION_IDLE_MILLIS = Long.getLong("clinic.server.sessionIdleMillis", 12 * 3_600_000L);
+        private static final long MAX_UPLOAD_BYTES = Long.getLong("clinic.server.maxUploadBytes", 100L << 20);
+        private static final int MAX_REQUEST_BYTES = 1 << 20;
+
+        private static class Session {
+            final String token; final User user; volatile long lastUsed = System.currentTimeMillis();
+            Session(String token, User user) { this.token = token; this.user = user; }
+            boolean is(String role) { return role.equalsIgnoreCase(user.role); }
+        }
+
+        // A request the server will not run; becomes a 4xx reply.
+        private static class Refusal extends Exception {
+            final int status;
+            Refusal(int status, String message) { super(message); this.status = status; }
+        }
+
+        private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+        private final SecureRandom random = new SecureRandom();
+        private final AtomicLong requests = new AtomicLong(), refused = new AtomicLong(), failed = new AtomicLong();
+
+        static void run(String[] args) throws IOException {
+            int port = Integer.getInteger("clinic.server.port", 8080);
+            String bind = System.getProperty("clinic.server.bind", "127.0.0.1");
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--port": port = Integer.parseInt(args[i + 1]); break;
+                    case "--bind": bind = args[i + 1]; break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (Repositories.appointments() instanceof RemoteStore) throw new IllegalStateException("serve needs -Dclinic.store=jdbc or memory");
+            // The JDK server writes headers and body separately; with Nagle on, each reply on a kept-alive connection
+            // waits ~40 ms for the client's delayed ACK. Read once, when the first server is created.
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+            ClinicServer server = new ClinicServer();
+            HttpServer http = HttpServer.create(new InetSocketAddress(bind, port), 0);
+            http.createContext("/api/", server::handle);
+            http.setExecutor(DataExecutor.createExecutor());
+            http.start();
+            PatientCharts.subscribe(); // keeps the shared chart cache in step with the change feed, which also purges it
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> http.stop(1), "clinic-server-stop"));
+            System.out.println("Serving the clinic API on http://" + bind + ":" + port + "/api/ (" + System.getProperty("clinic.store", "jdbc") + " store)");
+            Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "clinic-server-stats"); t.setDaemon(true); return t; })
+                    .scheduleWithFixedDelay(server::printStats, 5, 5, TimeUnit.MINUTES);
+        }
+
+        private void printStats() {
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(s -> now - s.lastUsed > SESSION_IDLE_MILLIS);
+            System.out.println("Server: " + requests.get() + " requests, " + refused.get() + " refused, " + failed.get() + " failed; " + sessions.size() + " sessions; "
+                    + (Repositories.appointments() instanceof JdbcStore ? DatabaseManager.getPool().getStats() + "; " : "") + ReferenceData.getStats() + "; " + PatientCharts.getStats());
+        }
+
+        private void handle(HttpExchange exchange) {
+            requests.incrementAndGet();
+            try {
+                String operation = exchange.getRequestURI().getPath().substring("/api/".length());
+                try {
+                    if (operation.startsWith("files/")) { file(exchange, session(exchange), operation.substring("files/".length())); return; }
+                    if (!"POST".equals(exchange.getRequestMethod())) throw new Refusal(405, "Use POST for " + operation);
+                    boolean open = "users/login".equals(operation) || "patients/register".equals(operation);
+                    Session session = open ? null : session(exchange); // before the body is read, so strangers cannot make us parse
+                    Map<?, ?> args = arguments(exchange);
+                    if ("exports/appointments".equals(operation)) { export(exchange, session, args); return; }
+                    reply(exchange, 200, Wire.write(new StringBuilder(256), call(operation, session, args)));
+                } catch (Refusal e) {
+                    refused.incrementAndGet();
+                    reply(exchange, e.status, Wire.object(new StringBuilder(), "error", e.getMessage()));
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    refused.incrementAndGet();
+                    reply(exchange, 409, Wire.object(new StringBuilder(), "error", e.getMessage()));
+                } catch (SQLException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                    reply(exchange, 500, Wire.object(new StringBuilder(), "error", String.valueOf(e.getMessage())));
+                }
+            } catch (IOException e) { // client went away, or a failure after the reply had started
+                failed.incrementAndGet();
+                e.printStackTrace();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private Object call(String operation, Session s, Map<?, ?> args) throws SQLException, Refusal {
+            AppointmentRepository appointments = Repositories.appointments();
+            switch (operation) {
+                case "users/login": return login(args);
+                case "patients/register":
+                    return Repositories.patients().register((String) args.get("username"), (String) args.get("password"), (String) args.get("name"),
+                            Wire.date(args.get("dob")), (String) args.get("phone"), (String) args.get("abhaId"));
+                case "patients/byUser": {
+                    int userId = Wire.integer(args.get("userId"));
+                    if (s.is("patient") && userId != s.user.id) throw new Refusal(403, "Patients can only read their own profile");
+                    return ReferenceData.patientForUser(userId);
+                }
+                case "patients/all": staff(s); return Repositories.patients().listAll();
+                case "doctors/all": return ReferenceData.doctors();
+                case "appointments/currentTime": return appointments.currentTime();
+                case "appointments/countAndMaxId": return appointments.countAndMaxId(scope(s, args));
+                case "appointments/page": return appointments.page(scope(s, args), Wire.dateTime(args.get("afterTime")), Wire.integer(args.get("afterId")), Wire.integer(args.get("limit")));
+                case "appointments/at": return appointments.at(scope(s, args), Wire.integer(args.get("position")));
+                case "appointments/changedSince": return appointments.changedSince(scope(s, args), Wire.integer(args.get("sinceId")), Wire.timestamp(args.get("since")));
+                case "appointments/forPatient": return appointments.forPatient(ownPatient(s, args));
+                case "appointments/findById": return readable(s, appointments.findById(Wire.integer(args.get("appointmentId"))));
+                case "appointments/notesChangedSince": staff(s); return appointments.notesChangedSince(Wire.timestamp(args.get("since")));
+                case "appointments/patientIdsForDoctor": staff(s); return appointments.patientIdsForDoctor(Wire.integer(args.get("doctorId")));
+                case "appointments/bookedStarts": return appointments.bookedStarts(Wire.integer(args.get("doctorId")), Wire.date(args.get("day")));
+                case "appointments/insertIfFree":
+                    if (s.is("doctor")) throw new Refusal(403, "Doctors cannot book appointments");
+                    // The overlap window is the server's appointment length; a client-sent one of 0 would skip the conflict check.
+                    return appointments.insertIfFree(ownPatient(s, args), Wire.integer(args.get("doctorId")), Wire.dateTime(args.get("start")),
+                            SlotAvailability.get().getAppointmentMinutes());
+                case "appointments/complete": {
+                    Appointment a = writable(s, args);
+                    String notes = (String) args.get("notes");
+                    int updated = appointments.complete(a.id, notes);
+                    if (updated > 0) PatientCharts.notesSaved(a.patientId, a.id, notes);
+                    return updated;
+                }
+                case "appointments/scheduledBetween": admin(s); return appointments.scheduledBetween(Wire.dateTime(args.get("from")), Wire.dateTime(args.get("to")));
+                case "reports/forAppointment": {
+                    Appointment a = readable(s, appointments.findById(Wire.integer(args.get("appointmentId"))));
+                    return a == null ? Collections.emptyList() : Repositories.reports().reportsForAppointment(a.id);
+                }
+                case "reports/forPatient": return Repositories.reports().reportsForPatient(ownPatient(s, args));
+                case "reports/add": {
+                    Appointment a = writable(s, args);
+                    String reportName = (String) args.get("reportName"), filePath = (String) args.get("filePath");
+                    if (!ReportStore.isContentKey(filePath)) throw new Refusal(400, "Upload the file before adding the report");
+                    Repositories.reports().addReport(a.id, reportName, filePath);
+                    PatientCharts.reportAdded(a.patientId, a.id, reportName, filePath);
+                    return null;
+                }
+                case "charts/forPatient": return PatientCharts.get(ownPatient(s, args));
+                case "changes/last": return Repositories.changes().lastChangeId();
+                case "changes/after": return visible(s, Repositories.changes().changesAfter(Wire.number(args.get("afterId")), Math.min(Wire.integer(args.get("limit")), 1_000)));
+                case "analytics/daily": admin(s); return Repositories.analytics().dailyStats(Wire.date(args.get("from")), Wire.date(args.get("to")));
+                case "analytics/rebuild": admin(s); Repositories.analytics().rebuildDailyStats(); return null;
+                default: throw new Refusal(404, "Unknown operation " + operation);
+            }
+        }
+
+        private Map<String, Object> login(Map<?, ?> args) throws SQLException {
+            User user = Repositories.users().authenticate((String) args.get("username"), (String) args.get("password"), (String) args.get("role"));
+            Map<String, Object> reply = new LinkedHashMap<>();
+            reply.put("user", user);
+            if (user != null) {
+                byte[] bytes = new byte[24];
+                random.nextBytes(bytes);
+                String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+                sessions.put(token, new Session(token, user));
+                reply.put("token", token);
+            }
+            return reply;
+        }
+
+        private Session session(HttpExchange exchange) throws Refusal {
+            String header = exchange.getRequestHeaders().getFirst("Authorization");
+            Session session = header != null && header.startsWith("Bearer ") ? sessions.get(header.substring("Bearer ".length())) : null;
+            long now = System.currentTimeMillis();
+            if (session == null || now - session.lastUsed > SESSION_IDLE_MILLIS) {
+                if (session != null) sessions.remove(session.token);
+                throw new Refusal(401, "Not signed in");
+            }
+            session.lastUsed = now;
+            return session;
+        }
+
+        private static void staff(Session s) throws Refusal { if (s.is("patient")) throw new Refusal(403, "Not available to patients"); }
+        private static void admin(Session s) throws Refusal { if (!s.is("admin")) throw new Refusal(403, "Only the admin can do this"); }
+
+        // Patients and doctors always get their own scope; only the filter they chose is kept.
+        private static AppointmentScope scope(Session s, Map<?, ?> args) {
+            AppointmentScope requested = Wire.scope(args.get("scope"));
+            AppointmentScope own = AppointmentScope.forUser(s.user);
+            return own.kind == AppointmentScope.Kind.ALL ? requested : own.filtered(requested.filter);
+        }
+
+        private static int ownPatient(Session s, Map<?, ?> args) throws SQLException, Refusal {
+            int patientId = Wire.integer(args.get("patientId"));
+            if (!s.is("patient")) return patientId;
+            Patient own = ReferenceData.patientForUser(s.user.id);
+            if (own == null || own.id != patientId) throw new Refusal(403, "Patients can only see their own records");
+            return patientId;
+        }
+
+        private static Appointment readable(Session s, Appointment a) throws SQLException {
+            if (a == null || !s.is("patient")) return a;
+            Patient own = ReferenceData.patientForUser(s.user.id);
+            return own != null && own.id == a.patientId ? a : null;
+        }
+
+        // Events outside the session's scope are cut down to their id, which the client's ChangeBus still needs to page
+        // through the feed and close its gaps.
+        private static List<ChangeEvent> visible(Session s, List<ChangeEvent> events) throws SQLException {
+            AppointmentScope scope = AppointmentScope.forUser(s.user);
+            if (scope.kind == AppointmentScope.Kind.ALL) return events;
+            int own = -1;
+            if (scope.kind == AppointmentScope.Kind.PATIENT) {
+                Patient p = ReferenceData.patientForUser(s.user.id);
+                if (p != null) own = p.id;
+            } else for (Doctor d : ReferenceData.doctors()) if (d.userId == s.user.id) own = d.id;
+            List<ChangeEvent> shown = new ArrayList<>(events.size());
+            for (ChangeEvent e : events) {
+                if ((scope.kind == AppointmentScope.Kind.PATIENT ? e.patientId : e.doctorId) == own) { shown.add(e); continue; }
+                ChangeEvent hidden = new ChangeEvent();
+                hidden.id = e.id;
+                shown.add(hidden);
+            }
+            return shown;
+        }
+
+        // Notes and reports: the admin, or the doctor the appointment is with.
+        private static Appointment writable(Session s, Map<?, ?> args) throws SQLException, Refusal {
+            staff(s);
+            Appointment a = Repositories.appointments().findById(Wire.integer(args.get("appointmentId")));
+            if (a == null) throw new Refusal(404, "No appointment " + args.get("appointmentId"));
+            if (!ReferenceData.mayWrite(s.user, a.doctorId)) throw new Refusal(403, "Appointment " + a.id + " is with another doctor");
+            return a;
+        }
+
+        private static Map<?, ?> arguments(HttpExchange exchange) throws IOException, Refusal {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) { body = readUpTo(in, MAX_REQUEST_BYTES + 1); }
+            if (body.length > MAX_REQUEST_BYTES) throw new Refusal(413, "Request larger than " + MAX_REQUEST_BYTES + " bytes");
+            if (body.length == 0) return Collections.emptyMap();
+            try {
+                return (Map<?, ?>) Json.parse(new String(body, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException | ClassCastException e) {
+                throw new Refusal(400, "Bad request: " + e.getMessage());
+            }
+        }
+
+        private static byte[] readUpTo(InputStream in, int limit) throws IOException {
+            byte[] buffer = new byte[Math.min(limit, 8 * 1024)];
+            int length = 0;
+            for (int read; length < limit && (read = in.read(buffer, length, Math.min(buffer.length, limit) - length)) != -1; ) {
+                length += read;
+                if (length == buffer.length && length < limit) buffer = Arrays.copyOf(buffer, Math.min(limit, buffer.length * 2));
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private static void reply(HttpExchange exchange, int status, CharSequence json) throws IOException {
+            byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) { out.write(bytes); }
+        }
+
+        // JSON Lines of [appointment, report] pairs streamed as the repository reads them, then {"rows": N}.
+        private static void export(HttpExchange exchange, Session s, Map<?, ?> args) throws SQLException, IOException {
+            AppointmentScope scope = scope(s, args);
+            boolean withReports = Boolean.TRUE.equals(args.get("withReports"));
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 64 * 1024)) {
+                StringBuilder line = new StringBuilder(512);
+                long[] rows = {0};
+                Repositories.exports().exportAppointments(scope, withReports, (a, report) -> {
+                    line.setLength(0);
+                    Wire.write(Wire.write(line.append('['), a).append(','), report).append("]\n");
+                    out.append(line);
+                    rows[0]++;
+                });
+                out.append(Wire.object(line.delete(0, line.length()), "rows", rows[0])).append('\n');
+            }
+        }
+
+        private void file(HttpExchange exchange, Session s, String key) throws IOException, Refusal {
+            if (!ReportStore.isContentKey(key)) throw new Refusal(404, "No report " + key);
+            Path file = ReportStore.get().resolve(key);
+            switch (exchange.getRequestMethod()) {
+                case "HEAD":
+                    exchange.sendResponseHeaders(Files.exists(file) ? 200 : 404, -1);
+                    return;
+                case "GET":
+                    if (!Files.exists(file)) throw new Refusal(404, "No report " + key);
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    exchange.sendResponseHeaders(200, Files.size(file));
+                    try (OutputStream out = exchange.getResponseBody()) { Files.copy(file, out); }
+                    return;
+                case "PUT":
+                    staff(s);
+                    String length = exchange.getRequestHeaders().getFirst("Content-Length");
+                    if (length != null && Long.parseLong(length) > MAX_UPLOAD_BYTES) throw new Refusal(413, "Report larger than " + MAX_UPLOAD_BYTES + " bytes");
+                    try (InputStream in = exchange.getRequestBody()) { ReportStore.get().receive(key, in, MAX_UPLOAD_BYTES); }
+                    catch (IOException e) { throw new Refusal(400, e.getMessage()); }
+                    exchange.sendResponseHeaders(204, -1);
+                    return;
+                default:
+                    throw new Refusal(405, "Use GET, HEAD or PUT for report files");
+            }
         }
-    }
-    public static class AdminDashboardPanel extends JPanel {
-        public AdminDashboardPanel() { setLayout(new BorderLayout()); add(new AppointmentsViewPanel(), BorderLayout.CENTER); }
     }
 
-    // ====================== PATIENT RECORDS VIEW ======================
-    public static class PatientRecordsPanel extends JPanel {
-        private final DefaultTableModel recordsTableModel;
-        private final DefaultTableModel reportsTableModel;
-        private int currentPatientId = -1;
-        private JLabel abhaInfoLabel;
+    // ====================== BULK IMPORT ======================
+    // Headless CSV loader for onboarding a branch:
+    //   java ProClinicManager import patients|appointments <file.csv> [--batch N] [--commit N] [--schema script.sql]
+    // patients.csv:     username,password,name,dob,phone,abha_id           (dob as yyyy-MM-dd)
+    // appointments.csv: patient_username,doctor_username,appointment_datetime,status,notes   (yyyy-MM-dd HH:mm[:ss])
+    // Each batch is written as one multi-row INSERT; transactions are committed every --commit rows.
+    private static class BulkImporter {
+        private static final DateTimeFormatter CSV_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]");
+        private final int batchSize, commitSize;
+        private long rowsWritten, startNanos;
 
+        BulkImporter(int batchSize, int commitSize) {
+            this.batchSize = Math.max(1, batchSize);
+            this.commitSize = Math.max(this.batchSize, commitSize);
+        }
 
-        public PatientRecordsPanel() {
-            setLayout(new BorderLayout(10, 10));
-            setBorder(new EmptyBorder(10, 10, 10, 10));
+        static void run(String[] args) throws Exception {
+            if (args.length < 2) {
+                System.err.println("Usage: import patients|appointments <file.csv> [--batch N] [--commit N] [--schema script.sql]");
+                System.exit(2);
+            }
+            int batch = 500, commit = 5_000; Path schema = null;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                    case "--commit": commit = Integer.parseInt(args[i + 1]); break;
+                    case "--schema": schema = Paths.get(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (schema != null) {
+                try (Connection conn = DatabaseManager.getConnection()) { runScript(conn, schema); }
+            }
+            BulkImporter importer = new BulkImporter(batch, commit);
+            try (Reader in = Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                if ("patients".equals(args[0])) importer.importPatients(in);
+                else if ("appointments".equals(args[0])) importer.importAppointments(in);
+                else throw new IllegalArgumentException("Unknown import type " + args[0]);
+            }
+        }
 
-            abhaInfoLabel = new JLabel("ABHA ID: Checking...", SwingConstants.LEFT);
-            abhaInfoLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
-            abhaInfoLabel.setBorder(new EmptyBorder(0, 5, 10, 0));
-            add(abhaInfoLabel, BorderLayout.NORTH);
+        // Executes a DDL/DML script such as the schema in README.md. Database-level statements are skipped so the
+        // same script can initialise an embedded stand-in database.
+        static void runScript(Connection conn, Path script) throws IOException, SQLException {
+            StringBuilder sql = new StringBuilder();
+            for (String line : Files.readAllLines(script, StandardCharsets.UTF_8)) {
+                if (!line.trim().startsWith("--")) sql.append(line).append('\n');
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String statement : sql.toString().split(";")) {
+                    String s = statement.trim(), upper = s.toUpperCase(Locale.ROOT);
+                    if (s.isEmpty() || upper.startsWith("DROP DATABASE") || upper.startsWith("CREATE DATABASE") || upper.startsWith("USE ")) continue;
+                    stmt.execute(s);
+                }
+            }
+        }
 
+        private static CSVParser parse(Reader in) throws IOException {
+            return CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).setTrim(true).setIgnoreEmptyLines(true).build().parse(in);
+        }
 
-            recordsTableModel = new DefaultTableModel(new String[]{"Date", "Doctor", "Notes"}, 0){
-                @Override public boolean isCellEditable(int r, int c) { return false; }
-            };
-            JTable recordsTable = new JTable(recordsTableModel);
-            JScrollPane recordsScrollPane = new JScrollPane(recordsTable);
-            recordsScrollPane.setBorder(new TitledBorder("Medical History"));
-            reportsTableModel = new DefaultTableModel(new String[]{"Uploaded On", "Report Name", "File Path"}, 0){
-                @Override public boolean isCellEditable(int r, int c) { return false; }
-            };
-            JTable reportsTable = new JTable(reportsTableModel);
-            reportsTable.removeColumn(reportsTable.getColumnModel().getColumn(2)); // Hide file path
+        private static String multiRowInsert(String prefix, String rowPlaceholders, int rows) {
+            StringBuilder sb = new StringBuilder(prefix.length() + rows * (rowPlaceholders.length() + 1)).append(prefix);
+            for (int i = 0; i < rows; i++) sb.append(i == 0 ? "" : ",").append(rowPlaceholders);
+            return sb.toString();
+        }
 
-            JButton viewReportButton = new JButton("View Selected Report");
-            JPanel reportsPanel = new JPanel(new BorderLayout(5, 5));
-            reportsPanel.setBorder(new TitledBorder("Scans & Reports (from ABHA)"));
-            reportsPanel.add(new JScrollPane(reportsTable), BorderLayout.CENTER);
-            reportsPanel.add(viewReportButton, BorderLayout.SOUTH);
-            JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, recordsScrollPane, reportsPanel);
-            splitPane.setResizeWeight(0.6);
-            add(splitPane, BorderLayout.CENTER);
-            viewReportButton.addActionListener(e -> {
-                int selectedRow = reportsTable.getSelectedRow();
-                if (selectedRow >= 0) {
-                    // Correctly get file path from the hidden column in the model
-                    String filePath = (String) reportsTableModel.getValueAt(selectedRow, 2);
-                    try {
-                        Desktop.getDesktop().open(new File(filePath));
-                    } catch (IOException ex) {
-                        JOptionPane.showMessageDialog(this, "Could not open file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                    }
-                } else {
-                    JOptionPane.showMessageDialog(this, "Please select a report to view.", "No Selection", JOptionPane.WARNING_MESSAGE);
+        // Same two-table semantics as RoleLoginFrame.performRegistration: a 'patient' user row, then its profile.
+        long importPatients(Reader in) throws IOException, SQLException {
+            begin();
+            try (CSVParser parser = parse(in); Connection conn = DatabaseManager.getConnection()) {
+                conn.setAutoCommit(false);
+                List<CSVRecord> batch = new ArrayList<>(batchSize);
+                long uncommitted = 0;
+                for (CSVRecord record : parser) {
+                    batch.add(record);
+                    if (batch.size() == batchSize) { uncommitted += writePatients(conn, batch); batch.clear(); }
+                    if (uncommitted >= commitSize) { commit(conn, "patients"); uncommitted = 0; }
                 }
-            });
-            loadPatientData();
+                if (!batch.isEmpty()) uncommitted += writePatients(conn, batch);
+                if (uncommitted > 0) commit(conn, "patients");
+            }
+            return finish("patients");
         }
 
-        private void loadPatientData() {
-            // Updated SQL to also fetch abha_id
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT id, abha_id FROM patients WHERE user_id = ?")) {
-                pstmt.setInt(1, SessionManager.getCurrentUser().id);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    this.currentPatientId = rs.getInt("id");
-                    String abhaId = rs.getString("abha_id");
-                    if(abhaId != null && !abhaId.isEmpty()){
-                       abhaInfoLabel.setText("Linked ABHA ID: " + abhaId);
-                    } else {
-                       abhaInfoLabel.setText("ABHA ID: Not Linked");
-                    }
-                    loadRecords();
-                    loadReports();
+        private int writePatients(Connection conn, List<CSVRecord> batch) throws SQLException {
+            int[] userIds = new int[batch.size()];
+            String userSql = multiRowInsert("INSERT INTO users (username, password, role) VALUES ", "(?, ?, 'patient')", batch.size());
+            try (PreparedStatement pstmt = conn.prepareStatement(userSql, Statement.RETURN_GENERATED_KEYS)) {
+                int p = 1;
+                for (CSVRecord r : batch) { pstmt.setString(p++, r.get("username")); pstmt.setString(p++, r.get("password")); }
+                pstmt.executeUpdate();
+                ResultSet keys = pstmt.getGeneratedKeys();
+                for (int i = 0; i < userIds.length; i++) {
+                    if (!keys.next()) throw new SQLException("Driver returned fewer generated keys than inserted users");
+                    userIds[i] = keys.getInt(1);
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
+            }
+            String patientSql = multiRowInsert("INSERT INTO patients (user_id, name, dob, phone, abha_id) VALUES ", "(?, ?, ?, ?, ?)", batch.size());
+            try (PreparedStatement pstmt = conn.prepareStatement(patientSql)) {
+                int p = 1;
+                for (int i = 0; i < batch.size(); i++) {
+                    CSVRecord r = batch.get(i);
+                    pstmt.setInt(p++, userIds[i]); pstmt.setString(p++, r.get("name"));
+                    pstmt.setDate(p++, Date.valueOf(LocalDate.parse(r.get("dob"))));
+                    pstmt.setString(p++, optional(r, "phone")); pstmt.setString(p++, optional(r, "abha_id"));
+                }
+                pstmt.executeUpdate();
+            }
+            rowsWritten += batch.size();
+            return batch.size();
         }
 
-        private void loadRecords() {
-            recordsTableModel.setRowCount(0);
-            String sql = "SELECT a.appointment_datetime, d.name, a.notes FROM appointments a JOIN doctors d ON a.doctor_id = d.id WHERE a.patient_id = ? ORDER BY a.appointment_datetime DESC";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, currentPatientId);
-                ResultSet rs = pstmt.executeQuery();
-                while(rs.next()) {
-                    Vector<Object> row = new Vector<>();
-                    row.add(rs.getTimestamp("appointment_datetime").toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                    row.add(rs.getString("name"));
-                    row.add(rs.getString("notes"));
-                    recordsTableModel.addRow(row);
+        long importAppointments(Reader in) throws IOException, SQLException {
+            begin();
+            try (CSVParser parser = parse(in); Connection conn = DatabaseManager.getConnection()) {
+                Map<String, Integer> patientIds = idsByUsername(conn, "SELECT u.username, p.id FROM patients p JOIN users u ON p.user_id = u.id");
+                Map<String, Integer> doctorIds = idsByUsername(conn, "SELECT u.username, d.id FROM doctors d JOIN users u ON d.user_id = u.id");
+                conn.setAutoCommit(false);
+                List<Object[]> batch = new ArrayList<>(batchSize);
+                long uncommitted = 0;
+                for (CSVRecord r : parser) {
+                    Integer patientId = patientIds.get(r.get("patient_username")), doctorId = doctorIds.get(r.get("doctor_username"));
+                    if (patientId == null || doctorId == null)
+                        throw new IllegalArgumentException("Line " + parser.getCurrentLineNumber() + ": unknown patient or doctor username");
+                    String status = optional(r, "status");
+                    batch.add(new Object[]{patientId, doctorId, Timestamp.valueOf(LocalDateTime.parse(r.get("appointment_datetime"), CSV_DATE_TIME)),
+                            status == null ? "Scheduled" : status, optional(r, "notes")});
+                    if (batch.size() == batchSize) { uncommitted += writeAppointments(conn, batch); batch.clear(); }
+                    if (uncommitted >= commitSize) { commit(conn, "appointments"); uncommitted = 0; }
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
+                if (!batch.isEmpty()) uncommitted += writeAppointments(conn, batch);
+                if (uncommitted > 0) commit(conn, "appointments");
+                JdbcStore.rebuildDailyStats(conn);
+            }
+            return finish("appointments");
         }
 
-        private void loadReports() {
-            reportsTableModel.setRowCount(0);
-            String sql = "SELECT mr.uploaded_at, mr.report_name, mr.file_path FROM medical_reports mr JOIN appointments a ON mr.appointment_id = a.id WHERE a.patient_id = ? ORDER BY mr.uploaded_at DESC";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, currentPatientId);
-                ResultSet rs = pstmt.executeQuery();
-                while(rs.next()) {
-                    Vector<Object> row = new Vector<>();
-                    row.add(rs.getTimestamp("uploaded_at").toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
-                    row.add("[ABHA] " + rs.getString("report_name")); // Add ABHA prefix
-                    row.add(rs.getString("file_path")); // Hidden column
-                    reportsTableModel.addRow(row);
+        // Each row also gets a change_events row in the same transaction, so open views, the notes index and the
+        // reminder process pick it up. Rows with notes are recorded as updates, which is what the notes index listens for.
+        private int writeAppointments(Connection conn, List<Object[]> batch) throws SQLException {
+            String sql = multiRowInsert("INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, status, notes) VALUES ", "(?, ?, ?, ?, ?)", batch.size());
+            List<Integer> booked = new ArrayList<>(batch.size()), withNotes = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                int p = 1;
+                for (Object[] row : batch) {
+                    pstmt.setInt(p++, (Integer) row[0]); pstmt.setInt(p++, (Integer) row[1]); pstmt.setTimestamp(p++, (Timestamp) row[2]);
+                    pstmt.setString(p++, (String) row[3]); pstmt.setString(p++, (String) row[4]);
+                }
+                pstmt.executeUpdate();
+                ResultSet keys = pstmt.getGeneratedKeys();
+                for (Object[] row : batch) {
+                    if (!keys.next()) throw new SQLException("Driver returned fewer generated keys than inserted appointments");
+                    (row[4] == null ? booked : withNotes).add(keys.getInt(1));
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
+            }
+            JdbcStore.recordChanges(conn, ChangeEvent.Kind.APPOINTMENT_BOOKED, booked);
+            JdbcStore.recordChanges(conn, ChangeEvent.Kind.APPOINTMENT_UPDATED, withNotes);
+            rowsWritten += batch.size();
+            return batch.size();
         }
-    }
 
-    // ====================== APPOINTMENTS VIEW ======================
-    public static class AppointmentsViewPanel extends JPanel {
-        private final DefaultTableModel tableModel;
-        private final JTable table;
+        private static Map<String, Integer> idsByUsername(Connection conn, String sql) throws SQLException {
+            Map<String, Integer> ids = new HashMap<>();
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) ids.put(rs.getString(1), rs.getInt(2));
+            }
+            return ids;
+        }
 
-        public AppointmentsViewPanel() {
-            setLayout(new BorderLayout());
-            tableModel = new DefaultTableModel(new String[]{"ID", "Patient", "Doctor", "Date & Time", "Status", "PatientID", "Notes"}, 0){
-                   @Override public boolean isCellEditable(int r, int c) { return false; }
-            };
-            table = new JTable(tableModel);
-            table.removeColumn(table.getColumnModel().getColumn(6));
-            table.removeColumn(table.getColumnModel().getColumn(5));
-            table.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-            table.setRowHeight(25);
-            table.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 15));
-            add(new JScrollPane(table), BorderLayout.CENTER);
-            refreshData();
+        private static String optional(CSVRecord r, String column) {
+            if (!r.isMapped(column) || !r.isSet(column)) return null;
+            String value = r.get(column);
+            return value.isEmpty() ? null : value;
         }
-        public JTable getTable() { return table; }
 
-        public void refreshData() {
-            tableModel.setRowCount(0);
-            String sql = "SELECT a.id, p.name as patient_name, d.name as doctor_name, a.appointment_datetime, a.status, p.id as patient_id, a.notes FROM appointments a JOIN patients p ON a.patient_id = p.id JOIN doctors d ON a.doctor_id = d.id";
-            User currentUser = SessionManager.getCurrentUser();
-            if (SessionManager.hasRole("patient")) sql += " WHERE p.user_id = " + currentUser.id;
-            else if (SessionManager.hasRole("doctor")) sql += " WHERE d.user_id = " + currentUser.id;
-            sql += " ORDER BY a.appointment_datetime DESC";
-            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-                while (rs.next()) {
-                    Vector<Object> row = new Vector<>();
-                    row.add(rs.getInt("id"));
-                    row.add(rs.getString("patient_name"));
-                    row.add(rs.getString("doctor_name"));
-                    row.add(rs.getTimestamp("appointment_datetime").toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                    row.add(rs.getString("status"));
-                    row.add(rs.getInt("patient_id"));
-                    row.add(rs.getString("notes"));
-                    tableModel.addRow(row);
-                }
-            } catch (SQLException e) { e.printStackTrace(); }
+        private void begin() { rowsWritten = 0; startNanos = System.nanoTime(); }
+
+        private void commit(Connection conn, String what) throws SQLException {
+            conn.commit();
+            System.out.printf("%s: %,d rows committed (%,.0f rows/s)%n", what, rowsWritten, rowsPerSecond());
         }
-    }
 
-    // ====================== BOOKING DIALOG ======================
-    public static class AppointmentBookingDialog extends JDialog {
-        private final PatientDashboardPanel parentPanel;
-        public AppointmentBookingDialog(PatientDashboardPanel parent) {
-            this.parentPanel = parent; setTitle("Book an Appointment"); setModal(true);
-            setSize(500, 300); setLocationRelativeTo(parent); setLayout(new GridBagLayout());
-            GridBagConstraints gbc = new GridBagConstraints(); gbc.insets = new Insets(10, 10, 10, 10);
-            gbc.fill = GridBagConstraints.HORIZONTAL; final JComboBox<Doctor> doctorCombo = new JComboBox<>();
-            final DatePicker datePicker = new DatePicker(); final TimePicker timePicker = new TimePicker();
-            gbc.gridx = 0; gbc.gridy = 0; add(new JLabel("Select Doctor:"), gbc);
-            gbc.gridx = 1; gbc.weightx = 1.0; add(doctorCombo, gbc);
-            gbc.gridx = 0; gbc.gridy = 1; add(new JLabel("Select Date:"), gbc);
-            gbc.gridx = 1; add(datePicker, gbc);
-            gbc.gridx = 0; gbc.gridy = 2; add(new JLabel("Select Time:"), gbc);
-            gbc.gridx = 1; add(timePicker, gbc);
-            ModernButton bookButton = new ModernButton("Book"); gbc.gridx = 1; gbc.gridy = 3; add(bookButton, gbc);
-            loadDoctorsIntoComboBox(doctorCombo);
-            bookButton.addActionListener(e -> {
-                Doctor selectedDoctor = (Doctor) doctorCombo.getSelectedItem();
-                LocalDate selectedDate = datePicker.getDate(); LocalTime selectedTime = timePicker.getTime();
-                if (selectedDoctor == null || selectedDate == null || selectedTime == null) {
-                    JOptionPane.showMessageDialog(this, "All fields are required.", "Error", JOptionPane.ERROR_MESSAGE); return;
-                }
-                LocalDateTime appointmentDateTime = LocalDateTime.of(selectedDate, selectedTime); int patientId = -1;
-                try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM patients WHERE user_id = ?")) {
-                    pstmt.setInt(1, SessionManager.getCurrentUser().id); ResultSet rs = pstmt.executeQuery();
-                    if (rs.next()) patientId = rs.getInt(1);
-                } catch (SQLException ex) { ex.printStackTrace(); }
-                if (patientId == -1) { JOptionPane.showMessageDialog(this, "Could not find patient profile.", "Error", JOptionPane.ERROR_MESSAGE); return; }
-                String sql = "INSERT INTO appointments (patient_id, doctor_id, appointment_datetime) VALUES (?, ?, ?)";
-                try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                    pstmt.setInt(1, patientId); pstmt.setInt(2, selectedDoctor.id);
-                    pstmt.setTimestamp(3, Timestamp.valueOf(appointmentDateTime)); pstmt.executeUpdate();
-                    JOptionPane.showMessageDialog(this, "Appointment booked successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    parentPanel.refreshAppointments(); dispose();
-                } catch (SQLException ex) { JOptionPane.showMessageDialog(this, "Booking failed: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE); }
-            });
+        private long finish(String what) {
+            System.out.printf("%s: imported %,d rows in %.2f s (%,.0f rows/s)%n", what, rowsWritten, (System.nanoTime() - startNanos) / 1e9, rowsPerSecond());
+            return rowsWritten;
         }
-        private void loadDoctorsIntoComboBox(JComboBox<Doctor> doctorCombo) {
-            try (Connection conn = DatabaseManager.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM doctors ORDER BY name")) {
-                while (rs.next()) {
-                    Doctor d = new Doctor(); d.id = rs.getInt("id"); d.userId = rs.getInt("user_id"); d.name = rs.getString("name"); d.specialty = rs.getString("specialty");
-                    doctorCombo.addItem(d);
-                }
-            } catch (SQLException e) { e.printStackTrace(); }
+
+        private double rowsPerSecond() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return seconds <= 0 ? 0 : rowsWritten / seconds;
         }
     }
 
-    // ====================== PATIENT HISTORY DIALOG (FOR DOCTOR) ======================
-    public static class PatientHistoryDialog extends JDialog {
-        private final int patientId;
-        private final int appointmentId;
-        private final JTextArea notesArea;
-        private final DefaultTableModel reportsTableModel;
+    // ====================== LOAD GENERATOR ======================
+    // java ProClinicManager loadtest [--patients N] [--doctors N] [--admins N] [--bookings N] [--start yyyy-MM-dd] [--days N] [--think ms] [--schema script.sql]
+    // Simulates a clinic day. Patient terminals log in, book and refresh their own list. Doctor terminals refresh and
+    // complete visits and admin terminals refresh the full grid until every patient is done. Each terminal is one
+    // virtual thread running the same code as the Swing screens. Doctors and the admin log in with the seed
+    // passwords from README.md; patients get fresh accounts, and bookings go to --days days from --start (default tomorrow).
+    private static class LoadGenerator {
+        private static final String PATIENT_PASSWORD = "loadtest";
 
-        public PatientHistoryDialog(JFrame owner, int patientId, String patientName, int appointmentId) {
-            super(owner, "Medical File: " + patientName, true);
-            this.patientId = patientId;
-            this.appointmentId = appointmentId;
-            setSize(800, 600); setLocationRelativeTo(owner);
-            setLayout(new BorderLayout(10, 10));
-            JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
-            splitPane.setResizeWeight(0.5);
-            JPanel topPanel = new JPanel(new GridLayout(1, 2, 10, 10));
-            notesArea = new JTextArea(10, 30);
-            JPanel notesPanel = new JPanel(new BorderLayout());
-            notesPanel.setBorder(new TitledBorder("Diagnosis & Prescription Notes"));
-            notesPanel.add(new JScrollPane(notesArea), BorderLayout.CENTER);
-            topPanel.add(notesPanel);
-            topPanel.add(createReportsPanel());
-            splitPane.setTopComponent(topPanel);
-            splitPane.setBottomComponent(createHistoryPanel());
-            add(splitPane, BorderLayout.CENTER);
-            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-            ModernButton saveButton = new ModernButton("Save Changes");
-            ModernButton closeButton = new ModernButton("Close");
-            buttonPanel.add(saveButton);
-            buttonPanel.add(closeButton);
-            add(buttonPanel, BorderLayout.SOUTH);
-            closeButton.addActionListener(e -> dispose());
-            saveButton.addActionListener(e -> saveChanges());
-            reportsTableModel = (DefaultTableModel)((JTable)((JScrollPane)((JPanel)topPanel.getComponent(1)).getComponent(0)).getViewport().getView()).getModel();
-            loadInitialData();
-            loadReports();
+        // Keeps every sample; a simulated day is at most a few hundred thousand operations.
+        private static class LatencyRecorder {
+            private long[] samples = new long[1024];
+            private int count; private long errors;
+
+            synchronized void record(long nanos) {
+                if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                samples[count++] = nanos;
+            }
+            synchronized long error() { return ++errors; }
+
+            synchronized String summary(String operation, double seconds) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                return String.format("%-10s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f", operation, count, errors, count / seconds,
+                        percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), count == 0 ? 0.0 : sorted[count - 1] / 1e6);
+            }
+
+            private static double percentile(long[] sorted, double p) {
+                return sorted.length == 0 ? 0.0 : sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+            }
         }
 
-        private JPanel createReportsPanel() {
-            JPanel panel = new JPanel(new BorderLayout(5, 5));
-            panel.setBorder(new TitledBorder("Uploaded Reports"));
-            DefaultTableModel model = new DefaultTableModel(new String[]{"Date", "Name", "File Path"}, 0){
-                @Override public boolean isCellEditable(int r, int c) { return false; }
-            };
-            JTable reportsTable = new JTable(model);
-            reportsTable.removeColumn(reportsTable.getColumnModel().getColumn(2)); // Hide file path
-            panel.add(new JScrollPane(reportsTable), BorderLayout.CENTER);
-            JButton uploadButton = new JButton("Upload New Report");
-            uploadButton.addActionListener(e -> uploadReport());
-            panel.add(uploadButton, BorderLayout.SOUTH);
-            return panel;
+        private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+        private final AtomicLong slotsTaken = new AtomicLong();
+        private final int bookings, days, thinkMillis;
+        private final LocalDate firstDay;
+        private List<Doctor> doctors;
+        private volatile boolean patientsDone;
+
+        LoadGenerator(int bookings, LocalDate firstDay, int days, int thinkMillis) {
+            this.bookings = bookings; this.firstDay = firstDay; this.days = Math.max(1, days); this.thinkMillis = thinkMillis;
+            for (String operation : new String[]{"login", "dashboard", "book", "refresh", "saveNotes"}) recorders.put(operation, new LatencyRecorder());
         }
 
-        private JPanel createHistoryPanel() {
-            JPanel panel = new JPanel(new BorderLayout());
-            panel.setBorder(new TitledBorder("Patient Appointment History"));
-            DefaultTableModel historyModel = new DefaultTableModel(new String[]{"Date", "Doctor", "Status"}, 0);
-            JTable historyTable = new JTable(historyModel);
-            panel.add(new JScrollPane(historyTable), BorderLayout.CENTER);
-            String sql = "SELECT a.appointment_datetime, d.name, a.status FROM appointments a JOIN doctors d ON a.doctor_id = d.id WHERE a.patient_id = ? ORDER BY a.appointment_datetime DESC";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, patientId);
-                ResultSet rs = pstmt.executeQuery();
-                while (rs.next()) {
-                    historyModel.addRow(new Object[]{
-                        rs.getTimestamp("appointment_datetime").toLocalDateTime().format(DateTimeFormatter.ISO_LOCAL_DATE),
-                        rs.getString("name"),
-                        rs.getString("status")
-                    });
+        static void run(String[] args) throws Exception {
+            int patients = 200, doctorTerminals = 20, admins = 5, bookings = 3, days = 5, think = 50; Path schema = null;
+            LocalDate start = LocalDate.now().plusDays(1);
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--patients": patients = Integer.parseInt(args[i + 1]); break;
+                    case "--doctors": doctorTerminals = Integer.parseInt(args[i + 1]); break;
+                    case "--admins": admins = Integer.parseInt(args[i + 1]); break;
+                    case "--bookings": bookings = Integer.parseInt(args[i + 1]); break;
+                    case "--start": start = LocalDate.parse(args[i + 1]); break;
+                    case "--days": days = Integer.parseInt(args[i + 1]); break;
+                    case "--think": think = Integer.parseInt(args[i + 1]); break;
+                    case "--schema": schema = Paths.get(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
-            return panel;
+            }
+            // RemoteStore keeps one session per process, and the terminals sign in as many different users.
+            if (Repositories.users() instanceof RemoteStore) throw new IllegalArgumentException("loadtest needs -Dclinic.store=jdbc or memory");
+            if (schema != null) {
+                try (Connection conn = DatabaseManager.getConnection()) { BulkImporter.runScript(conn, schema); }
+            }
+            new LoadGenerator(bookings, start, days, think).simulate(patients, doctorTerminals, admins);
         }
 
-        private void loadInitialData() {
-            String sql = "SELECT notes FROM appointments WHERE id = ?";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, appointmentId);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    notesArea.setText(rs.getString("notes"));
+        void simulate(int patients, int doctorTerminals, int admins) throws Exception {
+            doctors = Repositories.doctors().findAll();
+            if (doctors.isEmpty()) throw new IllegalStateException("No doctors in the database");
+            String prefix = "lt" + Long.toString(System.currentTimeMillis(), 36) + "_";
+            long setupStart = System.nanoTime();
+            for (int i = 0; i < patients; i++) Repositories.patients().register(prefix + i, PATIENT_PASSWORD, "Load Test " + i, LocalDate.of(1990, 1, 1), "0000000000", null);
+            System.out.printf("Registered %d patient accounts in %.1f s%n", patients, (System.nanoTime() - setupStart) / 1e9);
+
+            ExecutorService terminals = DataExecutor.createExecutor();
+            List<Future<?>> patientTerminals = new ArrayList<>(), staffTerminals = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < patients; i++) { String username = prefix + i; patientTerminals.add(terminals.submit(() -> { patient(username); return null; })); }
+            for (int i = 0; i < doctorTerminals; i++) { Doctor doctor = doctors.get(i % doctors.size()); staffTerminals.add(terminals.submit(() -> { doctor(doctor); return null; })); }
+            for (int i = 0; i < admins; i++) staffTerminals.add(terminals.submit(() -> { admin(); return null; }));
+            await(patientTerminals);
+            patientsDone = true;
+            await(staffTerminals);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            terminals.shutdown();
+
+            System.out.printf("Simulated %d patient, %d doctor and %d admin terminals for %.1f s (%d booking attempts hit a taken slot)%n",
+                    patients, doctorTerminals, admins, seconds, slotsTaken.get());
+            System.out.printf("%-10s %8s %7s %9s %9s %9s %9s %9s%n", "operation", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+            for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) System.out.println(entry.getValue().summary(entry.getKey(), seconds));
+            if (Repositories.appointments() instanceof JdbcStore) {
+                System.out.println(DatabaseManager.getPool().getStats());
+                System.out.print(QueryMetrics.get().report(10));
+            }
+        }
+
+        private static void await(List<Future<?>> futures) throws InterruptedException {
+            for (Future<?> future : futures) {
+                try { future.get(); } catch (ExecutionException e) { e.getCause().printStackTrace(); }
+            }
+        }
+
+        private <T> T timed(String operation, DataExecutor.Work<T> work) {
+            LatencyRecorder recorder = recorders.get(operation);
+            long start = System.nanoTime();
+            try {
+                T result = work.call();
+                recorder.record(System.nanoTime() - start);
+                return result;
+            } catch (Exception e) {
+                if (recorder.error() == 1) System.err.println(operation + " failed: " + e);
+                return null;
+            }
+        }
+
+        private void think() throws InterruptedException {
+            if (thinkMillis > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(thinkMillis * 2 + 1));
+        }
+
+        // RoleLoginFrame.performLogin, then AppointmentBookingDialog's book action followed by the list refresh.
+        private void patient(String username) throws InterruptedException {
+            User user = timed("login", () -> Repositories.users().authenticate(username, PATIENT_PASSWORD, null));
+            if (user == null) return;
+            PagedAppointmentTableModel ownAppointments = openDashboard(user);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int b = 0; b < bookings; b++) {
+                think();
+                for (int attempt = 0; attempt < 20; attempt++) { // like a receptionist trying another slot
+                    int doctorId = doctors.get(random.nextInt(doctors.size())).id;
+                    LocalDateTime slot = firstDay.plusDays(random.nextInt(days)).atTime(9, 0).plusMinutes(15L * random.nextInt(32));
+                    AppointmentBookingDialog.BookingResult result = timed("book", () -> AppointmentBookingDialog.bookAppointment(user.id, doctorId, slot));
+                    if (result != AppointmentBookingDialog.BookingResult.SLOT_TAKEN) break;
+                    slotsTaken.incrementAndGet();
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
+                timed("refresh", ownAppointments::loadSnapshot);
+            }
         }
 
-        private void loadReports() {
-            reportsTableModel.setRowCount(0);
-            String sql = "SELECT uploaded_at, report_name, file_path FROM medical_reports WHERE appointment_id = ? ORDER BY uploaded_at DESC";
-            try(Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, appointmentId);
-                ResultSet rs = pstmt.executeQuery();
-                while(rs.next()) {
-                    reportsTableModel.addRow(new Object[]{
-                        rs.getTimestamp("uploaded_at").toLocalDateTime().format(DateTimeFormatter.ISO_LOCAL_DATE),
-                        rs.getString("report_name"),
-                        rs.getString("file_path") // hidden
-                    });
+        // Refreshes the doctor's appointments and completes the newest scheduled one, like PatientHistoryDialog.saveChanges.
+        private void doctor(Doctor doctor) throws InterruptedException {
+            User user = timed("login", () -> Repositories.users().authenticate("dr_" + doctor.name.toLowerCase().replace(" ", ""), String.format("%02d", doctor.id), "doctor"));
+            if (user == null) return;
+            PagedAppointmentTableModel appointments = openDashboard(user);
+            while (!patientsDone) {
+                PagedAppointmentTableModel.Snapshot snapshot = timed("refresh", appointments::loadSnapshot);
+                if (snapshot != null) for (int i = 0; i < snapshot.firstPage.size; i++) {
+                    if (!"Scheduled".equals(PagedAppointmentTableModel.STATUSES.decode(snapshot.firstPage.statuses[i]))) continue;
+                    int appointmentId = snapshot.firstPage.ids[i];
+                    timed("saveNotes", () -> PatientHistoryDialog.saveNotes(user, appointmentId, "Seen during load test"));
+                    break;
                 }
-            } catch (SQLException ex) { ex.printStackTrace(); }
+                think();
+            }
         }
 
-        private void saveChanges() {
-            String sql = "UPDATE appointments SET notes = ?, status = 'Completed' WHERE id = ?";
-            try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, notesArea.getText());
-                pstmt.setInt(2, appointmentId);
-                pstmt.executeUpdate();
-                JOptionPane.showMessageDialog(this, "Record updated successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-            } catch (SQLException ex) {
-                JOptionPane.showMessageDialog(this, "Failed to update record: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+        // Runs the same prefetch as the login screens and waits for all of it, like a dashboard that has finished loading.
+        private PagedAppointmentTableModel openDashboard(User user) {
+            LoginPrefetch prefetch = new LoginPrefetch(user, System.nanoTime());
+            timed("dashboard", () -> { prefetch.awaitAll(); return null; });
+            return prefetch.claimAppointments();
+        }
+
+        private void admin() throws InterruptedException {
+            User user = timed("login", () -> Repositories.users().authenticate("Admin", "12345678", "admin"));
+            if (user == null) return;
+            PagedAppointmentTableModel appointments = openDashboard(user);
+            while (!patientsDone) {
+                timed("refresh", appointments::loadSnapshot);
+                think();
             }
         }
+    }
 
-        private void uploadReport() {
-            JFileChooser fileChooser = new JFileChooser();
-            int result = fileChooser.showOpenDialog(this);
-            if (result == JFileChooser.APPROVE_OPTION) {
-                File selectedFile = fileChooser.getSelectedFile();
-                Path destFolder = Paths.get("clinic_uploads");
-                String newFileName = patientId + "_" + appointmentId + "_" + System.currentTimeMillis() + "_" + selectedFile.getName();
-                Path destPath = destFolder.resolve(newFileName);
-                try {
-                    Files.copy(selectedFile.toPath(), destPath, StandardCopyOption.REPLACE_EXISTING);
-                    String sql = "INSERT INTO medical_reports (appointment_id, report_name, file_path) VALUES (?, ?, ?)";
-                    try (Connection conn = DatabaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                        pstmt.setInt(1, appointmentId);
-                        pstmt.setString(2, selectedFile.getName());
-                        pstmt.setString(3, destPath.toAbsolutePath().toString());
-                        pstmt.executeUpdate();
-                        JOptionPane.showMessageDialog(this, "Report uploaded successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                        loadReports(); // Refresh the list
+    // ====================== BOOKING CHECK ======================
+    // java ProClinicManager bookingcheck [--attempts N] [--doctors N] [--days N] [--start yyyy-MM-dd] [--schema script.sql]
+    // Releases N booking attempts at once on 5-minute starts between 09:00 and 11:00 of --days days (default from
+    // tomorrow) for the first --doctors doctors. Half go through AppointmentBookingDialog.insertAppointment like this
+    // terminal's dialog, half straight to insertIfFree like other terminals that do not share its slot cache. Then
+    // every pair of appointments of one doctor that overlaps inside that window is counted; the exit code is 1 if any.
+    private static class BookingCheck {
+        static void run(String[] args) throws Exception {
+            int attempts = 5_000, doctorCount = 3, days = 2; Path schema = null;
+            LocalDate start = LocalDate.now().plusDays(1);
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--attempts": attempts = Integer.parseInt(args[i + 1]); break;
+                    case "--doctors": doctorCount = Integer.parseInt(args[i + 1]); break;
+                    case "--days": days = Math.max(1, Integer.parseInt(args[i + 1])); break;
+                    case "--start": start = LocalDate.parse(args[i + 1]); break;
+                    case "--schema": schema = Paths.get(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (Repositories.users() instanceof RemoteStore) throw new IllegalArgumentException("bookingcheck needs -Dclinic.store=jdbc or memory");
+            if (schema != null) {
+                try (Connection conn = DatabaseManager.getConnection()) { BulkImporter.runScript(conn, schema); }
+            }
+            List<Doctor> doctors = Repositories.doctors().findAll();
+            doctors = doctors.subList(0, Math.min(doctorCount, doctors.size()));
+            if (doctors.isEmpty()) throw new IllegalStateException("No doctors in the database");
+            String prefix = "bc" + Long.toString(System.currentTimeMillis(), 36) + "_";
+            int[] patientIds = new int[20];
+            for (int i = 0; i < patientIds.length; i++) {
+                int userId = Repositories.patients().register(prefix + i, "bookingcheck", "Booking Check " + i, LocalDate.of(1990, 1, 1), "0000000000", null);
+                patientIds[i] = Repositories.patients().findByUserId(userId).id;
+            }
+
+            ExecutorService terminals = DataExecutor.createExecutor();
+            CountDownLatch go = new CountDownLatch(1);
+            AtomicInteger booked = new AtomicInteger(), taken = new AtomicInteger(), errors = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>(attempts);
+            Random random = new Random(42);
+            int minutes = SlotAvailability.get().getAppointmentMinutes();
+            for (int i = 0; i < attempts; i++) {
+                int patientId = patientIds[random.nextInt(patientIds.length)], doctorId = doctors.get(random.nextInt(doctors.size())).id;
+                LocalDateTime slot = start.plusDays(random.nextInt(days)).atTime(9, 0).plusMinutes(5L * random.nextInt(24));
+                boolean viaDialog = i % 2 == 0;
+                futures.add(terminals.submit(() -> {
+                    go.await();
+                    try {
+                        boolean ok = viaDialog ? AppointmentBookingDialog.insertAppointment(patientId, doctorId, slot) == AppointmentBookingDialog.BookingResult.BOOKED
+                                : Repositories.appointments().insertIfFree(patientId, doctorId, slot, minutes);
+                        (ok ? booked : taken).incrementAndGet();
+                    } catch (SQLException e) {
+                        if (errors.incrementAndGet() == 1) e.printStackTrace();
                     }
-                } catch (IOException | SQLException ex) {
-                    JOptionPane.showMessageDialog(this, "Report upload failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    return null;
+                }));
+            }
+            long started = System.nanoTime();
+            go.countDown();
+            for (Future<?> future : futures) future.get();
+            terminals.shutdown();
+            System.out.printf("%d booking attempts in %.1f s: %d booked, %d slot taken, %d failed%n", attempts, (System.nanoTime() - started) / 1e9, booked.get(), taken.get(), errors.get());
+
+            LocalDateTime from = start.atStartOfDay(), to = start.plusDays(days).atStartOfDay();
+            long overlaps = 0;
+            for (Doctor d : doctors) overlaps += overlaps(d.id, from, to, minutes);
+            System.out.println(overlaps == 0 ? "No overlapping appointments" : overlaps + " overlapping appointment pairs");
+            System.exit(overlaps == 0 && errors.get() == 0 ? 0 : 1);
+        }
+
+        private static final String OVERLAPS_SQL = "SELECT COUNT(*) FROM appointments a JOIN appointments b ON b.doctor_id = a.doctor_id AND b.id > a.id"
+                + " AND b.status <> 'Cancelled' AND b.appointment_datetime < TIMESTAMPADD(MINUTE, ?, a.appointment_datetime)"
+                + " AND a.appointment_datetime < TIMESTAMPADD(MINUTE, ?, b.appointment_datetime)"
+                + " WHERE a.doctor_id = ? AND a.status <> 'Cancelled' AND a.appointment_datetime >= ? AND a.appointment_datetime < ?";
+
+        // A self-join on the table with JDBC; the memory store is checked day by day from bookedStarts.
+        private static long overlaps(int doctorId, LocalDateTime from, LocalDateTime to, int minutes) throws SQLException {
+            if (Repositories.appointments() instanceof JdbcStore) {
+                try (Connection conn = DatabaseManager.getConnection(); PreparedStatement ps = conn.prepareStatement(OVERLAPS_SQL)) {
+                    ps.setInt(1, minutes); ps.setInt(2, minutes); ps.setInt(3, doctorId);
+                    ps.setTimestamp(4, Timestamp.valueOf(from)); ps.setTimestamp(5, Timestamp.valueOf(to));
+                    try (ResultSet rs = ps.executeQuery()) { rs.next(); return rs.getLong(1); }
                 }
             }
+            long overlaps = 0;
+            for (LocalDate day = from.toLocalDate(); day.isBefore(to.toLocalDate()); day = day.plusDays(1)) {
+                List<LocalDateTime> starts = new ArrayList<>(Repositories.appointments().bookedStarts(doctorId, day));
+                Collections.sort(starts);
+                for (int i = 0; i < starts.size(); i++)
+                    for (int j = i + 1; j < starts.size() && starts.get(j).isBefore(starts.get(i).plusMinutes(minutes)); j++) overlaps++;
+            }
+            return overlaps;
         }
     }
 }
\ No newline at end of file